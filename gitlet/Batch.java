@@ -0,0 +1,187 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/** Runs a script of Gitlet commands, one per line, in a single process.
+ *  A line is split into words at blanks; single or double quotes group
+ *  words, and a backslash escapes the next character.  Blank lines and
+ *  lines starting with '#' are skipped.  A command that fails prints its
+ *  message as it would on its own, and the batch goes on.
+ *
+ *  While a batch runs, the small metadata files that every command reads
+ *  and rewrites (HEAD and the stage maps) are kept in memory, and the
+ *  stat cache is shared by all commands.  They are written back once,
+ *  when the batch ends or the process is stopped. */
+class Batch {
+    /** Contents of the metadata files read or written by the running
+     *  batch, or null when no batch is running. */
+    private static Map<File, byte[]> files;
+
+    /** The files in FILES that have been written since the last flush. */
+    private static Set<File> dirty;
+
+    /** The stat cache shared by the commands of the running batch. */
+    private static Index index;
+
+    /** Returns true iff a batch is running. */
+    static boolean running() {
+        return files != null;
+    }
+
+    /** Returns the contents of FILE, from memory if the batch has already
+     *  read or written it, or from the snapshot a reader works against. */
+    static synchronized byte[] read(File file) {
+        byte[] snapshot = Snapshot.get(file);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        if (files == null) {
+            return readContents(file);
+        }
+        return files.computeIfAbsent(file, Utils::readContents);
+    }
+
+    /** Writes CONTENTS to FILE, or only to memory while a batch runs. */
+    static synchronized void write(File file, byte[] contents) {
+        if (files == null) {
+            writeAtomically(file, contents);
+        } else {
+            files.put(file, contents);
+            dirty.add(file);
+        }
+    }
+
+    /** Writes CONTENTS to FILE, and to memory too while a batch runs. */
+    static synchronized void writeThrough(File file, byte[] contents) {
+        writeAtomically(file, contents);
+        if (files != null) {
+            files.put(file, contents);
+            dirty.remove(file);
+        }
+    }
+
+    /** Returns the stat cache of the running batch, reading it the first
+     *  time. */
+    static synchronized Index index() {
+        if (index == null) {
+            index = Index.load();
+        }
+        return index;
+    }
+
+    /** Writes the metadata files and the stat cache that the batch has
+     *  changed, and ends the batch. */
+    private static synchronized void flush() {
+        if (files == null) {
+            return;
+        }
+        Map<File, byte[]> written = files;
+        Set<File> changed = dirty;
+        Index shared = index;
+        files = null;
+        dirty = null;
+        index = null;
+        for (File file : changed) {
+            writeAtomically(file, written.get(file));
+        }
+        if (shared != null) {
+            shared.write();
+        }
+    }
+
+    /** Runs every command that IN holds, then writes back the metadata.
+     *  Prints a summary of the failures, if any, to standard error. */
+    static void run(BufferedReader in) throws IOException {
+        PrintStream stdout = System.out;
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        Thread hook = new Thread(Batch::flush);
+        files = new HashMap<>();
+        dirty = new HashSet<>();
+        Runtime.getRuntime().addShutdownHook(hook);
+        System.setOut(out);
+
+        int commands = 0;
+        List<Integer> failed = new ArrayList<>();
+        try {
+            int number = 0;
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                number++;
+                if (line.isBlank() || line.strip().startsWith("#")) {
+                    continue;
+                }
+                commands++;
+                try {
+                    String[] args = split(line);
+                    if (args[0].equals("batch") || args[0].equals("daemon")) {
+                        throw new GitletException("Cannot run " + args[0] + " in a batch.");
+                    }
+                    Main.run(args);
+                } catch (GitletException excp) {
+                    System.out.println(excp.getMessage());
+                    failed.add(number);
+                } catch (RuntimeException excp) {
+                    System.out.println(excp);
+                    failed.add(number);
+                }
+            }
+        } finally {
+            flush();
+            Runtime.getRuntime().removeShutdownHook(hook);
+            out.flush();
+            System.setOut(stdout);
+        }
+        if (!failed.isEmpty()) {
+            String lines = failed.subList(0, Math.min(failed.size(), 10)).toString();
+            System.err.printf("batch: %d of %d commands failed, on lines %s%s%n",
+                    failed.size(), commands, lines, failed.size() > 10 ? " and more" : "");
+        }
+    }
+
+    /** Returns the words of LINE. */
+    static String[] split(String line) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = null;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length() && quote != '\'') {
+                word = word == null ? new StringBuilder() : word;
+                word.append(line.charAt(++i));
+            } else if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    word.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                word = word == null ? new StringBuilder() : word;
+                quote = c;
+            } else if (Character.isWhitespace(c)) {
+                if (word != null) {
+                    words.add(word.toString());
+                    word = null;
+                }
+            } else {
+                word = word == null ? new StringBuilder() : word;
+                word.append(c);
+            }
+        }
+        if (quote != 0) {
+            throw new GitletException("Unterminated quote.");
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words.toArray(new String[0]);
+    }
+}
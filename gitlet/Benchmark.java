@@ -0,0 +1,1376 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/** Micro-benchmarks for Gitlet's storage code, run as
+ *      java gitlet.Benchmark SUITE [OPTIONS...]
+ *  Each suite works in a scratch directory of its own and prints one
+ *  line per measurement.
+ */
+public class Benchmark {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: java gitlet.Benchmark SUITE [OPTIONS...]");
+            System.exit(0);
+        }
+        switch (args[0]) {
+            /** delta [KB] [VERSIONS]: pack VERSIONS edits of a KB-kilobyte file */
+            case "delta":
+                delta(intArg(args, 1, 256), intArg(args, 2, 100));
+                break;
+            /** prefix [COUNTS...]: resolve abbreviated ids among COUNTS commits */
+            case "prefix":
+                int[] counts = {10000, 100000, 1000000};
+                if (args.length > 1) {
+                    counts = new int[args.length - 1];
+                    for (int i = 1; i < args.length; i++) {
+                        counts[i - 1] = Integer.parseInt(args[i]);
+                    }
+                }
+                for (int n : counts) {
+                    prefix(n);
+                }
+                break;
+            /** codec [BLOBS...]: encode and decode commits tracking BLOBS files */
+            case "codec":
+                int[] sizes = {10, 1000, 10000};
+                if (args.length > 1) {
+                    sizes = new int[args.length - 1];
+                    for (int i = 1; i < args.length; i++) {
+                        sizes[i - 1] = Integer.parseInt(args[i]);
+                    }
+                }
+                for (int n : sizes) {
+                    codec(n);
+                }
+                break;
+            /** checkout [FILES] [CHANGED]: switch branches differing in CHANGED of FILES */
+            case "checkout":
+                checkout(intArg(args, 1, 100000), intArg(args, 2, 10));
+                break;
+            /** batch [COMMITS]: make COMMITS commits one process each, then in a batch */
+            case "batch":
+                batch(intArg(args, 1, 100));
+                break;
+            /** stage [MB] [COPIES]: add and commit MB-megabyte files, COPIES duplicates and a revert */
+            case "stage":
+                stage(intArg(args, 1, 64), intArg(args, 2, 200));
+                break;
+            /** merge [MB] [EDITS] [HEAP]: merge EDITS scattered edits a side to an MB-megabyte file */
+            case "merge":
+                merge(intArg(args, 1, 100), intArg(args, 2, 1000),
+                        args.length > 3 ? args[3] : "512m");
+                break;
+            /** diff [MB] [EDITS] [FILES] [BUDGET]: diff EDITS edits to an MB-megabyte file, and FILES edited files */
+            case "diff":
+                diff(intArg(args, 1, 200), intArg(args, 2, 1000), intArg(args, 3, 5000),
+                        intArg(args, 4, 16));
+                break;
+            /** renames [FILES] [EDITED]: rename FILES files at once, EDITED of them edited too */
+            case "renames":
+                renames(intArg(args, 1, 5000), intArg(args, 2, 1000));
+                break;
+            /** refs [BRANCHES]: create BRANCHES branches, then list and resolve them */
+            case "refs":
+                refs(intArg(args, 1, 50000));
+                break;
+            /** find [COUNTS...]: index COUNTS commit messages and query them */
+            case "find":
+                int[] commits = {10000, 100000};
+                if (args.length > 1) {
+                    commits = new int[args.length - 1];
+                    for (int i = 1; i < args.length; i++) {
+                        commits[i - 1] = Integer.parseInt(args[i]);
+                    }
+                }
+                for (int n : commits) {
+                    find(n);
+                }
+                break;
+            /** hotpaths [COMMITS] [FILES] [ITERATIONS] [RESULTS] [BASELINE]: time each command's
+             *  hot path in a generated repository, writing RESULTS as JSON and checking against
+             *  BASELINE */
+            case "hotpaths":
+                hotpaths(intArg(args, 1, 1000), intArg(args, 2, 1000), intArg(args, 3, 10),
+                        args.length > 4 ? args[4] : null, args.length > 5 ? args[5] : null);
+                break;
+            /** stress [READERS] [SECONDS]: run READERS reader processes against a committing writer */
+            case "stress":
+                stress(intArg(args, 1, 4), intArg(args, 2, 10));
+                break;
+            /** gc [COMMITS] [BUDGET]: collect COMMITS dropped commits at once, then in BUDGET ms steps */
+            case "gc":
+                gc(intArg(args, 1, 2000), intArg(args, 2, 20));
+                break;
+            /** The process that gc starts, in the repository to collect */
+            case "gc-run":
+                gcRun(intArg(args, 1, 0));
+                break;
+            /** The process that hotpaths starts, in the repository it generated */
+            case "hotpaths-run":
+                hotpathsRun(intArg(args, 1, 10));
+                break;
+            /** The processes that stress starts, in the repository to stress */
+            case "stress-writer":
+                stressWriter(intArg(args, 1, 10));
+                break;
+            case "stress-reader":
+                stressReader(intArg(args, 1, 10));
+                break;
+            default:
+                System.out.println("No benchmark with that name exists.");
+        }
+    }
+
+    /** Returns ARGS[I] as an int, or DEFAULTVALUE if it is missing. */
+    private static int intArg(String[] args, int i, int defaultValue) {
+        return args.length > i ? Integer.parseInt(args[i]) : defaultValue;
+    }
+
+    /** Returns a fresh scratch directory. */
+    static File scratch() throws IOException {
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    /** Deletes DIR and everything in it. */
+    static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        dir.delete();
+    }
+
+    /** Runs gitlet with ARGS in DIR in a fresh JVM with timing output on,
+     *  and returns its output and timing lines. */
+    static String gitlet(File dir, String... args) throws IOException {
+        return gitlet(dir, List.of(), args);
+    }
+
+    /** As for gitlet(DIR, ARGS), with the JVM options OPTIONS. */
+    static String gitlet(File dir, List<String> options, String... args)
+            throws IOException {
+        List<String> command = new ArrayList<>(Arrays.asList("java", "-cp",
+                System.getProperty("java.class.path"), "-Dgitlet.timing=true"));
+        command.addAll(options);
+        command.add("gitlet.Main");
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command).directory(dir)
+                .redirectErrorStream(true).start();
+        try (InputStream in = process.getInputStream()) {
+            String output = new String(in.readAllBytes());
+            process.waitFor();
+            return output;
+        } catch (InterruptedException excp) {
+            throw new IOException(excp);
+        }
+    }
+
+    /** Returns the total size of the files under DIR. */
+    private static long du(File dir) {
+        File[] files = dir.listFiles();
+        long total = 0;
+        if (files != null) {
+            for (File f : files) {
+                total += f.isDirectory() ? du(f) : f.length();
+            }
+        }
+        return total;
+    }
+
+    /** Stores VERSIONS successive versions of a text file of about KB
+     *  kilobytes, each a few-line edit of the one before, and reports the
+     *  packed size and the cost of reading every version back for several
+     *  delta chain limits. */
+    private static void delta(int kb, int versions) throws IOException {
+        Random random = new Random(42);
+        List<String> lines = new ArrayList<>();
+        while (lines.size() * 40 < kb * 1024) {
+            lines.add("key" + lines.size() + " = " + random.nextLong());
+        }
+
+        List<byte[]> contents = new ArrayList<>();
+        for (int v = 0; v < versions; v++) {
+            for (int e = 0; e < 3; e++) {
+                lines.set(random.nextInt(lines.size()), "edited" + v + " = " + random.nextLong());
+            }
+            contents.add(String.join("\n", lines).getBytes());
+        }
+
+        long full = 0;
+        for (byte[] c : contents) {
+            full += c.length;
+        }
+        System.out.printf("delta: %d versions of %d KB, %d bytes stored whole%n",
+                versions, kb, full);
+
+        for (int maxDepth : new int[] {0, 1, 5, 10, 50}) {
+            File dir = scratch();
+            ObjectStore store = new ObjectStore(dir);
+            Map<String, String> bases = new HashMap<>();
+            List<String> ids = new ArrayList<>();
+            String previous = null;
+            for (byte[] c : contents) {
+                String id = sha1(c);
+                store.write(id, c);
+                if (previous != null) {
+                    bases.put(id, previous);
+                }
+                ids.add(id);
+                previous = id;
+            }
+
+            long start = System.nanoTime();
+            store.pack(bases, maxDepth);
+            long packNanos = System.nanoTime() - start;
+            long packed = du(dir);
+
+            store = new ObjectStore(dir);
+            start = System.nanoTime();
+            for (int v = 0; v < versions; v++) {
+                if (!Arrays.equals(store.read(ids.get(v)), contents.get(v))) {
+                    throw error("Version %d read back wrong.", v);
+                }
+            }
+            long readNanos = System.nanoTime() - start;
+
+            System.out.printf("max depth %2d: %10d bytes (%5.1f%% of whole), "
+                    + "pack %7.1f ms, read %7.3f ms/version%n",
+                    maxDepth, packed, 100.0 * packed / full, packNanos / 1e6,
+                    readNanos / 1e6 / versions);
+            delete(dir);
+        }
+    }
+
+    /** Builds a commit index of N random UIDs and compares resolving
+     *  7-digit abbreviations through it with the linear scan of a sorted
+     *  listing that getFullID used to do. */
+    private static void prefix(int n) throws IOException {
+        Random random = new Random(n);
+        List<String> ids = new ArrayList<>(n);
+        List<HashIndex.Entry> entries = new ArrayList<>(n);
+        byte[] hash = new byte[HashIndex.HASH_SIZE];
+        for (int i = 0; i < n; i++) {
+            random.nextBytes(hash);
+            ids.add(sha1Hex(hash));
+            entries.add(new HashIndex.Entry(hash.clone(), i));
+        }
+        Collections.sort(ids);
+
+        File dir = scratch();
+        File file = join(dir, "commit-index");
+        HashIndex.write(file, entries);
+        HashIndex index = HashIndex.open(file);
+
+        int lookups = 10000;
+        List<String> prefixes = new ArrayList<>(lookups);
+        for (int i = 0; i < lookups; i++) {
+            prefixes.add(ids.get(random.nextInt(n)).substring(0, 7));
+        }
+
+        long start = System.nanoTime();
+        int ambiguous = 0;
+        for (String p : prefixes) {
+            int[] range = index.prefixRange(p);
+            if (range[1] - range[0] > 1) {
+                ambiguous++;
+            }
+        }
+        long indexNanos = System.nanoTime() - start;
+
+        int scans = Math.max(1, Math.min(lookups, 100000000 / n / 10));
+        start = System.nanoTime();
+        for (int i = 0; i < scans; i++) {
+            String p = prefixes.get(i);
+            int matches = 0;
+            for (String id : ids) {
+                if (id.startsWith(p)) {
+                    matches++;
+                }
+            }
+            int[] range = index.prefixRange(p);
+            if (range[1] - range[0] != matches) {
+                throw error("Index found %d ids for %s, not %d.", range[1] - range[0], p, matches);
+            }
+        }
+        long scanNanos = System.nanoTime() - start;
+
+        System.out.printf("prefix: %8d commits: index %8.3f us/lookup, "
+                + "linear scan %10.3f us/lookup, %d ambiguous%n",
+                n, indexNanos / 1e3 / lookups, scanNanos / 1e3 / scans, ambiguous);
+        delete(dir);
+    }
+
+    /** Compares Java serialization of a commit that tracks N files, as
+     *  commits used to be stored, with the Codec encoding of the commit
+     *  and of the tree of a directory holding those files: the size and
+     *  the time to encode and decode them, each timed after a warm-up. */
+    private static void codec(int n) {
+        Random random = new Random(n);
+        byte[] hash = new byte[HashIndex.HASH_SIZE];
+        random.nextBytes(hash);
+        String[] parents = {sha1Hex(hash), null};
+        String message = "Benchmark commit tracking " + n + " files";
+        Date timestamp = new Date();
+        TreeMap<String, String> blobs = new TreeMap<>();
+        TreeMap<String, Tree.Entry> entries = new TreeMap<>();
+        for (int i = 0; i < n; i++) {
+            random.nextBytes(hash);
+            blobs.put("file" + i + ".java", sha1Hex(hash));
+            entries.put("file" + i + ".java", new Tree.Entry(false, sha1Hex(hash)));
+        }
+        Commit legacy = new Commit(message, timestamp, parents, null, null, blobs);
+        Tree tree = new Tree(entries);
+        String treeId = sha1(Codec.encode(tree));
+        Commit commit = new Commit(message, timestamp, parents, null, treeId, null);
+
+        byte[] serialized = serialize(legacy);
+        byte[] encodedCommit = Codec.encode(commit);
+        byte[] encodedTree = Codec.encode(tree);
+        Commit decoded = Codec.decodeCommit(encodedCommit, null);
+        if (!decoded.getMessage().equals(message)
+                || !decoded.getTimeStamp().equals(timestamp)
+                || !decoded.getFirstParent().equals(parents[0])
+                || !decoded.getTree().equals(treeId)
+                || !Codec.decodeTree(encodedTree).entries().keySet().equals(blobs.keySet())) {
+            throw error("Commit did not survive encoding.");
+        }
+
+        int rounds = Math.max(10, 200000 / (n + 10));
+        long[] times = new long[4];
+        for (int pass = 0; pass < 2; pass++) {
+            Arrays.fill(times, 0);
+            for (int r = 0; r < rounds; r++) {
+                long start = System.nanoTime();
+                serialize(legacy);
+                times[0] += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                deserialize(serialized, Commit.class);
+                times[1] += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                Codec.encode(commit);
+                Codec.encode(tree);
+                times[2] += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                Codec.decodeCommit(encodedCommit, null);
+                Codec.decodeTree(encodedTree);
+                times[3] += System.nanoTime() - start;
+            }
+        }
+
+        System.out.printf("codec: %6d blobs: serialized %9d bytes, encode %9.1f us, "
+                + "decode %9.1f us%n", n, serialized.length, times[0] / 1e3 / rounds,
+                times[1] / 1e3 / rounds);
+        System.out.printf("codec: %6d blobs: codec      %9d bytes, encode %9.1f us, "
+                + "decode %9.1f us%n", n, encodedCommit.length + encodedTree.length,
+                times[2] / 1e3 / rounds, times[3] / 1e3 / rounds);
+    }
+
+    /** Commits FILES files spread over a hundred directories, changes
+     *  CHANGED of them on a branch, and times switching back and forth.
+     *  Each gitlet command runs in a JVM of its own, as from the shell. */
+    private static void checkout(int files, int changed) throws IOException {
+        File dir = scratch();
+        gitlet(dir, "init");
+        for (int i = 0; i < files; i++) {
+            File file = join(dir, "d" + i % 100, "f" + i + ".txt");
+            file.getParentFile().mkdirs();
+            writeContents(file, "file " + i + "\n");
+        }
+        gitlet(dir, "add", ".");
+        gitlet(dir, "commit", "base");
+        gitlet(dir, "branch", "other");
+        gitlet(dir, "checkout", "other");
+        for (int i = 0; i < changed; i++) {
+            int f = i * (files / changed);
+            writeContents(join(dir, "d" + f % 100, "f" + f + ".txt"), "changed\n");
+        }
+        gitlet(dir, "add", ".");
+        gitlet(dir, "commit", "changes");
+
+        for (String branch : new String[] {"master", "other", "master"}) {
+            long start = System.nanoTime();
+            String output = gitlet(dir, "checkout", branch);
+            long nanos = System.nanoTime() - start;
+            String line = "";
+            for (String l : output.split("\n")) {
+                if (l.startsWith("timing: checkout:")) {
+                    line = l.substring("timing: ".length());
+                }
+            }
+            System.out.printf("checkout: %d files, %d changed, to %-6s %8.1f ms total; %s%n",
+                    files, changed, branch, nanos / 1e6, line);
+        }
+        delete(dir);
+    }
+
+    /** Makes COMMITS commits, each adding one new file, first with a
+     *  gitlet process per command and then with a single batch. */
+    private static void batch(int commits) throws IOException {
+        for (boolean batched : new boolean[] {false, true}) {
+            File dir = scratch();
+            gitlet(dir, "init");
+            StringBuilder script = new StringBuilder();
+            for (int i = 0; i < commits; i++) {
+                writeContents(join(dir, "file" + i + ".txt"), "file " + i + "\n");
+                script.append("add file").append(i).append(".txt\n");
+                script.append("commit \"add file ").append(i).append("\"\n");
+            }
+            File scriptFile = join(dir, ".gitlet", "script");
+            writeContents(scriptFile, script.toString());
+
+            long start = System.nanoTime();
+            if (batched) {
+                gitlet(dir, "batch", scriptFile.getPath());
+            } else {
+                for (int i = 0; i < commits; i++) {
+                    gitlet(dir, "add", "file" + i + ".txt");
+                    gitlet(dir, "commit", "add file " + i);
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf("batch: %d commits %s: %9.1f ms, %7.2f ms/commit%n", commits,
+                    batched ? "in one batch     " : "one process each ", nanos / 1e6,
+                    nanos / 1e6 / commits);
+            delete(dir);
+        }
+    }
+
+    /** Times add and commit, each in a process of its own, for four new
+     *  files of MB megabytes; for COPIES copies of one file of a megabyte,
+     *  all but the first duplicates; and for one of the large files put
+     *  back as it was, whose version is already stored. */
+    private static void stage(int mb, int copies) throws IOException {
+        File dir = scratch();
+        gitlet(dir, "init");
+        Random random = new Random(42);
+        join(dir, "large").mkdir();
+        byte[] first = null;
+        for (int i = 0; i < 4; i++) {
+            byte[] contents = new byte[mb << 20];
+            random.nextBytes(contents);
+            first = i == 0 ? contents : first;
+            writeContents(join(dir, "large", "file" + i + ".bin"), contents);
+        }
+        stageRun(dir, String.format("4 new files of %d MB", mb), 4L * mb, "large");
+
+        join(dir, "copies").mkdir();
+        byte[] copy = new byte[1 << 20];
+        random.nextBytes(copy);
+        for (int i = 0; i < copies; i++) {
+            writeContents(join(dir, "copies", "copy" + i + ".bin"), copy);
+        }
+        stageRun(dir, String.format("%d copies of 1 MB", copies), copies, "copies");
+
+        String reverted = "large/file0.bin";
+        writeContents(join(dir, reverted), "edited\n");
+        gitlet(dir, "add", reverted);
+        gitlet(dir, "commit", "edit " + reverted);
+        writeContents(join(dir, reverted), first);
+        stageRun(dir, String.format("a reverted file of %d MB", mb), mb, reverted);
+        delete(dir);
+    }
+
+    /** Adds PATH in DIR and commits it, and reports the time each took and
+     *  the rate at which its MB megabytes were staged. */
+    private static void stageRun(File dir, String what, long mb, String path)
+            throws IOException {
+        long start = System.nanoTime();
+        String output = gitlet(dir, "add", path);
+        long addNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        output += gitlet(dir, "commit", "add " + what);
+        long commitNanos = System.nanoTime() - start;
+        if (!untimed(output).isEmpty()) {
+            throw error("add and commit printed:%n%s", output);
+        }
+        System.out.printf("stage: %-24s: add %8.1f ms, commit %8.1f ms, %8.1f MB/s%n", what,
+                addNanos / 1e6, commitNanos / 1e6, mb / ((addNanos + commitNanos) / 1e9));
+    }
+
+    /** Makes a text file of about MB megabytes, edits EDITS lines scattered
+     *  through it on each of two branches, and a tenth as many lines on
+     *  both, differently, and times merging one branch into the other
+     *  with a heap of HEAP.  Checks that the merge kept every edit made on
+     *  one side and marked every line edited on both as a conflict. */
+    private static void merge(int mb, int edits, String heap) throws IOException {
+        Random random = new Random(42);
+        List<String> lines = new ArrayList<>();
+        long size = 0;
+        while (size < (long) mb << 20) {
+            String line = String.format("line %d %016x%n", lines.size(), random.nextLong());
+            lines.add(line);
+            size += line.length();
+        }
+        int both = edits / 10;
+        Set<Integer> edited = new HashSet<>();
+        List<Integer> ours = new ArrayList<>();
+        List<Integer> theirs = new ArrayList<>();
+        List<Integer> conflicting = new ArrayList<>();
+        while (edited.size() < 2 * edits + both) {
+            int line = random.nextInt(lines.size());
+            if (edited.contains(line - 1) || edited.contains(line + 1) || !edited.add(line)) {
+                continue;
+            }
+            (ours.size() < edits ? ours : theirs.size() < edits ? theirs : conflicting).add(line);
+        }
+
+        File dir = scratch();
+        File file = join(dir, "big.txt");
+        gitlet(dir, "init");
+        writeLines(file, lines, Map.of());
+        gitlet(dir, "add", "big.txt");
+        gitlet(dir, "commit", "base");
+        gitlet(dir, "branch", "other");
+        Map<Integer, String> changes = new HashMap<>();
+        for (int line : ours) {
+            changes.put(line, "ours " + line + "\n");
+        }
+        for (int line : conflicting) {
+            changes.put(line, "ours conflict " + line + "\n");
+        }
+        writeLines(file, lines, changes);
+        gitlet(dir, "add", "big.txt");
+        gitlet(dir, "commit", "ours");
+        gitlet(dir, "checkout", "other");
+        changes.clear();
+        for (int line : theirs) {
+            changes.put(line, "theirs " + line + "\n");
+        }
+        for (int line : conflicting) {
+            changes.put(line, "theirs conflict " + line + "\n");
+        }
+        writeLines(file, lines, changes);
+        gitlet(dir, "add", "big.txt");
+        gitlet(dir, "commit", "theirs");
+        gitlet(dir, "checkout", "master");
+
+        long start = System.nanoTime();
+        String output = gitlet(dir, List.of("-Xmx" + heap), "merge", "other");
+        long nanos = System.nanoTime() - start;
+        if (!untimed(output).equals("Encountered a merge conflict.\n")) {
+            throw error("merge printed:%n%s", output);
+        }
+        int kept = 0;
+        int conflicts = 0;
+        try (BufferedReader in = Files.newBufferedReader(file.toPath())) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (line.startsWith("ours ") || line.startsWith("theirs ")) {
+                    kept += line.contains("conflict") ? 0 : 1;
+                } else if (line.equals("<<<<<<< HEAD")) {
+                    conflicts++;
+                }
+            }
+        }
+        if (kept != 2 * edits || conflicts != both) {
+            throw error("merge kept %d of %d edits and marked %d of %d conflicts",
+                    kept, 2 * edits, conflicts, both);
+        }
+        System.out.printf("merge: %d MB, %d lines, %d edits a side, %d conflicts, -Xmx%s: "
+                + "%8.1f ms, %6.1f MB/s%n", mb, lines.size(), edits, conflicts, heap,
+                nanos / 1e6, 3 * size / 1e6 / (nanos / 1e9));
+        for (String line : output.split("\n")) {
+            if (line.startsWith("timing: merge:")) {
+                System.out.println(line.replace("timing: ", "       "));
+            }
+        }
+        delete(dir);
+    }
+
+    /** Writes LINES to FILE, with the lines whose numbers CHANGES maps
+     *  replaced with what it maps them to. */
+    private static void writeLines(File file, List<String> lines, Map<Integer, String> changes)
+            throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file.toPath())) {
+            for (int i = 0; i < lines.size(); i++) {
+                out.write(changes.getOrDefault(i, lines.get(i)));
+            }
+        }
+    }
+
+    /** Makes a text file of about MB megabytes and edits EDITS lines
+     *  scattered through it, then times diffing it against the stage with
+     *  a memory budget of BUDGET megabytes, which makes the diff compare
+     *  it in windows, checking that every edit is found and that the
+     *  output is the same as with the whole heap to use.  Then edits one
+     *  line in each of FILES small files and times diffing them with one
+     *  thread and with all. */
+    private static void diff(int mb, int edits, int files, int budget) throws IOException {
+        Random random = new Random(42);
+        List<String> lines = new ArrayList<>();
+        long size = 0;
+        while (size < (long) mb << 20) {
+            String line = String.format("line %d %016x%n", lines.size(), random.nextLong());
+            lines.add(line);
+            size += line.length();
+        }
+        Map<Integer, String> changes = new HashMap<>();
+        while (changes.size() < edits) {
+            int line = random.nextInt(lines.size());
+            changes.put(line, "edited " + line + "\n");
+        }
+
+        File dir = scratch();
+        File file = join(dir, "big.txt");
+        gitlet(dir, "init");
+        writeLines(file, lines, Map.of());
+        gitlet(dir, "add", "big.txt");
+        gitlet(dir, "commit", "base");
+        writeLines(file, lines, changes);
+        gitlet(dir, "status");
+
+        String whole = gitlet(dir, List.of("-Xmx2g", "-Dgitlet.diffMemory=1024"), "diff");
+        long start = System.nanoTime();
+        String output = gitlet(dir, List.of("-Xmx" + (2 * budget + 32) + "m",
+                "-Dgitlet.diffMemory=" + budget), "diff");
+        long nanos = System.nanoTime() - start;
+        int removed = 0;
+        int added = 0;
+        for (String line : output.split("\n")) {
+            if (line.startsWith("-line ")) {
+                removed++;
+            } else if (line.startsWith("+edited ")) {
+                added++;
+            }
+        }
+        if (removed != edits || added != edits) {
+            throw error("diff found %d and %d of %d edits:%n%s", removed, added, edits,
+                    output.substring(0, Math.min(output.length(), 2000)));
+        }
+        if (!untimed(output).equals(untimed(whole))) {
+            throw error("diff in windows differs from the whole diff");
+        }
+        System.out.printf("diff: %d MB, %d lines, %d edits, %d MB budget: %8.1f ms, %6.1f MB/s%n",
+                mb, lines.size(), edits, budget, nanos / 1e6, 2 * size / 1e6 / (nanos / 1e9));
+        for (String line : output.split("\n")) {
+            if (line.startsWith("timing: diff:")) {
+                System.out.println(line.replace("timing: ", "      "));
+            }
+        }
+        delete(dir);
+
+        dir = scratch();
+        gitlet(dir, "init");
+        lines = lines.subList(0, 1000);
+        for (int i = 0; i < files; i++) {
+            writeLines(join(dir, "f" + i + ".txt"), lines, Map.of());
+        }
+        gitlet(dir, "add", ".");
+        gitlet(dir, "commit", "base");
+        for (int i = 0; i < files; i++) {
+            writeLines(join(dir, "f" + i + ".txt"), lines, Map.of(i % 1000, "edited\n"));
+        }
+        gitlet(dir, "status");
+        for (int threads : WorkTree.THREADS > 1 ? new int[] {1, WorkTree.THREADS} : new int[] {1}) {
+            start = System.nanoTime();
+            output = gitlet(dir, List.of("-Dgitlet.threads=" + threads), "diff");
+            nanos = System.nanoTime() - start;
+            int diffs = 0;
+            for (String line : output.split("\n")) {
+                diffs += line.startsWith("diff --git ") ? 1 : 0;
+            }
+            if (diffs != files) {
+                throw error("diff printed %d of %d files", diffs, files);
+            }
+            System.out.printf("diff: %d files, %d threads: %8.1f ms%n", files, threads, nanos / 1e6);
+            for (String line : output.split("\n")) {
+                if (line.startsWith("timing: diff:")) {
+                    System.out.println(line.replace("timing: ", "      "));
+                }
+            }
+        }
+        delete(dir);
+    }
+
+    /** Regressions past this percentage of a baseline's median fail hotpaths. */
+    private static final int TOLERANCE = Integer.getInteger("gitlet.benchTolerance", 25);
+
+    /** Generates a repository of FILES files in a hundred directories and
+     *  COMMITS commits, each adding a file, with a branch other forking
+     *  from master halfway and adding files of its own.  Then times the
+     *  hot path of each command in it, in a process of its own that runs
+     *  them in turn, ITERATIONS times each after as many warm-up runs,
+     *  and prints the statistics of each.  They are written as JSON to
+     *  RESULTS if it is given.  If BASELINE, such a file from an earlier
+     *  run, is given, any median slower than its own by more than
+     *  TOLERANCE percent is an error. */
+    private static void hotpaths(int commits, int files, int iterations, String results,
+                                 String baseline) throws IOException {
+        File dir = scratch();
+        gitlet(dir, "init");
+        for (int i = 0; i < files; i++) {
+            File file = join(dir, "d" + i % 100, "f" + i + ".txt");
+            file.getParentFile().mkdirs();
+            writeContents(file, "file " + i + "\n");
+        }
+        StringBuilder script = new StringBuilder("add .\ncommit base\n");
+        for (int i = 0; i < commits; i++) {
+            if (i == commits / 2) {
+                script.append("branch other\n");
+            }
+            writeContents(join(dir, "c" + i + ".txt"), "commit " + i + "\n");
+            script.append("add c").append(i).append(".txt\n");
+            script.append("commit \"commit ").append(i).append("\"\n");
+        }
+        script.append("checkout other\n");
+        for (int i = 0; i < commits / 10; i++) {
+            writeContents(join(dir, "o" + i + ".txt"), "other " + i + "\n");
+            script.append("add o").append(i).append(".txt\n");
+            script.append("commit \"other ").append(i).append("\"\n");
+        }
+        script.append("checkout master\n");
+        File scriptFile = join(dir, ".gitlet", "script");
+        writeContents(scriptFile, script.toString());
+        long start = System.nanoTime();
+        gitlet(dir, "batch", scriptFile.getPath());
+        System.out.printf("hotpaths: %d commits, %d files generated in %.1f ms%n", commits,
+                files, (System.nanoTime() - start) / 1e6);
+
+        Process process = new ProcessBuilder("java", "-cp",
+                System.getProperty("java.class.path"), "gitlet.Benchmark", "hotpaths-run",
+                Integer.toString(iterations)).directory(dir).redirectErrorStream(true).start();
+        String output;
+        try (InputStream in = process.getInputStream()) {
+            output = new String(in.readAllBytes());
+        }
+        Map<String, double[]> samples = new LinkedHashMap<>();
+        for (String line : output.split("\n")) {
+            if (line.startsWith("result: ")) {
+                String[] fields = line.substring(8).trim().split(" ");
+                double[] values = new double[fields.length - 1];
+                for (int i = 1; i < fields.length; i++) {
+                    values[i - 1] = Double.parseDouble(fields[i]);
+                }
+                samples.put(fields[0], values);
+            }
+        }
+        if (samples.isEmpty() || !output.contains("done")) {
+            throw new IOException("hotpaths process failed:\n" + output);
+        }
+        delete(dir);
+
+        Map<String, Double> base = baseline == null ? Map.of() : medians(new File(baseline));
+        List<String> regressions = new ArrayList<>();
+        StringBuilder json = new StringBuilder();
+        json.append(String.format("{%n  \"suite\": \"hotpaths\",%n  \"date\": \"%s\",%n"
+                        + "  \"java\": \"%s\",%n  \"commits\": %d,%n  \"files\": %d,%n"
+                        + "  \"iterations\": %d,%n  \"unit\": \"us/op\",%n  \"benchmarks\": [%n",
+                java.time.Instant.now(), System.getProperty("java.version"), commits, files,
+                iterations));
+        System.out.printf("%-24s %12s %12s %12s %12s%n", "benchmark", "median us/op",
+                "mean", "min", "max");
+        int n = 0;
+        for (Map.Entry<String, double[]> e : samples.entrySet()) {
+            double[] values = e.getValue().clone();
+            Arrays.sort(values);
+            double mean = 0;
+            for (double v : values) {
+                mean += v / values.length;
+            }
+            double variance = 0;
+            for (double v : values) {
+                variance += (v - mean) * (v - mean) / values.length;
+            }
+            double median = values.length % 2 == 1 ? values[values.length / 2]
+                    : (values[values.length / 2 - 1] + values[values.length / 2]) / 2;
+            String compared = "";
+            Double old = base.get(e.getKey());
+            if (old != null) {
+                compared = String.format(" %6.2fx baseline", median / old);
+                if (median > old * (100 + TOLERANCE) / 100) {
+                    regressions.add(e.getKey());
+                    compared += " REGRESSED";
+                }
+            }
+            System.out.printf("%-24s %12.2f %12.2f %12.2f %12.2f%s%n", e.getKey(), median, mean,
+                    values[0], values[values.length - 1], compared);
+            json.append(String.format("    {\"name\": \"%s\", \"samples\": %d, \"median\": %.3f, "
+                            + "\"mean\": %.3f, \"min\": %.3f, \"max\": %.3f, \"stddev\": %.3f}%s%n",
+                    e.getKey(), values.length, median, mean, values[0],
+                    values[values.length - 1], Math.sqrt(variance),
+                    ++n < samples.size() ? "," : ""));
+        }
+        json.append(String.format("  ]%n}%n"));
+        if (results == null) {
+            System.out.print(json);
+        } else {
+            writeContents(new File(results), json.toString());
+        }
+        if (!regressions.isEmpty()) {
+            throw error("%s regressed by more than %d%% against %s", regressions, TOLERANCE,
+                    baseline);
+        }
+    }
+
+    /** Returns the median of each benchmark in RESULTS, a file that
+     *  hotpaths wrote. */
+    private static Map<String, Double> medians(File results) {
+        Map<String, Double> medians = new HashMap<>();
+        java.util.regex.Matcher matcher = java.util.regex.Pattern
+                .compile("\"name\": \"([^\"]+)\".*?\"median\": ([0-9.]+)")
+                .matcher(readContentsAsString(results));
+        while (matcher.find()) {
+            medians.put(matcher.group(1), Double.parseDouble(matcher.group(2)));
+        }
+        return medians;
+    }
+
+    /** A hot path to time, which runs it OPS times for ITERATION and
+     *  returns the nanoseconds that took, leaving out any setup. */
+    private interface HotPath {
+        long nanos(int iteration) throws IOException;
+    }
+
+    /** Times the hot paths of the commands in the repository in the
+     *  working directory, ITERATIONS times each after as many untimed
+     *  runs, and prints the microseconds per operation of each run. */
+    private static void hotpathsRun(int iterations) throws IOException {
+        Random random = new Random(42);
+        byte[] megabyte = new byte[1 << 20];
+        random.nextBytes(megabyte);
+        Commit head = Commit.fromFile(Helper.readHeadCommitUID());
+        String[] uids = captured("global-log", "--format=%H").split("\n");
+        String[] messages = captured("log", "--format=%s").split("\n");
+        String[] prefixes = new String[1000];
+        for (int i = 0; i < prefixes.length; i++) {
+            prefixes[i] = uids[random.nextInt(uids.length)].substring(0, 8);
+        }
+        File file = join(Directory.CWD, "bench.txt");
+
+        Map<String, HotPath> paths = new LinkedHashMap<>();
+        Map<String, Integer> ops = new HashMap<>();
+        paths.put("Repository.add", i -> {
+            writeContents(file, "iteration " + i + "\n");
+            return timed("add", "bench.txt");
+        });
+        paths.put("Repository.commit", i -> {
+            writeContents(file, "commit " + i + "\n");
+            captured("add", "bench.txt");
+            return timed("commit", "bench " + i);
+        });
+        paths.put("Repository.log", i -> timed("log"));
+        paths.put("Repository.globalLog", i -> timed("global-log"));
+        paths.put("Repository.find", i -> timed("find", messages[i % messages.length]));
+        paths.put("Repository.checkout", i -> timed("checkout", "other")
+                + timed("checkout", "master"));
+        ops.put("Repository.checkout", 2);
+        paths.put("Repository.merge", i -> {
+            captured("branch", "merge" + i);
+            captured("checkout", "merge" + i);
+            long nanos = timed("merge", "other");
+            captured("checkout", "master");
+            return nanos;
+        });
+        paths.put("Helper.getFullID", i -> {
+            long start = System.nanoTime();
+            for (String prefix : prefixes) {
+                Helper.getFullID(prefix);
+            }
+            return System.nanoTime() - start;
+        });
+        ops.put("Helper.getFullID", prefixes.length);
+        paths.put("Helper.splitPointFinder", i -> {
+            long start = System.nanoTime();
+            for (int j = 0; j < 100; j++) {
+                Helper.splitPointFinder("other");
+            }
+            return System.nanoTime() - start;
+        });
+        ops.put("Helper.splitPointFinder", 100);
+        paths.put("Utils.sha1", i -> {
+            long start = System.nanoTime();
+            sha1((Object) megabyte);
+            return System.nanoTime() - start;
+        });
+        paths.put("Utils.serialize", i -> {
+            long start = System.nanoTime();
+            for (int j = 0; j < 100; j++) {
+                serialize(head);
+            }
+            return System.nanoTime() - start;
+        });
+        ops.put("Utils.serialize", 100);
+
+        int run = 0;
+        for (Map.Entry<String, HotPath> e : paths.entrySet()) {
+            int n = ops.getOrDefault(e.getKey(), 1);
+            StringBuilder line = new StringBuilder("result: ").append(e.getKey());
+            for (int i = 0; i < 2 * iterations; i++) {
+                long nanos = e.getValue().nanos(run++);
+                if (i >= iterations) {
+                    line.append(String.format(" %.3f", nanos / 1e3 / n));
+                }
+            }
+            System.out.println(line);
+        }
+        System.out.println("done");
+    }
+
+    /** Runs gitlet with ARGS in this process, discarding its output, and
+     *  returns the nanoseconds it took. */
+    private static long timed(String... args) throws IOException {
+        long start = System.nanoTime();
+        captured(args);
+        return System.nanoTime() - start;
+    }
+
+    /** Commits FILES files of random lines, then renames all of them into
+     *  another directory, editing a line in EDITED of them, and times
+     *  status and diff --cached finding the renames, first computing the
+     *  sketches of the blobs and then with them cached.  Then merges a
+     *  branch that edited another line of each file at its old path, and
+     *  checks that every edit followed its file to the new path. */
+    private static void renames(int files, int edited) throws IOException {
+        Random random = new Random(42);
+        File dir = scratch();
+        File src = join(dir, "src");
+        File dst = join(dir, "dst");
+        src.mkdirs();
+        dst.mkdirs();
+        List<List<String>> contents = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            List<String> lines = new ArrayList<>();
+            for (int j = 0; j < 40; j++) {
+                lines.add(String.format("file %d line %d %016x%n", i, j, random.nextLong()));
+            }
+            contents.add(lines);
+            writeLines(join(src, "f" + i + ".txt"), lines, Map.of());
+        }
+        gitlet(dir, "init");
+        gitlet(dir, "add", "src");
+        gitlet(dir, "commit", "base");
+        gitlet(dir, "branch", "other");
+
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < files; i++) {
+            script.append("rm src/f").append(i).append(".txt\n");
+            writeLines(join(dst, "f" + i + ".txt"), contents.get(i),
+                    i < edited ? Map.of(5, "renamed and edited\n") : Map.of());
+        }
+        script.append("add dst\n");
+        File scriptFile = join(dir, ".gitlet", "script");
+        writeContents(scriptFile, script.toString());
+        gitlet(dir, "batch", scriptFile.getPath());
+
+        for (String run : new String[] {"cold", "cached"}) {
+            long start = System.nanoTime();
+            String output = gitlet(dir, "status");
+            long nanos = System.nanoTime() - start;
+            int renamed = 0;
+            for (String line : output.split("\n")) {
+                renamed += line.matches("src/f(\\d+)\\.txt -> dst/f\\1\\.txt") ? 1 : 0;
+            }
+            if (renamed != files) {
+                throw error("status found %d of %d renames", renamed, files);
+            }
+            System.out.printf("renames: status, %d files, %d edited, %-6s: %8.1f ms%n", files,
+                    edited, run, nanos / 1e6);
+            printTimings(output, "timing: sketches:", "timing: renames:");
+        }
+        long start = System.nanoTime();
+        String output = gitlet(dir, "diff", "--cached");
+        long nanos = System.nanoTime() - start;
+        int renamed = 0;
+        for (String line : output.split("\n")) {
+            renamed += line.startsWith("rename from ") ? 1 : 0;
+        }
+        if (renamed != files) {
+            throw error("diff found %d of %d renames", renamed, files);
+        }
+        System.out.printf("renames: diff --cached, %d files, %d edited: %8.1f ms%n", files,
+                edited, nanos / 1e6);
+        printTimings(output, "timing: renames:", "timing: diff:");
+
+        gitlet(dir, "commit", "rename");
+        gitlet(dir, "checkout", "other");
+        for (int i = 0; i < files; i++) {
+            writeLines(join(src, "f" + i + ".txt"), contents.get(i),
+                    Map.of(30, "edited in place\n"));
+        }
+        gitlet(dir, "add", "src");
+        gitlet(dir, "commit", "edit");
+        gitlet(dir, "checkout", "master");
+        start = System.nanoTime();
+        output = gitlet(dir, "merge", "other");
+        nanos = System.nanoTime() - start;
+        for (int i = 0; i < files; i++) {
+            String merged = readContentsAsString(join(dst, "f" + i + ".txt"));
+            if (!merged.contains("edited in place\n")
+                    || i < edited != merged.contains("renamed and edited\n")
+                    || join(src, "f" + i + ".txt").exists()) {
+                throw error("merge lost an edit to f%d.txt:%n%s", i, untimed(output));
+            }
+        }
+        System.out.printf("renames: merge, %d files, %d edited: %8.1f ms%n", files, edited,
+                nanos / 1e6);
+        printTimings(output, "timing: renames:");
+        delete(dir);
+    }
+
+    /** Prints the lines of OUTPUT that start with any of PREFIXES,
+     *  without their "timing: ". */
+    private static void printTimings(String output, String... prefixes) {
+        for (String line : output.split("\n")) {
+            for (String prefix : prefixes) {
+                if (line.startsWith(prefix)) {
+                    System.out.println(line.replace("timing: ", "      "));
+                }
+            }
+        }
+    }
+
+    /** Adds N random commit messages to a message index one at a time, as
+     *  commits do, then times exact, word and substring queries for them
+     *  against a linear scan of the messages, which is what find did before
+     *  (without even opening the commits). */
+    private static void find(int n) throws IOException {
+        Random random = new Random(n);
+        String[] vocabulary = new String[2000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = Integer.toString(random.nextInt(Integer.MAX_VALUE), 36);
+        }
+        List<String> ids = new ArrayList<>(n);
+        List<String> messages = new ArrayList<>(n);
+        byte[] hash = new byte[HashIndex.HASH_SIZE];
+        for (int i = 0; i < n; i++) {
+            random.nextBytes(hash);
+            ids.add(sha1Hex(hash));
+            StringBuilder message = new StringBuilder("Fix");
+            for (int w = 3 + random.nextInt(5); w > 0; w--) {
+                message.append(' ').append(vocabulary[random.nextInt(vocabulary.length)]);
+            }
+            messages.add(message.toString());
+        }
+
+        File dir = scratch();
+        MessageIndex index = new MessageIndex(join(dir, "messages"), join(dir, "message-index"));
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            index.add(ids.get(i), messages.get(i));
+        }
+        long addNanos = System.nanoTime() - start;
+
+        int queries = 100;
+        long[] nanos = new long[3];
+        int matches = 0;
+        for (int q = 0; q < queries; q++) {
+            String message = messages.get(random.nextInt(n));
+            String[] words = message.split(" ");
+            String word = words[1] + " " + words[2];
+            String text = message.substring(4, Math.min(message.length(), 12));
+
+            start = System.nanoTime();
+            matches += index.exact(message).size();
+            nanos[0] += System.nanoTime() - start;
+            start = System.nanoTime();
+            matches += index.words(word).size();
+            nanos[1] += System.nanoTime() - start;
+            start = System.nanoTime();
+            matches += index.grep(text).size();
+            nanos[2] += System.nanoTime() - start;
+        }
+
+        int scans = Math.max(1, Math.min(queries, 100000000 / n / 10));
+        start = System.nanoTime();
+        for (int q = 0; q < scans; q++) {
+            String message = messages.get(random.nextInt(n));
+            SortedSet<String> expected = new TreeSet<>();
+            for (int i = 0; i < n; i++) {
+                if (messages.get(i).equals(message)) {
+                    expected.add(ids.get(i));
+                }
+            }
+            if (!expected.equals(index.exact(message))) {
+                throw error("Index found other commits for \"%s\".", message);
+            }
+        }
+        long scanNanos = System.nanoTime() - start;
+
+        System.out.printf("find: %8d commits: add %6.1f us/commit, exact %7.3f ms, "
+                + "word %7.3f ms, substring %7.3f ms, linear scan %8.3f ms, "
+                + "%d segments%n",
+                n, addNanos / 1e3 / n, nanos[0] / 1e6 / queries, nanos[1] / 1e6 / queries,
+                nanos[2] / 1e6 / queries, scanNanos / 1e6 / scans,
+                join(dir, "message-index").list().length / 2);
+        delete(dir);
+    }
+
+    /** Creates N branches in one batch, then times status, which lists
+     *  every branch (the first time folding the loose ones into the packed
+     *  refs), and checking a branch out, which resolves one, each in a
+     *  fresh JVM.  Status in the repository before the branches were made
+     *  gives the cost of starting the JVM. */
+    private static void refs(int n) throws IOException {
+        File dir = scratch();
+        gitlet(dir, "init");
+        long start = System.nanoTime();
+        gitlet(dir, "status");
+        long floor = System.nanoTime() - start;
+
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            script.append("branch b").append(i).append('\n');
+        }
+        File scriptFile = join(dir, ".gitlet", "script");
+        writeContents(scriptFile, script.toString());
+        start = System.nanoTime();
+        gitlet(dir, "batch", scriptFile.getPath());
+        long create = System.nanoTime() - start;
+
+        long[] status = new long[2];
+        for (int i = 0; i < status.length; i++) {
+            start = System.nanoTime();
+            gitlet(dir, "status");
+            status[i] = System.nanoTime() - start;
+        }
+        start = System.nanoTime();
+        gitlet(dir, "checkout", "b" + n / 2);
+        long checkout = System.nanoTime() - start;
+
+        System.out.printf("refs: %d branches: create %6.3f ms/branch, status %7.1f ms "
+                + "(first, packing %7.1f ms), checkout %7.1f ms, empty status %7.1f ms%n",
+                n, create / 1e6 / n, status[1] / 1e6, status[0] / 1e6, checkout / 1e6,
+                floor / 1e6);
+        delete(dir);
+    }
+
+    /** The output of GITLET without its timing lines. */
+    static String untimed(String output) {
+        StringBuilder result = new StringBuilder();
+        for (String line : output.split("(?<=\n)")) {
+            if (!line.startsWith("timing: ")) {
+                result.append(line);
+            }
+        }
+        return result.toString();
+    }
+
+    /** Copies the files under FROM to TO, creating it. */
+    static void copyTree(File from, File to) throws IOException {
+        to.mkdirs();
+        File[] files = from.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isDirectory()) {
+                    copyTree(f, join(to, f.getName()));
+                } else {
+                    Files.copy(f.toPath(), join(to, f.getName()).toPath());
+                }
+            }
+        }
+    }
+
+    /** Runs READERS processes that read the repository and, separately
+     *  and then at the same time, one process that commits to it, each for
+     *  SECONDS seconds, and reports the throughput of each and the number
+     *  of inconsistent or failed reads. */
+    private static void stress(int readers, int seconds) throws IOException {
+        File dir = scratch();
+        gitlet(dir, "init");
+        writeContents(join(dir, "f"), "0\n");
+        gitlet(dir, "add", "f");
+        gitlet(dir, "commit", "c 0");
+
+        long[] alone = stressRun(dir, 0, readers, seconds);
+        long[] writing = stressRun(dir, 1, 0, seconds);
+        long[] both = stressRun(dir, 1, readers, seconds);
+        System.out.printf("stress: %d readers alone   : %8.1f reads/s, %d errors%n",
+                readers, alone[1] / (double) seconds, alone[2]);
+        System.out.printf("stress: writer alone      : %8.1f commits/s%n",
+                writing[0] / (double) seconds);
+        System.out.printf("stress: %d readers + writer: %8.1f reads/s, %d errors, "
+                + "%8.1f commits/s%n", readers, both[1] / (double) seconds, both[2],
+                both[0] / (double) seconds);
+        delete(dir);
+    }
+
+    /** Runs WRITERS writer and READERS reader processes in DIR for SECONDS
+     *  seconds.  Returns the commits made, the reads made and the reads
+     *  that failed. */
+    private static long[] stressRun(File dir, int writers, int readers, int seconds)
+            throws IOException {
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < writers + readers; i++) {
+            processes.add(new ProcessBuilder("java", "-cp", System.getProperty("java.class.path"),
+                    "gitlet.Benchmark", i < writers ? "stress-writer" : "stress-reader",
+                    Integer.toString(seconds)).directory(dir).redirectErrorStream(true).start());
+        }
+        long[] totals = new long[3];
+        for (int i = 0; i < processes.size(); i++) {
+            String output;
+            try (InputStream in = processes.get(i).getInputStream()) {
+                output = new String(in.readAllBytes());
+            }
+            int at = output.lastIndexOf("result: ");
+            if (at < 0) {
+                throw new IOException("stress process failed:\n" + output);
+            }
+            String[] result = output.substring(at + 8).trim().split(" ");
+            if (i < writers) {
+                totals[0] += Long.parseLong(result[0]);
+            } else {
+                totals[1] += Long.parseLong(result[0]);
+                totals[2] += Long.parseLong(result[1]);
+            }
+        }
+        return totals;
+    }
+
+    /** Commits edits of the file f in the working directory for SECONDS
+     *  seconds, then prints the number of commits. */
+    private static void stressWriter(int seconds) throws IOException {
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        String last = captured("log", "--max-count=1", "--format=%s").trim();
+        int n = Integer.parseInt(last.substring(2));
+        int commits = 0;
+        while (System.nanoTime() < end) {
+            n++;
+            writeContents(join(Directory.CWD, "f"), n + "\n");
+            Main.run(new String[] {"add", "f"});
+            Main.run(new String[] {"commit", "c " + n});
+            commits++;
+        }
+        System.out.println("result: " + commits);
+    }
+
+    /** Reads the repository in the working directory for SECONDS seconds,
+     *  with log and status in turn, checking that log sees a whole commit
+     *  no older than the last one it saw and status a stage holding at
+     *  most the file f.  Prints the number of reads and of failed reads. */
+    private static void stressReader(int seconds) {
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        String clean = "=== Staged Files ===\n\n=== Removed Files ===\n\n";
+        String staged = "=== Staged Files ===\nf\n\n=== Removed Files ===\n\n";
+        int newest = -1;
+        long reads = 0;
+        long errors = 0;
+        while (System.nanoTime() < end) {
+            try {
+                if (reads % 2 == 0) {
+                    String head = captured("log", "--max-count=1", "--format=%s").trim();
+                    int n = head.startsWith("c ") ? Integer.parseInt(head.substring(2)) : -1;
+                    if (n < newest) {
+                        throw new IllegalStateException("head went back to " + head);
+                    }
+                    newest = n;
+                } else {
+                    String status = captured("status");
+                    status = status.substring(status.indexOf("=== Staged"),
+                            status.indexOf("=== Modifications"));
+                    if (!status.equals(clean) && !status.equals(staged)) {
+                        throw new IllegalStateException("status is\n" + status);
+                    }
+                }
+            } catch (RuntimeException | IOException excp) {
+                errors++;
+                if (errors <= 3) {
+                    System.out.println("error: " + excp);
+                }
+            }
+            reads++;
+        }
+        System.out.println("result: " + reads + " " + errors);
+    }
+
+    /** Makes COMMITS commits on a branch, each adding a file, and deletes
+     *  the branch.  Then collects the garbage in one run of gc, and in a
+     *  copy of the repository in runs of about BUDGET milliseconds each,
+     *  reporting how long each way holds the writer lock. */
+    private static void gc(int commits, int budget) throws IOException {
+        File dir = scratch();
+        gitlet(dir, "init");
+        StringBuilder script = new StringBuilder("branch side\ncheckout side\n");
+        for (int i = 0; i < commits; i++) {
+            writeContents(join(dir, "file" + i + ".txt"), "file " + i + "\n");
+            script.append("add file").append(i).append(".txt\n");
+            script.append("commit \"add file ").append(i).append("\"\n");
+        }
+        script.append("checkout master\nrm-branch side\n");
+        File scriptFile = join(dir, ".gitlet", "script");
+        writeContents(scriptFile, script.toString());
+        gitlet(dir, "batch", scriptFile.getPath());
+        File copy = scratch();
+        copyTree(dir, copy);
+
+        for (File repo : new File[] {dir, copy}) {
+            int limit = repo == dir ? 0 : budget;
+            Process process = new ProcessBuilder("java", "-cp",
+                    System.getProperty("java.class.path"), "gitlet.Benchmark", "gc-run",
+                    Integer.toString(limit)).directory(repo).redirectErrorStream(true).start();
+            String output;
+            try (InputStream in = process.getInputStream()) {
+                output = new String(in.readAllBytes());
+            }
+            int at = output.lastIndexOf("result: ");
+            if (at < 0) {
+                throw new IOException("gc process failed:\n" + output);
+            }
+            String[] result = output.substring(at + 8).trim().split(" ");
+            System.out.printf("gc: %d commits, %s: %4s runs, %9.1f ms total, "
+                    + "%8.1f ms longest, %s objects removed%n", commits,
+                    limit == 0 ? "unlimited    " : String.format("%4d ms budget", limit),
+                    result[0], Double.parseDouble(result[1]), Double.parseDouble(result[2]),
+                    result[3]);
+            String log = gitlet(repo, "log", "--format=%s");
+            if (!untimed(log).trim().equals("initial commit")) {
+                throw error("log after gc printed:%n%s", log);
+            }
+            delete(repo);
+        }
+    }
+
+    /** Runs gc in the working directory with a budget of BUDGET
+     *  milliseconds, none if 0, until it finishes.  Prints the number of
+     *  runs, their total and longest times and the objects removed. */
+    private static void gcRun(int budget) throws IOException {
+        int runs = 0;
+        long total = 0;
+        long longest = 0;
+        String output;
+        do {
+            long start = System.nanoTime();
+            output = captured("gc", "--grace=0", "--budget=" + budget);
+            long nanos = System.nanoTime() - start;
+            total += nanos;
+            longest = Math.max(longest, nanos);
+            runs++;
+        } while (output.contains("so far"));
+        String removed = output.replaceAll("\\D*(\\d+).*", "$1").trim();
+        System.out.printf("result: %d %.1f %.1f %s%n", runs, total / 1e6, longest / 1e6,
+                removed);
+    }
+
+    /** Runs gitlet with ARGS in this process and returns its output. */
+    private static String captured(String... args) throws IOException {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true));
+        try {
+            Directory.BLOBS.refresh();
+            Directory.COMMITS.refresh();
+            Directory.TREES.refresh();
+            Main.run(args);
+        } finally {
+            System.setOut(stdout);
+        }
+        return out.toString();
+    }
+}
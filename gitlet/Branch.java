@@ -1,20 +1,19 @@
 package gitlet;
 
-import java.io.File;
 import java.io.Serializable;
 
-import static gitlet.Directory.*;
-import static gitlet.Helper.*;
-import static gitlet.Utils.*;
-
+/** A branch name and the commit it points to, as HEAD held them before
+ *  layout version 4 made HEAD symbolic.  Only read when upgrading older
+ *  repositories; branches now live in Refs. */
 public class Branch implements Serializable {
 
-    public static final String SENTINEL = "sentinel";
+    /** Pinned so a HEAD written with Java serialization stays readable. */
+    private static final long serialVersionUID = -5979227627910613913L;
 
     private String name;
     private String id;
 
-    /** A Constructor accepts a name of the branch and writes to a file */
+    /** A Constructor accepts a name of the branch and the commit UID */
     public Branch(String name, String id) {
         String cName = name.toLowerCase();
         this.name = cName;
@@ -28,12 +27,4 @@ public class Branch implements Serializable {
     public String getName() {
         return this.name;
     }
-
-    /** Write to a file the commit UID of the active pointer */
-    public void writeBranch() {
-        // Write the branch to a file
-        File filename = join(BRANCHES_DIR, this.name);
-        createNewFile(filename);
-        writeContents(filename, id);
-    }
 }
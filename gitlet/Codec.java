@@ -0,0 +1,266 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/** The compact binary format of commits, trees, branches and stage maps.
+ *  Every encoding starts with a four-byte header: the magic bytes 'G' 'L',
+ *  a type tag and a format version.  Strings are varint-length-prefixed
+ *  UTF-8, UIDs are stored as their 20 raw bytes, and counts and timestamps
+ *  are varints.  Each decoder also accepts the Java-serialized form that
+ *  Gitlet wrote before, so existing repositories stay readable.
+ *
+ *  A commit is encoded as
+ *      header | parent count | parents | timestamp | message | tree UID
+ *  and a tree as
+ *      header | entry count | (kind | name | UID)...
+ *  and each is named by the SHA-1 of exactly these bytes.  Version 1
+ *  commits held their whole path-to-blob map in place of the tree UID. */
+class Codec {
+    /** Magic bytes that start every encoding. */
+    private static final byte MAGIC0 = 'G';
+    private static final byte MAGIC1 = 'L';
+
+    /** Type tags. */
+    private static final byte COMMIT = 'C';
+    private static final byte TREE = 'T';
+    private static final byte BRANCH = 'B';
+    private static final byte MAP = 'M';
+
+    /** Current format version. */
+    private static final byte VERSION = 2;
+
+    /** Bytes every Java serialization stream starts with. */
+    private static final byte LEGACY0 = (byte) 0xac;
+    private static final byte LEGACY1 = (byte) 0xed;
+
+    /* COMMITS */
+
+    /** Returns the encoding of COMMIT, which does not include its UID. */
+    static byte[] encode(Commit commit) {
+        ByteArrayOutputStream out = header(COMMIT);
+        List<String> parents = new ArrayList<>();
+        if (commit.getFirstParent() != null) {
+            parents.add(commit.getFirstParent());
+        }
+        if (commit.getSecondParent() != null) {
+            parents.add(commit.getSecondParent());
+        }
+        writeVarint(out, parents.size());
+        for (String p : parents) {
+            writeHash(out, p);
+        }
+        writeVarint(out, commit.getTimeStamp().getTime());
+        writeString(out, commit.getMessage());
+        writeHash(out, commit.getTree());
+        return out.toByteArray();
+    }
+
+    /** Returns the commit whose UID is ID and whose encoding is BYTES. */
+    static Commit decodeCommit(byte[] bytes, String id) {
+        if (isLegacy(bytes)) {
+            return deserialize(bytes, Commit.class);
+        }
+        ByteBuffer in = checkHeader(bytes, COMMIT);
+        int count = (int) readVarint(in);
+        String[] parents = new String[2];
+        for (int i = 0; i < count; i++) {
+            parents[i] = readHash(in);
+        }
+        Date timestamp = new Date(readVarint(in));
+        String message = readString(in);
+        if (bytes[3] == 1) {
+            TreeMap<String, String> blobs = new TreeMap<>();
+            readMapBody(in, blobs);
+            return new Commit(message, timestamp, parents, id, null, blobs);
+        }
+        return new Commit(message, timestamp, parents, id, readHash(in), null);
+    }
+
+    /* TREES */
+
+    /** Returns the encoding of TREE. */
+    static byte[] encode(Tree tree) {
+        ByteArrayOutputStream out = header(TREE);
+        writeVarint(out, tree.entries().size());
+        for (Map.Entry<String, Tree.Entry> e : tree.entries().entrySet()) {
+            out.write(e.getValue().isTree ? 1 : 0);
+            writeString(out, e.getKey());
+            writeHash(out, e.getValue().hash);
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the tree encoded in BYTES. */
+    static Tree decodeTree(byte[] bytes) {
+        ByteBuffer in = checkHeader(bytes, TREE);
+        int count = (int) readVarint(in);
+        TreeMap<String, Tree.Entry> entries = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            boolean isTree = in.get() == 1;
+            String name = readString(in);
+            entries.put(name, new Tree.Entry(isTree, readHash(in)));
+        }
+        return new Tree(entries);
+    }
+
+    /* BRANCHES */
+
+    /** Returns the encoding of BRANCH. */
+    static byte[] encode(Branch branch) {
+        ByteArrayOutputStream out = header(BRANCH);
+        writeString(out, branch.getName());
+        writeHash(out, branch.getCommitUID());
+        return out.toByteArray();
+    }
+
+    /** Returns the branch encoded in BYTES. */
+    static Branch decodeBranch(byte[] bytes) {
+        if (isLegacy(bytes)) {
+            return deserialize(bytes, Branch.class);
+        }
+        ByteBuffer in = checkHeader(bytes, BRANCH);
+        String name = readString(in);
+        return new Branch(name, readHash(in));
+    }
+
+    /** Writes BRANCH to FILE. */
+    static void writeBranch(File file, Branch branch) {
+        Batch.write(file, encode(branch));
+    }
+
+    /** Reads the branch in FILE. */
+    static Branch readBranch(File file) {
+        return decodeBranch(Batch.read(file));
+    }
+
+    /* STAGE MAPS */
+
+    /** Returns the encoding of the filename-to-UID map MAP. */
+    static byte[] encode(Map<String, String> map) {
+        ByteArrayOutputStream out = header(MAP);
+        writeMapBody(out, map);
+        return out.toByteArray();
+    }
+
+    /** Returns the filename-to-UID map encoded in BYTES. */
+    @SuppressWarnings("unchecked")
+    static HashMap<String, String> decodeMap(byte[] bytes) {
+        if (isLegacy(bytes)) {
+            return deserialize(bytes, HashMap.class);
+        }
+        ByteBuffer in = checkHeader(bytes, MAP);
+        HashMap<String, String> map = new HashMap<>();
+        readMapBody(in, map);
+        return map;
+    }
+
+    /** Writes the filename-to-UID map MAP to FILE. */
+    static void writeMap(File file, Map<String, String> map) {
+        Batch.write(file, encode(map));
+    }
+
+    /** Reads the filename-to-UID map in FILE. */
+    static HashMap<String, String> readMap(File file) {
+        return decodeMap(Batch.read(file));
+    }
+
+    /** Returns true iff FILE holds a Java-serialized object. */
+    static boolean isLegacy(File file) {
+        return isLegacy(readContents(file));
+    }
+
+    /* PRIMITIVES */
+
+    private static boolean isLegacy(byte[] bytes) {
+        return bytes.length >= 2 && bytes[0] == LEGACY0 && bytes[1] == LEGACY1;
+    }
+
+    private static ByteArrayOutputStream header(byte type) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(MAGIC0);
+        out.write(MAGIC1);
+        out.write(type);
+        out.write(VERSION);
+        return out;
+    }
+
+    private static ByteBuffer checkHeader(byte[] bytes, byte type) {
+        if (bytes.length < 4 || bytes[0] != MAGIC0 || bytes[1] != MAGIC1 || bytes[2] != type) {
+            throw error("Corrupt gitlet object.");
+        }
+        if (bytes[3] > VERSION) {
+            throw error("Object written by a newer version of gitlet.");
+        }
+        return ByteBuffer.wrap(bytes, 4, bytes.length - 4);
+    }
+
+    private static void writeMapBody(ByteArrayOutputStream out, Map<String, String> map) {
+        writeVarint(out, map.size());
+        if (!(map instanceof SortedMap) || ((SortedMap<String, String>) map).comparator() != null) {
+            map = new TreeMap<>(map);
+        }
+        for (Map.Entry<String, String> e : map.entrySet()) {
+            writeString(out, e.getKey());
+            writeHash(out, e.getValue());
+        }
+    }
+
+    private static void readMapBody(ByteBuffer in, Map<String, String> map) {
+        int count = (int) readVarint(in);
+        for (int i = 0; i < count; i++) {
+            String key = readString(in);
+            map.put(key, readHash(in));
+        }
+    }
+
+    static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = (int) readVarint(in);
+        String s = new String(in.array(), in.arrayOffset() + in.position(), length,
+                StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    static void writeHash(ByteArrayOutputStream out, String id) {
+        out.write(sha1Bytes(id), 0, HashIndex.HASH_SIZE);
+    }
+
+    static String readHash(ByteBuffer in) {
+        byte[] hash = new byte[HashIndex.HASH_SIZE];
+        in.get(hash);
+        return sha1Hex(hash);
+    }
+
+    /** Writes the non-negative VALUE to OUT, seven bits per byte. */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Reads a varint written by writeVarint from IN. */
+    static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
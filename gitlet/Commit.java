@@ -1,21 +1,18 @@
 package gitlet;
 
 import java.io.*;
-import java.text.Format;
-import java.text.SimpleDateFormat;
 import java.util.*;
 
 import static gitlet.Utils.*;
 import static gitlet.Directory.*;
 import static gitlet.Helper.*;
-import static gitlet.Graph.*;
 
 /** Represents a gitlet commit object.
  *  does at a high level.
  *
  *  @author Irvin Tancioco
  */
-public class Commit<T> implements Serializable, Comparable<T> {
+public class Commit implements Serializable, Comparable<Commit> {
 
     /**
      * List all instance variables of the Commit class here with a useful
@@ -23,6 +20,9 @@ public class Commit<T> implements Serializable, Comparable<T> {
      * variable is used. We've provided one example for `message`.
      */
 
+    /** Pinned so commits written with Java serialization stay readable. */
+    private static final long serialVersionUID = -1671433990402038532L;
+
     private String[] parents;
     private String uid;
 
@@ -30,8 +30,17 @@ public class Commit<T> implements Serializable, Comparable<T> {
     private String message;
     private Date timestamp;
 
-    /** Reference to a blob map that keeps track of the filename as the key, and version as val */
-    Map<String, String> blobs;
+    /** UID of the tree holding this commit's files.  Null for commits
+     *  written before trees existed, which carry their whole blob map. */
+    private String tree;
+
+    /** Reference to a blob map that keeps track of the filename as the key, and version as val.
+     *  Loaded from the tree the first time it is needed. */
+    private Map<String, String> blobs;
+
+    /** Files added (to their new blob) or removed (to null) since this
+     *  commit was cloned, which writeCommit folds into its tree. */
+    private transient Map<String, String> changes;
 
     /** A Commit constructor. Initialize the timeStamp to Epoch */
     public Commit(String message) {
@@ -51,6 +60,19 @@ public class Commit<T> implements Serializable, Comparable<T> {
         this.parents = new String[]{parent1, parent2};
         this.uid = null;
         this.blobs = new TreeMap<>();
+        this.changes = new TreeMap<>();
+    }
+
+    /** A constructor for a commit decoded from the store, whose UID is UID
+     *  and whose files are in TREE or, for old commits, in BLOBS. */
+    Commit(String message, Date timestamp, String[] parents, String uid,
+           String tree, Map<String, String> blobs) {
+        this.message = message;
+        this.timestamp = timestamp;
+        this.parents = parents;
+        this.uid = uid;
+        this.tree = tree;
+        this.blobs = blobs;
     }
 
 
@@ -74,20 +96,63 @@ public class Commit<T> implements Serializable, Comparable<T> {
         return this.uid;
     }
 
+    /** Returns the map of every file this commit tracks to its blob. */
     public Map<String, String> getBlobs() {
+        if (blobs == null) {
+            blobs = Tree.flatten(tree);
+        }
         return blobs;
     }
 
+    /** Returns the blob of FILENAME in this commit, or null if it is not
+     *  tracked, reading only the trees along its path. */
+    public String getBlob(String filename) {
+        if (blobs != null) {
+            return blobs.get(filename);
+        }
+        return Tree.lookup(tree, filename);
+    }
+
+    /** Returns the UID of this commit's tree, writing one first for a
+     *  commit from before trees existed. */
+    public String getTree() {
+        if (tree == null) {
+            tree = Tree.update(null, blobs);
+        }
+        return tree;
+    }
+
+    /** Returns the UID of this commit's tree without writing one, or null
+     *  for a commit from before trees existed, which lists its blobs. */
+    String storedTree() {
+        return tree;
+    }
+
+    /** Records that FILENAME holds blob VERSION in this new commit. */
+    public void track(String filename, String version) {
+        changes.put(filename, version);
+        if (blobs != null) {
+            blobs.put(filename, version);
+        }
+    }
+
+    /** Records that FILENAME is no longer tracked by this new commit. */
+    public void untrack(String filename) {
+        changes.put(filename, null);
+        if (blobs != null) {
+            blobs.remove(filename);
+        }
+    }
+
     
-    /** Reads in and deserializes a COMMIT from a file with name FILENAME in COMMIT_DIR. */
+    /** Reads in and deserializes the COMMIT named FILENAME from the commit store. */
     public static Commit fromFile(String filename) {
         if (filename == null) {
             return null;
         }
 
-        File path = join(COMMIT_DIR, filename);
-        // Deserialize commit and read the contents of an existing file
-        Commit c = readObject(path, Commit.class);
+        // Decode commit from its loose file or packfile entry
+        Commit c = COMMITS.read(filename, bytes -> Codec.decodeCommit(bytes, filename));
         return c;
     }
 
@@ -99,53 +164,55 @@ public class Commit<T> implements Serializable, Comparable<T> {
     public Commit clone(String message, String parent2) {
         String parentUid = null;
         if (!(parent2 == null)) {
-            String parentUiD = getBranchID(parent2);
+            parentUid = getBranchID(parent2);
         }
         Commit currCommit = new Commit(message, this.getUid(), parentUid);
-        currCommit.blobs.putAll(this.blobs);
+
+        // Share the parent's tree; only the changes are written on commit
+        currCommit.tree = this.getTree();
+        currCommit.blobs = null;
 
         return currCommit;
     }
 
     /** Writes the commit object and saves sha1 hashcode as filename */
     public void writeCommit() {
-        // Check if file exists. If it does not, it creates the file
-        String id = sha1(serialize(this));
-        File path = join(COMMIT_DIR, id);
-        if (!path.exists()) {
-            createNewFile(path);
-        }
+        // Write the trees along the changed paths
+        tree = Tree.update(tree, changes);
+        changes.clear();
+        Journal.crashPoint("trees");
+
+        byte[] contents = Codec.encode(this);
+        String id = sha1(contents);
 
         // Update this commit's UID
         this.uid = id;
 
-        // Serialize commit and write in the existing COMMIT file
-        writeObject(path, this);
+        // Write the encoded commit to the commit store
+        boolean isNew = !COMMITS.contains(id);
+        COMMITS.write(id, contents);
+        Journal.crashPoint("commit object");
 
-        // Add the new commit to a graph and write to a file */
-        for(String p : parents) {
-            if (p != null) {
-                graph.addVertex(this.uid);
-                graph.addEdge(this.uid, p, BIDIRECTIONAL);
-            }
+        // Append the new commit to the commit graph and the message index
+        CommitGraph.append(this);
+        Journal.crashPoint("commit graph");
+        if (isNew) {
+            MessageIndex.append(this);
         }
-
-        writeObject(GRAPH_FILE, Graph.class);
     }
 
     @Override
     public String toString() {
         String contents = String.format("ID: %s   Timestamp: %s   message: %s     blobs: %s",
-                uid, timestamp, message, blobs.toString());
+                uid, timestamp, message, getBlobs().toString());
         return contents;
     }
 
     @Override
-    public int compareTo(T o) {
-        Commit c = (Commit) o;
+    public int compareTo(Commit c) {
         boolean isSameMessage = this.message.equals(c.getMessage());
         boolean isSameTime = this.timestamp.equals(c.getTimeStamp());
-        boolean isBlobs = this.blobs.values().equals(c.getBlobs().values());
+        boolean isBlobs = this.getTree().equals(c.getTree());
         return ((isSameMessage && isSameTime && isBlobs) ? 0 : -5);
     }
 
@@ -158,34 +225,6 @@ public class Commit<T> implements Serializable, Comparable<T> {
 
     /** print the metadata of a commit */
     public void printCommit() {
-        Date date = this.getTimeStamp();
-        Format formatted = new SimpleDateFormat("E MMM dd HH:mm:ss yyyy Z");
-        this.getTimeStamp();
-        String contents = "===";
-        contents = String.format(contents + "\n" + "commit %s" + "\n", this.getUid());
-
-        /** Handles log history with merge */
-        if (this.getSecondParent() != null) {
-            contents = addMergeContent(this, contents);
-        }
-
-        contents = String.format(contents + "Date: %s" + "\n"
-                + this.getMessage() + "\n", formatted.format(date));
-
-        System.out.println(contents);
-
-    }
-
-    private String addMergeContent(Commit commit, String contents) {
-        String firstBranch = subString(commit.getFirstParent());
-        String secondBranch = subString(commit.getSecondParent());
-        contents = String.format(contents + "Merge: %s %s" + "\n",
-                firstBranch, secondBranch);
-
-        return contents;
-    }
-
-    private String subString(String commitUID) {
-        return commitUID.substring(0, 6);
+        System.out.print(new LogPrinter(new String[0], 0).format(this));
     }
 }
@@ -0,0 +1,357 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.Directory.*;
+import static gitlet.Utils.*;
+
+/** The commit graph, kept in the memory-mapped file COMMIT_GRAPH_FILE.
+ *  After an 8-byte header the file holds one fixed-size record per commit,
+ *  in the order the commits were written:
+ *
+ *      UID (20 bytes) | first parent | second parent | generation | time
+ *
+ *  Parents are int positions of earlier records (-1 for none), the
+ *  generation of a commit is one more than the largest generation of its
+ *  parents (1 for the initial commit), and time is the commit's timestamp
+ *  in milliseconds.  Since a commit is always written after its parents,
+ *  new commits are simply appended.
+ *
+ *  UIDs are found through COMMIT_INDEX_FILE, a HashIndex from UID to
+ *  record position that covers the first records of the graph.  Records
+ *  appended since it was written are searched linearly, and the index is
+ *  rewritten once there are TAIL_LIMIT of them. */
+class CommitGraph {
+    /** Magic number ("GCGR") and format version of the graph file. */
+    private static final int MAGIC = 0x47434752;
+    private static final int VERSION = 1;
+
+    /** Size of the header and of one record. */
+    private static final int HEADER = 8;
+    private static final int RECORD = HashIndex.HASH_SIZE + 4 + 4 + 4 + 8;
+
+    /** Offsets of the fields within a record. */
+    private static final int PARENT1 = HashIndex.HASH_SIZE;
+    private static final int PARENT2 = PARENT1 + 4;
+    private static final int GENERATION = PARENT2 + 4;
+    private static final int TIME = GENERATION + 4;
+
+    /** Number of unindexed records that triggers rewriting the index. */
+    private static final int TAIL_LIMIT = 256;
+
+    /** Flags marking the commits reachable from each side of a merge. */
+    private static final int LEFT = 1;
+    private static final int RIGHT = 2;
+
+    /** The graph last mapped by open, and the length and modification
+     *  times of the graph and index files it was mapped from. */
+    private static CommitGraph cached;
+    private static long[] cachedStamp;
+
+    private final ByteBuffer buffer;
+    private final int size;
+
+    /** Index of the first INDEXED records, which may be null. */
+    private final HashIndex index;
+    private final int indexed;
+
+    private CommitGraph(ByteBuffer buffer, HashIndex index) {
+        if (buffer.limit() < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw error("Corrupt commit graph.");
+        }
+        this.buffer = buffer;
+        this.size = (buffer.limit() - HEADER) / RECORD;
+        if (index != null && index.size() > size) {
+            index = null;
+        }
+        this.index = index;
+        this.indexed = index == null ? 0 : index.size();
+    }
+
+    /** Maps the commit graph, building it from the commit store first if
+     *  this repository does not have one yet.  The mapping is reused for as
+     *  long as neither file changes. */
+    static synchronized CommitGraph open() {
+        if (!COMMIT_GRAPH_FILE.isFile()) {
+            rebuild();
+        }
+        long[] stamp = {COMMIT_GRAPH_FILE.length(), COMMIT_GRAPH_FILE.lastModified(),
+            COMMIT_INDEX_FILE.lastModified()};
+        if (cached != null && Arrays.equals(stamp, cachedStamp)) {
+            return cached;
+        }
+        try (FileChannel channel = FileChannel.open(COMMIT_GRAPH_FILE.toPath(),
+                StandardOpenOption.READ)) {
+            cached = new CommitGraph(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                    HashIndex.open(COMMIT_INDEX_FILE));
+            cachedStamp = stamp;
+            return cached;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return size;
+    }
+
+    /** Returns the UID of the commit at position POS. */
+    String idAt(int pos) {
+        byte[] hash = new byte[HashIndex.HASH_SIZE];
+        buffer.get(HEADER + pos * RECORD, hash);
+        return sha1Hex(hash);
+    }
+
+    /** Returns the position of the first (WHICH = 0) or second (WHICH = 1)
+     *  parent of the commit at POS, or -1 if it has none. */
+    int parent(int pos, int which) {
+        return buffer.getInt(HEADER + pos * RECORD + (which == 0 ? PARENT1 : PARENT2));
+    }
+
+    /** Returns the generation number of the commit at POS. */
+    int generation(int pos) {
+        return buffer.getInt(HEADER + pos * RECORD + GENERATION);
+    }
+
+    /** Returns the timestamp of the commit at POS, in milliseconds. */
+    long time(int pos) {
+        return buffer.getLong(HEADER + pos * RECORD + TIME);
+    }
+
+    /** Returns the position of the commit ID, or -1 if it is not in the
+     *  graph. */
+    int position(String id) {
+        if (id == null || id.length() != UID_LENGTH || !isHex(id)) {
+            return -1;
+        }
+        byte[] hash = sha1Bytes(id);
+        if (index != null) {
+            int i = index.position(hash);
+            if (i >= 0) {
+                return (int) index.valueAt(i);
+            }
+        }
+        byte[] probe = new byte[HashIndex.HASH_SIZE];
+        for (int pos = size - 1; pos >= indexed; pos--) {
+            buffer.get(HEADER + pos * RECORD, probe);
+            if (Arrays.equals(probe, hash)) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the UIDs of the commits that start with PREFIX, in sorted
+     *  order.  Lookup is a fan-out read and a binary search in the index,
+     *  plus a scan of the few records appended since it was written. */
+    List<String> resolve(String prefix) {
+        List<String> result = new ArrayList<>();
+        if (prefix.length() > UID_LENGTH || !isHex(prefix)) {
+            return result;
+        }
+        if (index != null) {
+            int[] range = index.prefixRange(prefix);
+            for (int i = range[0]; i < range[1]; i++) {
+                result.add(index.idAt(i));
+            }
+        }
+        for (int pos = indexed; pos < size; pos++) {
+            String id = idAt(pos);
+            if (id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Returns true iff S consists of lower-case hexadecimal digits. */
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Rewrites COMMIT_INDEX_FILE to cover every record of this graph. */
+    private void writeIndex() {
+        List<HashIndex.Entry> entries = new ArrayList<>(size);
+        for (int pos = 0; pos < size; pos++) {
+            byte[] hash = new byte[HashIndex.HASH_SIZE];
+            buffer.get(HEADER + pos * RECORD, hash);
+            entries.add(new HashIndex.Entry(hash, pos));
+        }
+        HashIndex.write(COMMIT_INDEX_FILE, entries);
+    }
+
+    /** Returns the UID of the latest common ancestor of commits A and B.
+     *  Commits are visited in decreasing generation order, painting each
+     *  with the sides it is reachable from.  A commit's children all have
+     *  higher generations, so by the time it is visited its paint is final,
+     *  and the first commit painted from both sides is a common ancestor
+     *  that no other common ancestor descends from.  Nothing older than it
+     *  is ever read. */
+    String mergeBase(String a, String b) {
+        int posA = position(a);
+        int posB = position(b);
+        if (posA < 0 || posB < 0) {
+            throw error("No commit with that id exists.");
+        }
+
+        Map<Integer, Integer> paint = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) -> {
+            int cmp = Integer.compare(generation(y), generation(x));
+            return cmp != 0 ? cmp : Long.compare(time(y), time(x));
+        });
+        paint.merge(posA, LEFT, (x, y) -> x | y);
+        paint.merge(posB, RIGHT, (x, y) -> x | y);
+        queue.add(posA);
+        queue.add(posB);
+
+        Set<Integer> visited = new HashSet<>();
+        while (!queue.isEmpty()) {
+            int pos = queue.poll();
+            if (!visited.add(pos)) {
+                continue;
+            }
+            int flags = paint.get(pos);
+            if (flags == (LEFT | RIGHT)) {
+                return idAt(pos);
+            }
+            for (int which = 0; which < 2; which++) {
+                int parent = parent(pos, which);
+                if (parent < 0) {
+                    continue;
+                }
+                int old = paint.getOrDefault(parent, 0);
+                if ((old | flags) != old) {
+                    paint.put(parent, old | flags);
+                    queue.add(parent);
+                }
+            }
+        }
+        throw error("Commits have no common ancestor.");
+    }
+
+    /** Appends COMMIT, whose parents must already be in the graph, to the
+     *  graph file.  Builds the whole file instead if it does not exist. */
+    static void append(Commit commit) {
+        if (!COMMIT_GRAPH_FILE.isFile()) {
+            rebuild();
+            return;
+        }
+        CommitGraph graph = open();
+        if (graph.position(commit.getUid()) >= 0) {
+            return;
+        }
+        int[] parents = {graph.position(commit.getFirstParent()),
+            graph.position(commit.getSecondParent())};
+        int generation = 1;
+        for (int p : parents) {
+            if (p >= 0) {
+                generation = Math.max(generation, graph.generation(p) + 1);
+            }
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD);
+        putRecord(record, commit, parents, generation);
+        record.flip();
+        try (FileChannel channel = FileChannel.open(COMMIT_GRAPH_FILE.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        if (graph.size + 1 - graph.indexed >= TAIL_LIMIT) {
+            open().writeIndex();
+        }
+    }
+
+    /** Writes COMMIT's record, with parent positions PARENTS and
+     *  GENERATION, to OUT. */
+    private static void putRecord(ByteBuffer out, Commit commit, int[] parents, int generation) {
+        out.put(sha1Bytes(commit.getUid()));
+        out.putInt(parents[0]);
+        out.putInt(parents[1]);
+        out.putInt(generation);
+        out.putLong(commit.getTimeStamp().getTime());
+    }
+
+    /** Rebuilds COMMIT_GRAPH_FILE and its index from every commit in the
+     *  commit store, ordering them so that parents precede their children. */
+    static void rebuild() {
+        Map<String, Commit> commits = new HashMap<>();
+        for (String id : COMMITS.ids()) {
+            commits.put(id, Commit.fromFile(id));
+        }
+
+        List<Commit> order = new ArrayList<>(commits.size());
+        Map<String, Integer> positions = new HashMap<>();
+        for (String id : commits.keySet()) {
+            Deque<String> stack = new ArrayDeque<>();
+            stack.push(id);
+            while (!stack.isEmpty()) {
+                String top = stack.peek();
+                if (positions.containsKey(top) || !commits.containsKey(top)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit c = commits.get(top);
+                boolean ready = true;
+                for (String p : new String[] {c.getFirstParent(), c.getSecondParent()}) {
+                    if (p != null && commits.containsKey(p) && !positions.containsKey(p)) {
+                        stack.push(p);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    positions.put(top, order.size());
+                    order.add(c);
+                }
+            }
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER + order.size() * RECORD);
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        int[] generations = new int[order.size()];
+        for (int pos = 0; pos < order.size(); pos++) {
+            Commit c = order.get(pos);
+            int[] parents = {positions.getOrDefault(c.getFirstParent(), -1),
+                positions.getOrDefault(c.getSecondParent(), -1)};
+            int generation = 1;
+            for (int p : parents) {
+                if (p >= 0) {
+                    generation = Math.max(generation, generations[p] + 1);
+                }
+            }
+            generations[pos] = generation;
+            putRecord(out, c, parents, generation);
+        }
+
+        File temp = new File(COMMIT_GRAPH_FILE.getPath() + ".tmp");
+        writeContents(temp, out.array());
+        try {
+            Files.move(temp.toPath(), COMMIT_GRAPH_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        open().writeIndex();
+    }
+}
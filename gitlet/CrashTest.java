@@ -0,0 +1,201 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static gitlet.Benchmark.*;
+import static gitlet.Utils.*;
+
+/** Crash-safety checks for commits, and checks of commits that change
+ *  the shape of the tree, run as
+ *      java gitlet.CrashTest
+ *  Prints one line per check and exits with a non-zero status if any
+ *  check fails.
+ */
+public class CrashTest {
+
+    public static void main(String[] args) throws IOException {
+        int failures = crash() + replace();
+        if (failures > 0) {
+            System.out.printf("crash: %d checks failed%n", failures);
+            System.exit(1);
+        }
+    }
+
+    /** Commits a file in place of a directory of the same name, and then a
+     *  directory in place of that file, checking that each commit has the
+     *  new entry and leaves a clean status.  Returns the number of failed
+     *  checks. */
+    private static int replace() throws IOException {
+        int failures = 0;
+        File dir = scratch();
+        File d = join(dir, "d");
+        gitlet(dir, "init");
+        d.mkdir();
+        writeContents(join(d, "f"), "f1\n");
+        gitlet(dir, "add", "d/f");
+        gitlet(dir, "commit", "directory");
+
+        gitlet(dir, "rm", "d/f");
+        d.delete();
+        writeContents(d, "file\n");
+        gitlet(dir, "add", "d");
+        gitlet(dir, "commit", "file");
+        d.delete();
+        String outcome = replaceCheck(dir, "d", "file\n");
+        failures += outcome.startsWith("FAILED") ? 1 : 0;
+        System.out.printf("replace: directory by file   %s%n", outcome);
+
+        gitlet(dir, "rm", "d");
+        d.mkdir();
+        writeContents(join(d, "g"), "g1\n");
+        gitlet(dir, "add", "d/g");
+        gitlet(dir, "commit", "directory again");
+        delete(d);
+        outcome = replaceCheck(dir, "d/g", "g1\n");
+        failures += outcome.startsWith("FAILED") ? 1 : 0;
+        System.out.printf("replace: file by directory   %s%n", outcome);
+        delete(dir);
+        return failures;
+    }
+
+    /** Checks out PATH of the head commit in DIR, which must give CONTENTS
+     *  and a clean status.  Returns "ok" or what is wrong. */
+    private static String replaceCheck(File dir, String path, String contents)
+            throws IOException {
+        String output = untimed(gitlet(dir, "checkout", "--", path));
+        if (!output.isEmpty()) {
+            return "FAILED: checkout -- " + path + ": " + output.trim();
+        }
+        if (!readContentsAsString(join(dir, path)).equals(contents)) {
+            return "FAILED: " + path + " has the wrong contents";
+        }
+        String status = untimed(gitlet(dir, "status"));
+        if (!status.equals(CLEAN_STATUS)) {
+            return "FAILED: status is\n" + status;
+        }
+        return "ok";
+    }
+
+    /** Status of a clean repository on master. */
+    private static final String CLEAN_STATUS = "=== Branches ===\n*master\n\n"
+            + "=== Staged Files ===\n\n=== Removed Files ===\n\n"
+            + "=== Modifications Not Staged For Commit ===\n\n=== Untracked Files ===\n\n";
+
+    /** Makes a repository in DIR whose stage holds an edit of a, a new file
+     *  c and the removal of b, for a commit "next" on top of "base". */
+    private static void crashSetup(File dir) throws IOException {
+        gitlet(dir, "init");
+        writeContents(join(dir, "a"), "a1\n");
+        writeContents(join(dir, "b"), "b1\n");
+        gitlet(dir, "add", "a");
+        gitlet(dir, "add", "b");
+        gitlet(dir, "commit", "base");
+        writeContents(join(dir, "a"), "a2\n");
+        writeContents(join(dir, "c"), "c1\n");
+        gitlet(dir, "add", "a");
+        gitlet(dir, "add", "c");
+        gitlet(dir, "rm", "b");
+    }
+
+    /** Checks that the repository in DIR, after a commit "next" set up by
+     *  crashSetup was stopped, is either before the commit or after it;
+     *  finishes the commit in the first case; and checks that the result is
+     *  the commit and a clean stage.  Returns which it was, or throws an
+     *  IllegalStateException describing what is wrong. */
+    private static String crashCheck(File dir) throws IOException {
+        String head = untimed(gitlet(dir, "log", "--max-count=1", "--format=%s")).trim();
+        if (head.equals("base")) {
+            String retry = untimed(gitlet(dir, "commit", "next"));
+            if (!retry.isEmpty()) {
+                throw new IllegalStateException("retried commit failed: " + retry);
+            }
+        } else if (!head.equals("next")) {
+            throw new IllegalStateException("head is " + head);
+        }
+        String status = untimed(gitlet(dir, "status"));
+        if (!status.equals(CLEAN_STATUS)) {
+            throw new IllegalStateException("status is\n" + status);
+        }
+        for (String name : new String[] {"a", "c"}) {
+            join(dir, name).delete();
+            gitlet(dir, "checkout", "--", name);
+        }
+        if (!readContentsAsString(join(dir, "a")).equals("a2\n")
+                || !readContentsAsString(join(dir, "c")).equals("c1\n")) {
+            throw new IllegalStateException("committed files are wrong");
+        }
+        String b = untimed(gitlet(dir, "checkout", "--", "b"));
+        if (!b.startsWith("File does not exist")) {
+            throw new IllegalStateException("removed file is still committed");
+        }
+        return head.equals("base") ? "before" : "after";
+    }
+
+    /** Stops a commit at each of its crash points in turn, as a killed
+     *  process would stop, and checks that the next command finds the
+     *  commit either not made or made whole.  Then, for the crash point
+     *  just after the journal is synced, also throws away every write that
+     *  the commit made but did not sync, as a power failure could, and
+     *  checks that the journal alone brings the commit back.  Returns the
+     *  number of failed checks. */
+    private static int crash() throws IOException {
+        int failures = 0;
+        int synced = 0;
+        for (int n = 1;; n++) {
+            File dir = scratch();
+            crashSetup(dir);
+            String output = gitlet(dir, List.of("-Dgitlet.crash=" + n), "commit", "next");
+            int at = output.indexOf("crash: ");
+            if (at < 0) {
+                delete(dir);
+                System.out.printf("crash: %d crash points, %d failures%n", n - 1, failures);
+                break;
+            }
+            String point = output.substring(at + 7, output.indexOf('\n', at));
+            if (point.equals("journal synced")) {
+                synced = n;
+            }
+            String outcome;
+            try {
+                outcome = crashCheck(dir);
+            } catch (IllegalStateException excp) {
+                outcome = "FAILED: " + excp.getMessage();
+                failures++;
+            }
+            System.out.printf("crash: %2d %-20s %s%n", n, point, outcome);
+            delete(dir);
+        }
+        if (synced == 0) {
+            System.out.println("crash: FAILED: no crash point after the journal is synced");
+            return failures + 1;
+        }
+
+        File dir = scratch();
+        crashSetup(dir);
+        File snapshot = scratch();
+        copyTree(join(dir, ".gitlet"), snapshot);
+        gitlet(dir, List.of("-Dgitlet.crash=" + synced), "commit", "next");
+        File journal = join(dir, ".gitlet", "journal");
+        byte[] records = readContents(journal);
+        delete(join(dir, ".gitlet"));
+        copyTree(snapshot, join(dir, ".gitlet"));
+        writeContents(journal, records);
+        String outcome;
+        try {
+            outcome = crashCheck(dir);
+            if (!outcome.equals("after")) {
+                outcome = "FAILED: the synced commit was lost";
+                failures++;
+            }
+        } catch (IllegalStateException excp) {
+            outcome = "FAILED: " + excp.getMessage();
+            failures++;
+        }
+        System.out.printf("crash: unsynced writes lost    %s%n", outcome);
+        delete(snapshot);
+        delete(dir);
+        return failures;
+    }
+}
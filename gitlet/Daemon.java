@@ -0,0 +1,173 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static gitlet.Directory.*;
+import static gitlet.Utils.*;
+
+/** A long-running Gitlet process for the repository in the working
+ *  directory, started with "gitlet daemon".  It serves commands over the
+ *  Unix domain socket .gitlet/daemon.sock, one at a time, so the JVM, the
+ *  object caches and the mapped commit graph stay warm between them.
+ *  Everything mutable (HEAD, branches, the stage, the stat cache) is read
+ *  from disk by each command as before, and packs are rescanned when the
+ *  pack directories change, so the daemon sees what other processes do.
+ *
+ *  A request is the number of arguments followed by each argument; the
+ *  reply is a series of frames, each a stream tag (OUT or ERR), a length
+ *  and that many bytes, ended by an END frame.  Main forwards commands to
+ *  a running daemon and runs them itself when there is none. */
+class Daemon {
+    /** The socket file.  Its address is given relative to the working
+     *  directory, which both sides share, to stay within the length limit
+     *  of socket paths. */
+    static final File SOCKET = join(GITLET_DIR, "daemon.sock");
+    private static final UnixDomainSocketAddress ADDRESS =
+            UnixDomainSocketAddress.of(Path.of(GITLET_DIR.getName(), SOCKET.getName()));
+
+    /** Frame tags of a reply. */
+    private static final int END = 0;
+    private static final int OUT = 1;
+    private static final int ERR = 2;
+
+    /** Serves requests until a "daemon stop" request arrives, refusing to
+     *  start if another daemon already answers on the socket. */
+    static void serve() throws IOException {
+        if (SOCKET.exists()) {
+            try {
+                SocketChannel.open(ADDRESS).close();
+                throw new GitletException("A daemon is already running.");
+            } catch (IOException excp) {
+                SOCKET.delete();
+            }
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(ADDRESS);
+            Runtime.getRuntime().addShutdownHook(new Thread(SOCKET::delete));
+            System.out.println("Serving " + CWD.getPath());
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = handle(client);
+                } catch (EOFException excp) {
+                    // A client that hung up without a request, such as a probe
+                } catch (IOException excp) {
+                    System.err.println("daemon: " + excp.getMessage());
+                }
+            }
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /** Runs the command that CLIENT sends and replies with its output.
+     *  Returns false iff the command was "daemon stop". */
+    private static boolean handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(client)));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            byte[] arg = new byte[in.readInt()];
+            in.readFully(arg);
+            args[i] = new String(arg, StandardCharsets.UTF_8);
+        }
+        boolean stop = false;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+        System.setErr(new PrintStream(err, true, StandardCharsets.UTF_8));
+        try {
+            if (args.length > 0 && args[0].equals("daemon")) {
+                stop = args.length == 2 && args[1].equals("stop");
+                if (!stop) {
+                    throw new GitletException("A daemon is already running.");
+                }
+            } else {
+                BLOBS.refresh();
+                COMMITS.refresh();
+                TREES.refresh();
+                Main.run(args);
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        } catch (IOException | RuntimeException excp) {
+            excp.printStackTrace();
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+
+        DataOutputStream reply = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(client)));
+        writeFrame(reply, OUT, out.toByteArray());
+        writeFrame(reply, ERR, err.toByteArray());
+        reply.writeByte(END);
+        reply.flush();
+        return !stop;
+    }
+
+    private static void writeFrame(DataOutputStream out, int tag, byte[] bytes)
+            throws IOException {
+        if (bytes.length > 0) {
+            out.writeByte(tag);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /** Sends ARGS to the daemon of this repository and copies its reply
+     *  to standard output and error.  Returns false, having done nothing,
+     *  if no daemon is running. */
+    static boolean forward(String[] args) {
+        if (!SOCKET.exists()) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(ADDRESS);
+        } catch (IOException excp) {
+            return false;
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel)));
+            for (int tag = in.readByte(); tag != END; tag = in.readByte()) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                (tag == ERR ? System.err : System.out).write(bytes);
+            }
+            System.out.flush();
+            return true;
+        } catch (IOException excp) {
+            throw new GitletException("Lost connection to the daemon: " + excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static gitlet.Codec.readVarint;
+import static gitlet.Codec.writeVarint;
+import static gitlet.Utils.*;
+
+/** Binary deltas between two versions of a blob.  A delta is a varint
+ *  header holding the lengths of the base and the result, followed by a
+ *  sequence of COPY (offset, length from the base) and INSERT (literal
+ *  bytes) instructions.  Matches are found by indexing every BLOCK-byte
+ *  block of the base and sliding a rolling hash over the target, so
+ *  encoding is linear in the size of both versions. */
+class Delta {
+    /** Instruction tags. */
+    private static final int COPY = 0;
+    private static final int INSERT = 1;
+
+    /** Size of the blocks of the base that are indexed. */
+    private static final int BLOCK = 16;
+
+    /** Multiplier of the rolling hash, and its BLOCK-th power. */
+    private static final int PRIME = 31;
+    private static final int PRIME_POW = pow(PRIME, BLOCK);
+
+    /** Returns a delta that turns BASE into TARGET. */
+    static byte[] encode(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        int[] table = index(base);
+        int mask = table.length - 1;
+        int pending = 0;
+        int i = 0;
+        int hash = target.length >= BLOCK ? hash(target, 0) : 0;
+
+        while (i + BLOCK <= target.length) {
+            int candidate = table[hash & mask];
+            if (candidate >= 0 && Arrays.equals(base, candidate, candidate + BLOCK,
+                    target, i, i + BLOCK)) {
+                /** Extend the match backwards into the pending literal and forwards. */
+                int start = candidate;
+                int from = i;
+                while (from > pending && start > 0 && base[start - 1] == target[from - 1]) {
+                    start--;
+                    from--;
+                }
+                int end = i + BLOCK;
+                int baseEnd = candidate + BLOCK;
+                while (end < target.length && baseEnd < base.length
+                        && base[baseEnd] == target[end]) {
+                    end++;
+                    baseEnd++;
+                }
+                writeInsert(out, target, pending, from);
+                out.write(COPY);
+                writeVarint(out, start);
+                writeVarint(out, end - from);
+                pending = end;
+                i = end;
+                if (i + BLOCK <= target.length) {
+                    hash = hash(target, i);
+                }
+                continue;
+            }
+            if (i + BLOCK < target.length) {
+                hash = hash * PRIME + target[i + BLOCK] - PRIME_POW * target[i];
+            }
+            i++;
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        ByteBuffer in = ByteBuffer.wrap(delta);
+        if (readVarint(in) != base.length) {
+            throw error("Delta does not match its base.");
+        }
+        byte[] result = new byte[(int) readVarint(in)];
+        int pos = 0;
+        while (in.hasRemaining()) {
+            int op = in.get();
+            if (op == COPY) {
+                int offset = (int) readVarint(in);
+                int length = (int) readVarint(in);
+                System.arraycopy(base, offset, result, pos, length);
+                pos += length;
+            } else if (op == INSERT) {
+                int length = (int) readVarint(in);
+                in.get(result, pos, length);
+                pos += length;
+            } else {
+                throw error("Corrupt delta.");
+            }
+        }
+        if (pos != result.length) {
+            throw error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Returns an open-addressed table from the hash of each aligned block
+     *  of BASE to that block's offset, or -1 for empty slots. */
+    private static int[] index(byte[] base) {
+        int blocks = base.length / BLOCK;
+        int size = Integer.highestOneBit(Math.max(blocks, 1) * 2 - 1) << 1;
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        for (int b = 0; b < blocks; b++) {
+            int slot = hash(base, b * BLOCK) & (size - 1);
+            if (table[slot] < 0) {
+                table[slot] = b * BLOCK;
+            }
+        }
+        return table;
+    }
+
+    /** Returns the rolling hash of the BLOCK bytes of DATA at OFFSET. */
+    private static int hash(byte[] data, int offset) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k++) {
+            h = h * PRIME + data[offset + k];
+        }
+        return h;
+    }
+
+    private static int pow(int base, int exp) {
+        int result = 1;
+        for (int k = 0; k < exp; k++) {
+            result *= base;
+        }
+        return result;
+    }
+
+    /** Writes an INSERT of DATA[FROM..TO) to OUT, if it is non-empty. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        if (to > from) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(data, from, to - from);
+        }
+    }
+}
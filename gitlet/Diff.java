@@ -0,0 +1,579 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Line-level differences between two versions of a file.
+ *
+ *  The versions are split into Lines, and an Interner numbers the lines
+ *  so that equal lines get equal numbers and are compared as ints.  Lines
+ *  that occur exactly once in each version are matched up in order, as in
+ *  patience diff, by a longest increasing subsequence; the stretches
+ *  between those anchors are compared with Myers's O(ND) algorithm in its
+ *  linear-space form, which finds a shortest edit script for a stretch in
+ *  time proportional to its length times the number of edits in it, and
+ *  space proportional to its length.  A version of mostly distinct lines
+ *  with scattered edits is thus compared in about linear time, and
+ *  memory stays a few ints per line whatever the edits.  To bound the
+ *  time on versions with few distinct lines, the search in a stretch
+ *  stops at a cost of about the square root of its length, as git's does,
+ *  and splits the stretch where it got furthest, which may give a longer
+ *  edit script than the shortest but never a wrong one.
+ *
+ *  Versions too large to number whole are compared a window at a time:
+ *  the lines both have in common are skipped by comparing bytes, and the
+ *  next lines of each are diffed, a thousand or so at first, and up to
+ *  WINDOW while the windows turn out to be mostly edits.  The edits in
+ *  the first three quarters of the windows are kept, and the next windows
+ *  start after the last of them, so memory is bounded by the window
+ *  whatever the sizes of the versions, and time spent numbering lines by
+ *  the size of the changes rather than of the versions.  The edits found
+ *  may then be more than the fewest, around changes that are large or
+ *  close together. */
+class Diff {
+    /** Receives the edits of a windowed diff in order. */
+    interface Edits {
+        /** Takes EDIT, which is {aStart, aEnd, bStart, bEnd, aFrom, aTo,
+         *  bFrom, bTo}: lines aStart to aEnd - 1 of A, which are bytes
+         *  aFrom to aTo - 1, are replaced with lines bStart to bEnd - 1 of
+         *  B, bytes bFrom to bTo - 1. */
+        void edit(int[] edit) throws IOException;
+    }
+
+    /** Number of lines in the first windows compared after a skip. */
+    private static final int FIRST_WINDOW = 1024;
+
+    /** Least cost at which the search in a stretch may stop. */
+    private static final int MIN_COST = 256;
+
+    /** A version of a file split into lines, line I being the bytes of
+     *  CONTENTS from start(I) to start(I + 1), ending with a newline unless
+     *  it is the last line and the file does not end with one. */
+    static class Lines {
+        /** The contents of the version. */
+        final ByteBuffer contents;
+
+        /** Offsets of the starts of the lines, then of the end of the last. */
+        private final int[] starts;
+
+        /** Number of each line; equal lines have equal numbers. */
+        final int[] ids;
+
+        /** Number of distinct lines in the versions split with this one. */
+        private int numbers;
+
+        /** Splits CONTENTS, version VERSION, into lines, numbering them
+         *  with INTERNER.  LIKE, if not null, is an earlier version this one
+         *  probably resembles: each line is first compared with the line of
+         *  LIKE after the last one it matched, which finds most lines
+         *  reading both versions in order, and only the others are looked
+         *  up in INTERNER. */
+        private Lines(ByteBuffer contents, int version, Lines like, Interner interner) {
+            this.contents = contents;
+            int limit = contents.limit();
+            int[] found = new int[Math.max(16, limit / 32)];
+            int[] numbers = new int[found.length];
+            int n = 0;
+            int next = 0;
+            for (int start = 0; start < limit; n++) {
+                int end = start;
+                int hash = 0;
+                byte b = 0;
+                while (end < limit && (b = contents.get(end)) != '\n') {
+                    hash = 31 * hash + b;
+                    end++;
+                }
+                if (end < limit) {
+                    end++;
+                }
+                if (n + 1 >= found.length) {
+                    found = Arrays.copyOf(found, found.length * 2);
+                    numbers = Arrays.copyOf(numbers, found.length);
+                }
+                found[n] = start;
+                if (like != null && next < like.size() && Interner.equal(like.contents,
+                        like.starts[next], like.starts[next + 1], contents, start, end)) {
+                    numbers[n] = like.ids[next++];
+                } else {
+                    numbers[n] = interner.intern(contents, version, n, start, end, hash);
+                    next = like != null && interner.version(numbers[n]) < version
+                            ? interner.line(numbers[n]) + 1 : next + 1;
+                }
+                start = end;
+            }
+            found[n] = limit;
+            this.starts = Arrays.copyOf(found, n + 1);
+            this.ids = Arrays.copyOf(numbers, n);
+        }
+
+        /** Returns the number of lines. */
+        int size() {
+            return ids.length;
+        }
+
+        /** Returns the offset in CONTENTS of the start of line I, or of the
+         *  end of the last line if I is size(). */
+        int start(int i) {
+            return starts[i];
+        }
+    }
+
+    /** Numbers the lines of the versions split with it, so that equal
+     *  lines get equal numbers.  It is an open-addressing hash table that
+     *  remembers where each distinct line first occurred. */
+    private static class Interner {
+        /** Slots holding a line number plus one, or 0 when free. */
+        private int[] table;
+
+        /** For each number, the hash of its line, and the version and line
+         *  it first occurred as and where in the version's contents. */
+        private int[] hashes;
+        private byte[] versions;
+        private int[] lines;
+        private int[] starts;
+        private int[] ends;
+
+        /** The contents of each version. */
+        private final ByteBuffer[] contents;
+
+        /** Number of distinct lines seen. */
+        private int size;
+
+        /** An interner for the lines of VERSIONS, with room for about
+         *  EXPECTED distinct ones. */
+        Interner(ByteBuffer[] contents, int expected) {
+            this.contents = contents;
+            int capacity = Integer.highestOneBit(Math.max(1 << 10, expected) - 1) << 1;
+            table = new int[2 * capacity];
+            hashes = new int[capacity];
+            versions = new byte[capacity];
+            lines = new int[capacity];
+            starts = new int[capacity];
+            ends = new int[capacity];
+        }
+
+        /** Returns the number of distinct lines seen. */
+        int size() {
+            return size;
+        }
+
+        /** Returns the version in which line number ID first occurred. */
+        int version(int id) {
+            return versions[id];
+        }
+
+        /** Returns the line of that version that number ID first was. */
+        int line(int id) {
+            return lines[id];
+        }
+
+        /** Returns the number of line LINE of version VERSION, whose
+         *  CONTENTS it runs from START to END, and whose hash is HASH. */
+        int intern(ByteBuffer contents, int version, int line, int start, int end, int hash) {
+            hash ^= hash >>> 16;
+            int mask = table.length - 1;
+            for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                int id = table[slot] - 1;
+                if (hashes[id] == hash && equal(this.contents[versions[id]], starts[id],
+                        ends[id], contents, start, end)) {
+                    return id;
+                }
+            }
+            if (size == hashes.length) {
+                int capacity = size * 2;
+                hashes = Arrays.copyOf(hashes, capacity);
+                versions = Arrays.copyOf(versions, capacity);
+                lines = Arrays.copyOf(lines, capacity);
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+            }
+            hashes[size] = hash;
+            versions[size] = (byte) version;
+            lines[size] = line;
+            starts[size] = start;
+            ends[size] = end;
+            if (2 * (size + 1) > table.length) {
+                rehash();
+            }
+            place(size);
+            return size++;
+        }
+
+        /** Puts number ID in the first free slot for its hash. */
+        private void place(int id) {
+            int mask = table.length - 1;
+            int slot = hashes[id] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+
+        /** Doubles the table. */
+        private void rehash() {
+            table = new int[table.length * 2];
+            for (int id = 0; id < size; id++) {
+                place(id);
+            }
+        }
+
+        /** Returns true iff bytes ASTART to AEND - 1 of A are the same as
+         *  BSTART to BEND - 1 of B. */
+        static boolean equal(ByteBuffer a, int aStart, int aEnd,
+                                     ByteBuffer b, int bStart, int bEnd) {
+            if (aEnd - aStart != bEnd - bStart) {
+                return false;
+            }
+            for (int i = aStart, j = bStart; i < aEnd; i++, j++) {
+                if (a.get(i) != b.get(j)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Line numbers of the two versions. */
+    private final int[] a;
+    private final int[] b;
+
+    /** Number of distinct lines in both. */
+    private final int numbers;
+
+    /** The edits found so far, in order. */
+    private final List<int[]> edits = new ArrayList<>();
+
+    private Diff(int[] a, int[] b, int numbers) {
+        this.a = a;
+        this.b = b;
+        this.numbers = numbers;
+    }
+
+    /** Returns VERSIONS split into lines, numbered so that they can be
+     *  compared with one another, each of the later versions expected to
+     *  resemble the first.  The table of distinct lines is dropped once
+     *  they are, as the numbers are all the comparisons need. */
+    static Lines[] split(ByteBuffer... versions) {
+        Interner interner = new Interner(versions, versions[0].limit() / 32);
+        Lines[] result = new Lines[versions.length];
+        for (int i = 0; i < versions.length; i++) {
+            result[i] = new Lines(versions[i], i, i == 0 ? null : result[0], interner);
+        }
+        for (Lines lines : result) {
+            lines.numbers = interner.size();
+        }
+        return result;
+    }
+
+    /** Returns the edits that turn A into B, which were split together,
+     *  in order.  Each is {aStart, aEnd, bStart, bEnd}: lines aStart to
+     *  aEnd - 1 of A are replaced with lines bStart to bEnd - 1 of B.  At
+     *  least one line that is the same in both separates two edits. */
+    static List<int[]> diff(Lines a, Lines b) {
+        Diff diff = new Diff(a.ids, b.ids, a.numbers);
+        diff.anchored(0, a.size(), 0, b.size());
+        return diff.edits;
+    }
+    /** Gives EDITS the edits that turn A into B, in order, comparing at
+     *  most WINDOW lines of each at a time. */
+    static void diff(ByteBuffer a, ByteBuffer b, int window, Edits edits) throws IOException {
+        int aPos = 0;
+        int bPos = 0;
+        int aLine = 0;
+        int bLine = 0;
+        boolean whole = skipLines(a, 0, window) == a.limit() && skipLines(b, 0, window) == b.limit();
+        while (true) {
+            /* Skip the whole lines that are the same in both */
+            int mismatch = a.slice(aPos, a.limit() - aPos).mismatch(b.slice(bPos, b.limit() - bPos));
+            if (mismatch < 0) {
+                return;
+            }
+            int same = mismatch;
+            while (same > 0 && a.get(aPos + same - 1) != '\n') {
+                same--;
+            }
+            for (int i = aPos, end = aPos + same; i < end; i++) {
+                if (a.get(i) == '\n') {
+                    aLine++;
+                    bLine++;
+                }
+            }
+            aPos += same;
+            bPos += same;
+
+            /* Unless the versions fit in a window, diff small windows
+             * first, and larger ones while the first edit runs past the
+             * part whose edits are kept, or while most of the windows is
+             * edits, as when they are inside a change too large for them,
+             * whose lines may match by chance */
+            int aEnd;
+            int bEnd;
+            Lines[] split;
+            List<int[]> found;
+            int keep;
+            for (int size = whole ? window : Math.min(window, FIRST_WINDOW); ;
+                 size = Math.min(window, 4 * size)) {
+                aEnd = skipLines(a, aPos, size);
+                bEnd = skipLines(b, bPos, size);
+                split = split(a.slice(aPos, aEnd - aPos), b.slice(bPos, bEnd - bPos));
+                found = diff(split[0], split[1]);
+                keep = found.size();
+                if (aEnd == a.limit() && bEnd == b.limit()) {
+                    break;
+                }
+                int aCut = split[0].size() / 4 * 3;
+                int bCut = split[1].size() / 4 * 3;
+                keep = 0;
+                while (keep < found.size() && found.get(keep)[1] <= aCut
+                        && found.get(keep)[3] <= bCut) {
+                    keep++;
+                }
+                int common = split[0].size();
+                for (int[] e : found) {
+                    common -= e[1] - e[0];
+                }
+                if (size == window) {
+                    /* The first lines of the windows differ, so the first
+                     * edit starts at them and can always be kept */
+                    keep = Math.max(keep, 1);
+                    break;
+                }
+                if (keep > 0 && 2 * common >= Math.max(split[0].size(), split[1].size())) {
+                    break;
+                }
+            }
+            for (int[] e : found.subList(0, keep)) {
+                edits.edit(new int[] {aLine + e[0], aLine + e[1], bLine + e[2], bLine + e[3],
+                    aPos + split[0].start(e[0]), aPos + split[0].start(e[1]),
+                    bPos + split[1].start(e[2]), bPos + split[1].start(e[3])});
+            }
+            if (keep == found.size() && aEnd == a.limit() && bEnd == b.limit()) {
+                return;
+            }
+            int[] last = found.get(keep - 1);
+            aLine += last[1];
+            bLine += last[3];
+            aPos += split[0].start(last[1]);
+            bPos += split[1].start(last[3]);
+        }
+    }
+
+    /** Returns the offset in CONTENTS after the next COUNT lines from
+     *  offset START, or its end if fewer follow. */
+    private static int skipLines(ByteBuffer contents, int start, int count) {
+        int limit = contents.limit();
+        int at = start;
+        for (int n = 0; n < count && at < limit; ) {
+            if (contents.get(at++) == '\n') {
+                n++;
+            }
+        }
+        return at;
+    }
+
+    /** Finds the edits between lines ALO to AHI - 1 of A and BLO to
+     *  BHI - 1 of B, first matching the lines that occur once in each. */
+    private void anchored(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo++;
+            bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi--;
+            bHi--;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            myers(aLo, aHi, bLo, bHi);
+            return;
+        }
+
+        byte[] inA = new byte[numbers];
+        byte[] inB = new byte[numbers];
+        int[] where = new int[numbers];
+        for (int i = aLo; i < aHi; i++) {
+            inA[a[i]] = (byte) Math.min(2, inA[a[i]] + 1);
+            where[a[i]] = i;
+        }
+        for (int j = bLo; j < bHi; j++) {
+            inB[b[j]] = (byte) Math.min(2, inB[b[j]] + 1);
+        }
+        int count = 0;
+        int[] unique = new int[bHi - bLo];
+        for (int j = bLo; j < bHi; j++) {
+            if (inA[b[j]] == 1 && inB[b[j]] == 1) {
+                unique[count++] = j;
+            }
+        }
+
+        /* The longest run of unique lines in the same order in both, by
+         * patience sorting: tails[l] ends the best run of length l + 1. */
+        int[] tails = new int[count];
+        int[] previous = new int[count];
+        int length = 0;
+        for (int u = 0; u < count; u++) {
+            int i = where[b[unique[u]]];
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (where[b[unique[tails[mid]]]] < i) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[u] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = u;
+            if (lo == length) {
+                length++;
+            }
+        }
+        int[] anchors = new int[length];
+        for (int u = length > 0 ? tails[length - 1] : -1, k = length - 1; u >= 0;
+             u = previous[u], k--) {
+            anchors[k] = unique[u];
+        }
+
+        int i = aLo;
+        int j = bLo;
+        for (int anchor : anchors) {
+            int ai = where[b[anchor]];
+            myers(i, ai, j, anchor);
+            i = ai + 1;
+            j = anchor + 1;
+        }
+        myers(i, aHi, j, bHi);
+    }
+
+    /** Finds the edits between lines ALO to AHI - 1 of A and BLO to
+     *  BHI - 1 of B by splitting them at the middle of an edit script and
+     *  finding the edits on either side. */
+    private void myers(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo++;
+            bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi--;
+            bHi--;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            if (aLo < aHi || bLo < bHi) {
+                edit(aLo, aHi, bLo, bHi);
+            }
+            return;
+        }
+        int[] split = bisect(aLo, aHi, bLo, bHi);
+        if (split == null) {
+            edit(aLo, aHi, bLo, bHi);
+            return;
+        }
+        myers(aLo, split[0], bLo, split[1]);
+        myers(split[0], aHi, split[1], bHi);
+    }
+
+    /** Returns the point {i, j} at which a shortest edit script between
+     *  lines ALO to AHI - 1 of A and BLO to BHI - 1 of B, neither empty,
+     *  crosses its middle, searching from both ends at once.  If the
+     *  search reaches its cost limit first, returns the furthest point the
+     *  forward search reached, or null if it reached none. */
+    private int[] bisect(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD + 1;
+        int length = 2 * maxD + 3;
+        int[] forward = new int[length];
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int k1start = 0;
+        int k1end = 0;
+        int k2start = 0;
+        int k2end = 0;
+        int limit = Math.min(maxD, Math.max(MIN_COST, (int) Math.sqrt((double) n + m)));
+        for (int d = 0; d < limit; d++) {
+            for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+                int at = offset + k1;
+                int x1 = k1 == -d || k1 != d && forward[at - 1] < forward[at + 1]
+                        ? forward[at + 1] : forward[at - 1] + 1;
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a[aLo + x1] == b[bLo + y1]) {
+                    x1++;
+                    y1++;
+                }
+                forward[at] = x1;
+                if (x1 > n) {
+                    k1end += 2;
+                } else if (y1 > m) {
+                    k1start += 2;
+                } else if (odd) {
+                    int other = offset + delta - k1;
+                    if (other >= 0 && other < length && backward[other] != -1
+                            && x1 >= n - backward[other]) {
+                        return new int[] {aLo + x1, bLo + y1};
+                    }
+                }
+            }
+            for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+                int at = offset + k2;
+                int x2 = k2 == -d || k2 != d && backward[at - 1] < backward[at + 1]
+                        ? backward[at + 1] : backward[at - 1] + 1;
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m && a[aHi - x2 - 1] == b[bHi - y2 - 1]) {
+                    x2++;
+                    y2++;
+                }
+                backward[at] = x2;
+                if (x2 > n) {
+                    k2end += 2;
+                } else if (y2 > m) {
+                    k2start += 2;
+                } else if (!odd) {
+                    int other = offset + delta - k2;
+                    if (other >= 0 && other < length && forward[other] != -1) {
+                        int x1 = forward[other];
+                        int y1 = x1 - (other - offset);
+                        if (x1 >= n - x2) {
+                            return new int[] {aLo + x1, bLo + y1};
+                        }
+                    }
+                }
+            }
+        }
+
+        int bestX = 0;
+        int bestY = 0;
+        for (int k = -limit; k <= limit; k++) {
+            int x = forward[offset + k];
+            int y = x - k;
+            if (x >= 0 && x <= n && y >= 0 && y <= m && x + y > bestX + bestY) {
+                bestX = x;
+                bestY = y;
+            }
+        }
+        if (bestX + bestY == 0 || bestX + bestY == n + m) {
+            return null;
+        }
+        return new int[] {aLo + bestX, bLo + bestY};
+    }
+
+    /** Records that lines ALO to AHI - 1 of A are replaced with lines BLO
+     *  to BHI - 1 of B, joining the edit to the last if they touch. */
+    private void edit(int aLo, int aHi, int bLo, int bHi) {
+        int[] last = edits.isEmpty() ? null : edits.get(edits.size() - 1);
+        if (last != null && last[1] == aLo && last[3] == bLo) {
+            last[1] = aHi;
+            last[3] = bHi;
+        } else {
+            edits.add(new int[] {aLo, aHi, bLo, bHi});
+        }
+    }
+}
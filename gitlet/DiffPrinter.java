@@ -0,0 +1,529 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+
+import static gitlet.Directory.*;
+import static gitlet.Utils.*;
+
+/** The diff command, which prints the changes to the tracked files
+ *  between two versions of them as a unified diff:
+ *
+ *      diff                     from the stage to the working directory
+ *      diff --cached [COMMIT]   from COMMIT, or HEAD, to the stage
+ *      diff COMMIT              from COMMIT to the working directory
+ *      diff COMMIT COMMIT       from the first commit to the second
+ *
+ *  where a COMMIT is a branch name or a (possibly abbreviated) commit UID,
+ *  and -U N, or --unified=N, sets the lines of context (3 by default).
+ *
+ *  The two versions are compared by blob UID first, skipping subtrees
+ *  with equal UIDs between commits and files whose stat data matches the
+ *  Index in the working directory, so only the files that changed are
+ *  read.  Those are diffed in parallel, CHUNK at a time, while the chunk
+ *  before is being written, each into a Spool that moves to a temporary
+ *  file once it grows past its share of memory, and printed in path
+ *  order.
+ *
+ *  Memory is bounded by -Dgitlet.diffMemory megabytes, a quarter of the
+ *  heap by default, whatever the sizes of the files: half is shared by
+ *  the diffs running at once, which compare windows of as many lines as
+ *  their share allows (see Diff), and half by the spools waiting to be
+ *  printed.  Versions are mapped from the object store and the working
+ *  directory rather than read. */
+class DiffPrinter {
+    /** Bytes of memory the command may use. */
+    private static final long MEMORY = Long.getLong("gitlet.diffMemory",
+            Runtime.getRuntime().maxMemory() / 4 >> 20) << 20;
+
+    /** Bytes a windowed diff needs for each line of its windows, with
+     *  room to spare. */
+    private static final int BYTES_PER_LINE = 96;
+
+    /** Number of files diffed by one task. */
+    private static final int CHUNK = 256;
+
+    /** Default number of lines of context around a change. */
+    private static final int CONTEXT = 3;
+
+    /** Size of the buffer through which lines are copied out. */
+    private static final int COPY_BUFFER_SIZE = 1 << 16;
+
+    /** Most edits gathered into one hunk. */
+    private static final int HUNK_EDITS = 1024;
+
+    /** Name that stands for a missing version in the headers. */
+    private static final String NO_FILE = "/dev/null";
+
+    /** A file that differs between the two versions, with its blob in
+     *  each, null if missing, or the working file that is its new one.  A
+     *  renamed file has the path it had in the old version, and the
+     *  similarity of the two in percent. */
+    private static class Change {
+        final String path;
+        final String oldPath;
+        final String oldBlob;
+        final String newBlob;
+        final File newFile;
+        final int similarity;
+
+        Change(String path, String oldBlob, String newBlob, File newFile) {
+            this(path, path, oldBlob, newBlob, newFile, 0);
+        }
+
+        Change(String path, String oldPath, String oldBlob, String newBlob, File newFile,
+               int similarity) {
+            this.path = path;
+            this.oldPath = oldPath;
+            this.oldBlob = oldBlob;
+            this.newBlob = newBlob;
+            this.newFile = newFile;
+            this.similarity = similarity;
+        }
+    }
+
+    private int context = CONTEXT;
+
+    /** Runs diff with options and commits ARGS[1..]. */
+    static void run(String[] args) throws IOException {
+        DiffPrinter printer = new DiffPrinter();
+        boolean cached = false;
+        List<String> commits = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--cached")) {
+                cached = true;
+            } else if (arg.equals("-U") && i + 1 < args.length) {
+                printer.context = count(args[++i]);
+            } else if (arg.startsWith("-U") && arg.length() > 2) {
+                printer.context = count(arg.substring(2));
+            } else if (arg.startsWith("--unified=")) {
+                printer.context = count(arg.substring("--unified=".length()));
+            } else if (arg.startsWith("-")) {
+                throw new GitletException("Incorrect operands");
+            } else {
+                commits.add(arg);
+            }
+        }
+        if (commits.size() > 2 || cached && commits.size() > 1) {
+            throw new GitletException("Incorrect operands");
+        }
+
+        long start = System.nanoTime();
+        List<Change> changes;
+        if (commits.size() == 2) {
+            changes = changes(resolve(commits.get(0)), resolve(commits.get(1)));
+        } else {
+            Commit head = Commit.fromFile(Helper.readHeadCommitUID());
+            Map<String, String> stage = stage(head);
+            if (cached) {
+                Commit from = commits.isEmpty() ? head : resolve(commits.get(0));
+                changes = changes(from.getBlobs(), stage, false);
+            } else if (commits.isEmpty()) {
+                changes = workingChanges(stage, stage.keySet());
+            } else {
+                changes = workingChanges(resolve(commits.get(0)).getBlobs(), stage.keySet());
+            }
+        }
+        changes = renames(changes);
+        long compared = System.nanoTime() - start;
+        printer.print(changes);
+        Helper.timing("diff: %d files changed, compare %.3f ms, diff %.3f ms", changes.size(),
+                compared / 1e6, (System.nanoTime() - start - compared) / 1e6);
+    }
+
+    private static int count(String value) {
+        try {
+            int n = Integer.parseInt(value);
+            if (n >= 0) {
+                return n;
+            }
+        } catch (NumberFormatException excp) {
+            // Reported below
+        }
+        throw new GitletException("Incorrect operands");
+    }
+
+    /** Returns the commit that NAME, a branch or a commit UID, names. */
+    private static Commit resolve(String name) {
+        String id = Helper.getBranchID(name);
+        if (id == null) {
+            id = Helper.getFullID(name);
+            if (!COMMITS.contains(id)) {
+                Validate.noCommitIDExists();
+            }
+        }
+        return Commit.fromFile(id);
+    }
+
+    /** Returns the files of commit HEAD with the stage applied to them. */
+    private static Map<String, String> stage(Commit head) {
+        Map<String, String> files = new HashMap<>(head.getBlobs());
+        files.keySet().removeAll(Codec.readMap(STAGE_REMOVE_FILE).keySet());
+        files.putAll(Codec.readMap(STAGE_ADD_FILE));
+        return files;
+    }
+
+    /** Returns the changes from commit FROM to commit TO. */
+    private static List<Change> changes(Commit from, Commit to) {
+        List<Change> changes = new ArrayList<>();
+        for (Map.Entry<String, String[]> e : Tree.diff(from.getTree(), to.getTree()).entrySet()) {
+            changes.add(new Change(e.getKey(), e.getValue()[0], e.getValue()[1], null));
+        }
+        return changes;
+    }
+
+    /** Returns the changes from the files FROM to the files TO, each
+     *  mapped to its blob.  If WORKING, the new versions are the files in
+     *  the working directory, which have the blobs in TO. */
+    private static List<Change> changes(Map<String, String> from, Map<String, String> to,
+                                        boolean working) {
+        SortedSet<String> paths = new TreeSet<>(from.keySet());
+        paths.addAll(to.keySet());
+        List<Change> changes = new ArrayList<>();
+        for (String path : paths) {
+            String oldBlob = from.get(path);
+            String newBlob = to.get(path);
+            if (!Objects.equals(oldBlob, newBlob)) {
+                File file = working && newBlob != null ? join(CWD, path) : null;
+                changes.add(new Change(path, oldBlob, newBlob, file));
+            }
+        }
+        return changes;
+    }
+
+    /** Returns the changes from the files FROM, each mapped to its blob,
+     *  to the working directory.  Only the files in FROM or STAGED are
+     *  compared; the others are untracked. */
+    private static List<Change> workingChanges(Map<String, String> from, Set<String> staged) {
+        Set<String> tracked = new HashSet<>(from.keySet());
+        tracked.addAll(staged);
+        Index index = Index.read();
+        SortedMap<String, String> files = WorkTree.scan(index, tracked);
+        index.write();
+        Map<String, String> to = new HashMap<>();
+        for (String path : tracked) {
+            if (files.get(path) != null) {
+                to.put(path, files.get(path));
+            }
+        }
+        return changes(from, to, true);
+    }
+
+    /** Returns CHANGES with the files that were removed and added under
+     *  another path taken for renames (see Renames), in path order. */
+    private static List<Change> renames(List<Change> changes) {
+        Map<String, Change> gone = new HashMap<>();
+        Map<String, Change> added = new HashMap<>();
+        Map<String, File> files = new HashMap<>();
+        for (Change change : changes) {
+            if (change.newBlob == null) {
+                gone.put(change.path, change);
+            } else if (change.oldBlob == null) {
+                added.put(change.path, change);
+                if (change.newFile != null) {
+                    files.put(change.newBlob, change.newFile);
+                }
+            }
+        }
+        List<Renames.Rename> renames = Renames.find(blobs(gone), blobs(added),
+                blob -> files.containsKey(blob) ? map(files.get(blob)) : contents(blob));
+        if (renames.isEmpty()) {
+            return changes;
+        }
+        SortedMap<String, Change> result = new TreeMap<>();
+        for (Change change : changes) {
+            result.put(change.path, change);
+        }
+        for (Renames.Rename rename : renames) {
+            Change from = result.remove(rename.from);
+            Change to = added.get(rename.to);
+            result.put(rename.to, new Change(rename.to, rename.from, from.oldBlob, to.newBlob,
+                    to.newFile, rename.similarity));
+        }
+        return new ArrayList<>(result.values());
+    }
+
+    /** Returns the blob of each of CHANGES, new or old, by path. */
+    private static Map<String, String> blobs(Map<String, Change> changes) {
+        Map<String, String> blobs = new HashMap<>();
+        for (Change change : changes.values()) {
+            blobs.put(change.path, change.newBlob != null ? change.newBlob : change.oldBlob);
+        }
+        return blobs;
+    }
+
+    /* PRINTING */
+
+    /** Prints the diffs of CHANGES in order. */
+    private void print(List<Change> changes) throws IOException {
+        OutputStream out = new BufferedOutputStream(System.out, COPY_BUFFER_SIZE);
+        ForkJoinTask<List<Spool>> next = render(changes, 0);
+        for (int start = 0; start < changes.size(); start += CHUNK) {
+            List<Spool> spools = next.join();
+            next = render(changes, start + CHUNK);
+            for (Spool spool : spools) {
+                spool.drainTo(out);
+            }
+        }
+        out.flush();
+    }
+
+    /** Starts diffing the chunk of CHANGES that begins at START. */
+    private ForkJoinTask<List<Spool>> render(List<Change> changes, int start) {
+        List<Change> chunk = changes.subList(Math.min(start, changes.size()),
+                Math.min(start + CHUNK, changes.size()));
+        int window = (int) Math.min(Integer.MAX_VALUE, MEMORY / 2
+                / Math.max(1, Math.min(WorkTree.THREADS, chunk.size())) / BYTES_PER_LINE);
+        int spoolSize = (int) Math.min(Integer.MAX_VALUE, MEMORY / 2 / (2 * CHUNK));
+        return WorkTree.POOL.submit(() -> chunk.parallelStream()
+                .map(change -> render(change, Math.max(1, window), spoolSize))
+                .collect(Collectors.toList()));
+    }
+
+    /** Returns the diff of CHANGE, comparing WINDOW lines at a time and
+     *  keeping up to SPOOLSIZE bytes of it in memory. */
+    private Spool render(Change change, int window, int spoolSize) {
+        Spool spool = new Spool(spoolSize);
+        try (OutputStream out = new BufferedOutputStream(spool, COPY_BUFFER_SIZE)) {
+            ByteBuffer a = contents(change.oldBlob);
+            ByteBuffer b = change.newFile != null ? map(change.newFile) : contents(change.newBlob);
+            String oldName = change.oldBlob == null ? NO_FILE : "a/" + change.oldPath;
+            String newName = change.newBlob == null ? NO_FILE : "b/" + change.path;
+            write(out, "diff --git a/" + change.oldPath + " b/" + change.path + "\n");
+            if (!change.oldPath.equals(change.path)) {
+                write(out, "similarity index " + change.similarity + "%\nrename from "
+                        + change.oldPath + "\nrename to " + change.path + "\n");
+                if (change.oldBlob.equals(change.newBlob)) {
+                    return spool;
+                }
+            }
+            if (Merge.isBinary(a) || Merge.isBinary(b)) {
+                write(out, "Binary files " + oldName + " and " + newName + " differ\n");
+                return spool;
+            }
+            write(out, "--- " + oldName + "\n+++ " + newName + "\n");
+            Hunks hunks = new Hunks(a, b, context, out);
+            Diff.diff(a, b, window, hunks);
+            hunks.flush();
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+        return spool;
+    }
+
+    /** Returns the contents of blob VERSION, which may be only in the
+     *  stage, or nothing if VERSION is null. */
+    static ByteBuffer contents(String version) {
+        if (version == null) {
+            return ByteBuffer.allocate(0);
+        }
+        return BLOBS.contains(version) ? BLOBS.map(version) : map(join(STAGE_DIR, version));
+    }
+
+    /** Returns the contents of FILE, or nothing if it cannot be read. */
+    private static ByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            return ByteBuffer.allocate(0);
+        }
+    }
+
+    private static void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Writes the hunks of a unified diff of A and B, gathering the edits
+     *  given it until the next is too far from the last to share context
+     *  with it, or until a hunk has HUNK_EDITS of them.  Then the hunk is
+     *  ended early, and the lines between it and the next are split
+     *  between their contexts. */
+    private static class Hunks implements Diff.Edits {
+        private final ByteBuffer a;
+        private final ByteBuffer b;
+        private final int context;
+        private final OutputStream out;
+        private final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+
+        /** The edits of the hunk being gathered. */
+        private final List<int[]> edits = new ArrayList<>();
+
+        /** Offset in A of the end of the last hunk written. */
+        private int done;
+
+        Hunks(ByteBuffer a, ByteBuffer b, int context, OutputStream out) {
+            this.a = a;
+            this.b = b;
+            this.context = context;
+            this.out = out;
+        }
+
+        @Override
+        public void edit(int[] edit) throws IOException {
+            if (!edits.isEmpty() && (edit[0] - edits.get(edits.size() - 1)[1] > 2 * context
+                    || edits.size() == HUNK_EDITS)) {
+                flush(edit);
+            }
+            edits.add(edit);
+        }
+
+        /** Writes the hunk gathered so far, if any, given no more edits. */
+        void flush() throws IOException {
+            flush(null);
+        }
+
+        /** Writes the hunk gathered so far, if any, whose context stops
+         *  short of the edit NEXT, if it is not null. */
+        private void flush(int[] next) throws IOException {
+            if (edits.isEmpty()) {
+                return;
+            }
+            int[] first = edits.get(0);
+            int[] last = edits.get(edits.size() - 1);
+            int from = first[4];
+            int before = 0;
+            while (before < context && from > done) {
+                from = lineBefore(a, from);
+                before++;
+            }
+            int to = last[5];
+            int after = 0;
+            int end = next == null ? a.limit() : next[4];
+            int most = next == null ? context : Math.min(context, (next[0] - last[1]) / 2);
+            while (after < most && to < end) {
+                to = lineAfter(a, to);
+                after++;
+            }
+            int aStart = first[0] - before;
+            int aCount = last[1] + after - aStart;
+            int bStart = first[2] - before;
+            int bCount = last[3] + after - bStart;
+            write(out, "@@ -" + range(aStart, aCount) + " +" + range(bStart, bCount) + " @@\n");
+
+            lines(a, from, first[4], ' ');
+            for (int i = 0; i < edits.size(); i++) {
+                int[] edit = edits.get(i);
+                if (i > 0) {
+                    lines(a, edits.get(i - 1)[5], edit[4], ' ');
+                }
+                lines(a, edit[4], edit[5], '-');
+                lines(b, edit[6], edit[7], '+');
+            }
+            lines(a, last[5], to, ' ');
+            edits.clear();
+            done = to;
+        }
+
+        /** Returns the range of lines from START, counting from 0, that
+         *  are COUNT long, as a unified diff numbers them. */
+        private static String range(int start, int count) {
+            if (count == 1) {
+                return Integer.toString(start + 1);
+            }
+            return (count == 0 ? start : start + 1) + "," + count;
+        }
+
+        /** Writes the lines of CONTENTS in bytes FROM to TO - 1, each
+         *  after PREFIX. */
+        private void lines(ByteBuffer contents, int from, int to, char prefix) throws IOException {
+            for (int start = from; start < to; ) {
+                int end = lineAfter(contents, start);
+                out.write(prefix);
+                for (int at = start; at < end; at += buffer.length) {
+                    int length = Math.min(buffer.length, end - at);
+                    contents.get(at, buffer, 0, length);
+                    out.write(buffer, 0, length);
+                }
+                if (contents.get(end - 1) != '\n') {
+                    write(out, "\n\\ No newline at end of file\n");
+                }
+                start = end;
+            }
+        }
+
+        /** Returns the offset in CONTENTS of the line after the one that
+         *  starts at START. */
+        private static int lineAfter(ByteBuffer contents, int start) {
+            int limit = contents.limit();
+            int at = start;
+            while (at < limit) {
+                if (contents.get(at++) == '\n') {
+                    break;
+                }
+            }
+            return at;
+        }
+
+        /** Returns the offset in CONTENTS of the line before the one that
+         *  starts at START, which is not 0. */
+        private static int lineBefore(ByteBuffer contents, int start) {
+            int at = start - 1;
+            while (at > 0 && contents.get(at - 1) != '\n') {
+                at--;
+            }
+            return at;
+        }
+    }
+
+    /** Output kept in memory up to a size, and in a temporary file in
+     *  the repository after that. */
+    private static class Spool extends OutputStream {
+        private final int size;
+        private final ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private File file;
+        private OutputStream spill;
+
+        Spool(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (spill == null && memory.size() + len > size) {
+                file = File.createTempFile("diff", ".tmp", GITLET_DIR);
+                spill = new BufferedOutputStream(Files.newOutputStream(file.toPath()),
+                        COPY_BUFFER_SIZE);
+            }
+            if (spill != null) {
+                spill.write(b, off, len);
+            } else {
+                memory.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (spill != null) {
+                spill.close();
+            }
+        }
+
+        /** Writes everything written to this spool to OUT, and deletes
+         *  its temporary file. */
+        void drainTo(OutputStream out) throws IOException {
+            memory.writeTo(out);
+            if (file != null) {
+                Files.copy(file.toPath(), out);
+                file.delete();
+            }
+        }
+    }
+}
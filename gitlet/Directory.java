@@ -1,7 +1,7 @@
 package gitlet;
 
 import java.io.File;
-import java.io.Serializable;
+import java.io.IOException;
 import java.util.*;
 
 import static gitlet.Utils.*;
@@ -18,15 +18,24 @@ public class Directory {
     protected static final File REFS_DIR = join(GITLET_DIR, "refs");
     protected static final File BRANCHES_DIR = join(GITLET_DIR, "branches");
 
+    /** File that the packed branches are in */
+    protected static File PACKED_REFS_FILE = join(GITLET_DIR, "packed-refs");
+
     /** Folder that commit objects live in. */
     public static final File COMMIT_DIR = join(GITLET_DIR, "commits");
 
+    /** Folder that tree objects live in. */
+    protected static final File TREES_DIR = join(GITLET_DIR, "trees");
+
+    /** Object stores that resolve blobs, commits and trees, loose or packed. */
+    protected static final ObjectStore BLOBS = new ObjectStore(BLOBS_DIR);
+    protected static final ObjectStore COMMITS = new ObjectStore(COMMIT_DIR, 4096);
+    protected static final ObjectStore TREES = new ObjectStore(TREES_DIR, 16384);
+
     /** HashMap to keep track of the files in the Staging Area */
     protected static Map<String, String> stageAdd = new HashMap<>();
     protected static Map<String, String> stageRmv = new HashMap<>();
 
-    protected static Graph<String> graph = new Graph<>();
-
     /** File that HEAD pointer contains */
     protected static File HEAD = join(GITLET_DIR, "HEAD");
 
@@ -34,8 +43,46 @@ public class Directory {
     protected static File STAGE_ADD_FILE = join(REFS_DIR, "Map_Stage_Add");
     protected static File STAGE_REMOVE_FILE = join(REFS_DIR, "Map_Stage_Remove");
 
+    /** File that the stat cache of the working directory contains */
+    protected static File INDEX_FILE = join(GITLET_DIR, "index");
+
+    /** File that the on-disk layout version of this repository contains,
+     *  and the version this code writes.  Version 1 shards loose objects;
+     *  version 2 stores HEAD and the stage maps in the Codec format;
+     *  version 3 adds the tree store; version 4 makes HEAD name the
+     *  current branch instead of holding a copy of it. */
+    protected static File VERSION_FILE = join(GITLET_DIR, "version");
+    protected static final int LAYOUT_VERSION = 4;
+
     /** File that the graph of commitsIDs contain */
-    protected static File GRAPH_FILE = join(REFS_DIR, "Graph");
+    protected static File COMMIT_GRAPH_FILE = join(GITLET_DIR, "commit-graph");
+
+    /** File that the sorted index of commitIDs contains */
+    protected static File COMMIT_INDEX_FILE = join(GITLET_DIR, "commit-index");
+
+    /** File that writers lock so that one command changes the repository at a time */
+    protected static File LOCK_FILE = join(GITLET_DIR, "lock");
+
+    /** File that the state readers see is published in */
+    protected static File SNAPSHOT_FILE = join(GITLET_DIR, "snapshot");
+
+    /** File that the write-ahead journal of ref changes is in */
+    protected static File JOURNAL_FILE = join(GITLET_DIR, "journal");
+
+    /** File that the files the last merge left conflicted are listed in */
+    protected static File CONFLICTS_FILE = join(GITLET_DIR, "conflicts");
+
+    /** File that the similarity sketches of blobs are cached in */
+    protected static File SKETCHES_FILE = join(GITLET_DIR, "sketches");
+
+    /** File that an unfinished garbage collection is saved in */
+    protected static File GC_STATE_FILE = join(GITLET_DIR, "gc-state");
+
+    /** File that the log of commit messages is in */
+    protected static File MESSAGES_FILE = join(GITLET_DIR, "messages");
+
+    /** Directory that the segments of the message index are in */
+    protected static File MESSAGE_INDEX_DIR = join(GITLET_DIR, "message-index");
 
     public static void initDirectory() {
 
@@ -50,22 +97,76 @@ public class Directory {
 
         // Creates commit subdirectory called OBJECT
         COMMIT_DIR.mkdir();
+        TREES_DIR.mkdir();
 
         // Creates a file for the HEAD pointer
         createNewFile(HEAD);
 
         // Creates new file that contains the Map of StageAdd
         createNewFile(STAGE_ADD_FILE);
-        writeObject(STAGE_ADD_FILE, (Serializable) stageAdd);
+        Codec.writeMap(STAGE_ADD_FILE, stageAdd);
 
         // Creates new file that contains the Map of StageRemove
         createNewFile(STAGE_REMOVE_FILE);
-        writeObject(STAGE_REMOVE_FILE, (Serializable) stageRmv);
+        Codec.writeMap(STAGE_REMOVE_FILE, stageRmv);
 
-        // Creates new file that contains the graph
-        createNewFile(GRAPH_FILE);
-        writeObject(GRAPH_FILE, (Serializable) graph);
+        // Records the layout version of the new repository
+        writeContents(VERSION_FILE, Integer.toString(LAYOUT_VERSION));
+    }
+
+    /** Returns the layout version of the repository. */
+    private static int layoutVersion() {
+        if (!VERSION_FILE.exists()) {
+            return 0;
+        }
+        return Integer.parseInt(readContentsAsString(VERSION_FILE).trim());
+    }
+
+    /** Returns true iff the repository has an older layout than this
+     *  version of Gitlet writes. */
+    public static boolean needsUpgrade() {
+        return layoutVersion() < LAYOUT_VERSION;
+    }
 
+    /** Migrates a repository written with an older layout version to the
+     *  current one, in place. */
+    public static void upgrade() throws IOException {
+        int version = layoutVersion();
+        if (version >= LAYOUT_VERSION) {
+            return;
+        }
+
+        // Version 1: move loose objects into hash-prefix subdirectories
+        if (version < 1) {
+            BLOBS.shard();
+            COMMITS.shard();
+        }
+
+        // Version 2: re-encode HEAD and the stage maps.  Existing commits
+        // keep their serialized form, since their UIDs are hashes of it.
+        if (version < 2) {
+            if (HEAD.length() > 0 && Codec.isLegacy(HEAD)) {
+                Codec.writeBranch(HEAD, Codec.readBranch(HEAD));
+            }
+            for (File file : new File[] {STAGE_ADD_FILE, STAGE_REMOVE_FILE}) {
+                if (Codec.isLegacy(file)) {
+                    Codec.writeMap(file, Codec.readMap(file));
+                }
+            }
+        }
+
+        // Version 3: commits made from now on store their files as trees
+        if (version < 3) {
+            TREES_DIR.mkdir();
+        }
+
+        // Version 4: HEAD names the current branch, whose file is the only
+        // copy of its commit UID
+        if (version < 4) {
+            Refs.setHead(Codec.readBranch(HEAD).getName());
+        }
+
+        writeContents(VERSION_FILE, Integer.toString(LAYOUT_VERSION));
     }
 
 }
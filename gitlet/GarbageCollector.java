@@ -0,0 +1,273 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static gitlet.Directory.*;
+import static gitlet.Utils.*;
+
+/** The gc command, which deletes the loose objects that no branch and no
+ *  staged file can reach, and the files a crash or an abandoned add left
+ *  in the stage.
+ *
+ *  Collection marks every commit reachable from a branch, walking parents
+ *  through the commit graph, then every tree and blob those commits
+ *  reach, skipping trees already marked, so each shared subtree is read
+ *  once.  It then sweeps the loose objects shard by shard.  Nothing
+ *  modified within the grace period is deleted, which protects a reader
+ *  still working from an older snapshot.
+ *
+ *  Given a time budget, gc stops when the budget is spent, saves how far
+ *  it got in GC_STATE_FILE and carries on from there the next time, so it
+ *  holds the writer lock only briefly.  Branches may move between runs,
+ *  so each run first marks from the refs and the stage again, which
+ *  stops at the commits already marked; the sweep continues only once
+ *  that marking is complete.  Packed objects are not collected, and the
+ *  cached sketches of collected blobs are dropped. */
+class GarbageCollector {
+    /** Magic number ("GGCS") and format version of the saved state. */
+    private static final int MAGIC = 0x47474353;
+    private static final int VERSION = 1;
+
+    /** Kinds of work in the mark queue. */
+    private static final byte COMMIT = 'c';
+    private static final byte TREE = 't';
+
+    /** Number of steps between checks of the clock. */
+    private static final int CHECK_EVERY = 256;
+
+    /** The stores in the order they are swept. */
+    private static final ObjectStore[] STORES = {COMMITS, TREES, BLOBS};
+
+    /** The UIDs of the objects marked reachable. */
+    private final Set<String> marked = new HashSet<>();
+
+    /** Commits and trees still to visit, each a kind and a UID. */
+    private final Deque<Object[]> queue = new ArrayDeque<>();
+
+    /** Position of the sweep: the index of the store being swept, and
+     *  the last of its shards that has been. */
+    private int store;
+    private String shard = "";
+
+    /** Objects, bytes and commits deleted so far in this collection. */
+    private long objects;
+    private long bytes;
+    private long commits;
+
+    /** Runs gc with options ARGS[1..]: --budget=MILLIS to stop after about
+     *  MILLIS milliseconds, and --grace=SECONDS to keep everything changed
+     *  in the last SECONDS seconds (one hour by default). */
+    static void run(String[] args) throws IOException {
+        long budget = 0;
+        long grace = 3600;
+        for (int i = 1; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            String value = option.length == 2 ? option[1]
+                    : i + 1 < args.length ? args[++i] : null;
+            long n = value == null ? -1 : parse(value);
+            if (n < 0 || !option[0].equals("--budget") && !option[0].equals("--grace")) {
+                throw new GitletException("Incorrect operands");
+            }
+            if (option[0].equals("--budget")) {
+                budget = n;
+            } else {
+                grace = n;
+            }
+        }
+        long start = System.nanoTime();
+        long deadline = budget == 0 ? Long.MAX_VALUE : start + budget * 1_000_000;
+        long before = System.currentTimeMillis() - grace * 1000;
+
+        GarbageCollector gc = load();
+        boolean done = gc.collect(deadline, before);
+        Helper.timing("gc: %d objects marked, %d removed, %.3f ms", gc.marked.size(),
+                gc.objects, (System.nanoTime() - start) / 1e6);
+        if (done) {
+            GC_STATE_FILE.delete();
+            if (gc.commits > 0) {
+                CommitGraph.rebuild();
+                MessageIndex.rebuild();
+            }
+            System.out.printf("Removed %d objects (%d bytes).%n", gc.objects, gc.bytes);
+        } else {
+            gc.save();
+            System.out.printf("Removed %d objects so far; run gc again to continue.%n",
+                    gc.objects);
+        }
+    }
+
+    private static long parse(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException excp) {
+            return -1;
+        }
+    }
+
+    /** Marks and sweeps until done, or until the time DEADLINE, deleting
+     *  only what was modified before the time BEFORE.  Returns true iff
+     *  the collection is complete. */
+    private boolean collect(long deadline, long before) {
+        for (String id : Refs.list().values()) {
+            queue.add(new Object[] {COMMIT, id});
+        }
+        marked.addAll(Codec.readMap(STAGE_ADD_FILE).values());
+        if (!mark(deadline)) {
+            return false;
+        }
+        for (; store < STORES.length; store++, shard = "") {
+            for (String name : STORES[store].shards()) {
+                if (name.compareTo(shard) <= 0) {
+                    continue;
+                }
+                long[] removed = STORES[store].sweep(name, id -> !marked.contains(id), before);
+                objects += removed[0];
+                bytes += removed[1];
+                if (STORES[store] == COMMITS) {
+                    commits += removed[0];
+                }
+                shard = name;
+                if (System.nanoTime() > deadline) {
+                    return false;
+                }
+            }
+        }
+        sweepStage(before);
+        Renames.retain(marked);
+        return true;
+    }
+
+    /** Visits the queue until it is empty, returning true, or until the
+     *  time DEADLINE, returning false. */
+    private boolean mark(long deadline) {
+        CommitGraph graph = CommitGraph.open();
+        for (int steps = 1; !queue.isEmpty(); steps++) {
+            if (steps % CHECK_EVERY == 0 && System.nanoTime() > deadline) {
+                return false;
+            }
+            Object[] work = queue.poll();
+            String id = (String) work[1];
+            if (id == null || !marked.add(id)) {
+                continue;
+            }
+            if ((byte) work[0] == TREE) {
+                for (Tree.Entry entry : Tree.read(id).entries().values()) {
+                    if (entry.isTree) {
+                        queue.add(new Object[] {TREE, entry.hash});
+                    } else {
+                        marked.add(entry.hash);
+                    }
+                }
+                continue;
+            }
+            Commit commit = Commit.fromFile(id);
+            if (commit.storedTree() != null) {
+                queue.add(new Object[] {TREE, commit.storedTree()});
+            } else {
+                marked.addAll(commit.getBlobs().values());
+            }
+            int pos = graph.position(id);
+            if (pos < 0) {
+                queue.add(new Object[] {COMMIT, commit.getFirstParent()});
+                queue.add(new Object[] {COMMIT, commit.getSecondParent()});
+                continue;
+            }
+            for (int which = 0; which < 2; which++) {
+                int parent = graph.parent(pos, which);
+                if (parent >= 0) {
+                    queue.add(new Object[] {COMMIT, graph.idAt(parent)});
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Deletes the files in the stage that no staged file refers to, and
+     *  the temporary files that crashed commands left in the repository,
+     *  if they were modified before the time BEFORE. */
+    private void sweepStage(long before) {
+        Set<String> staged = new HashSet<>(Codec.readMap(STAGE_ADD_FILE).values());
+        for (File dir : new File[] {STAGE_DIR, GITLET_DIR}) {
+            File[] files = dir.listFiles();
+            for (File file : files == null ? new File[0] : files) {
+                boolean orphan = dir == STAGE_DIR ? !staged.contains(file.getName())
+                        : file.getName().endsWith(".tmp");
+                if (file.isFile() && orphan && file.lastModified() < before) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /* SAVED STATE */
+
+    /** Returns the collection saved by an earlier run, or a new one. */
+    private static GarbageCollector load() {
+        GarbageCollector gc = new GarbageCollector();
+        if (!GC_STATE_FILE.isFile()) {
+            return gc;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(readContents(GC_STATE_FILE)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return new GarbageCollector();
+            }
+            gc.store = in.readInt();
+            gc.shard = in.readUTF();
+            gc.objects = in.readLong();
+            gc.bytes = in.readLong();
+            gc.commits = in.readLong();
+            byte[] hash = new byte[HashIndex.HASH_SIZE];
+            for (int n = in.readInt(); n > 0; n--) {
+                in.readFully(hash);
+                gc.marked.add(sha1Hex(hash));
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                byte kind = in.readByte();
+                in.readFully(hash);
+                gc.queue.add(new Object[] {kind, sha1Hex(hash)});
+            }
+            return gc;
+        } catch (IOException | IllegalArgumentException excp) {
+            return new GarbageCollector();
+        }
+    }
+
+    /** Saves this collection for the next run to continue. */
+    private void save() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(store);
+            out.writeUTF(shard);
+            out.writeLong(objects);
+            out.writeLong(this.bytes);
+            out.writeLong(commits);
+            out.writeInt(marked.size());
+            for (String id : marked) {
+                out.write(sha1Bytes(id));
+            }
+            List<Object[]> work = new ArrayList<>();
+            for (Object[] w : queue) {
+                if (w[1] != null) {
+                    work.add(w);
+                }
+            }
+            out.writeInt(work.size());
+            for (Object[] w : work) {
+                out.writeByte((byte) w[0]);
+                out.write(sha1Bytes((String) w[1]));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeAtomically(GC_STATE_FILE, bytes.toByteArray());
+    }
+}
@@ -0,0 +1,192 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/** A sorted, memory-mapped table from 20-byte SHA-1 UIDs to long values.
+ *  The file starts with a 256-entry fan-out table whose entry i counts the
+ *  UIDs whose first byte is at most i, followed by the sorted UIDs and then
+ *  their values, so a lookup is one fan-out read and a binary search over a
+ *  single bucket. */
+class HashIndex {
+    /** Magic number ("GIDX") and format version of an index file. */
+    private static final int MAGIC = 0x47494458;
+    private static final int VERSION = 1;
+
+    /** Number of bytes in a raw SHA-1 UID. */
+    static final int HASH_SIZE = UID_LENGTH / 2;
+
+    /** Offset of the fan-out table and of the first UID. */
+    private static final int FANOUT = 8;
+    private static final int HASHES = FANOUT + 256 * 4;
+
+    /** One UID and its value, as handed to write. */
+    static class Entry {
+        final byte[] hash;
+        final long value;
+
+        Entry(byte[] hash, long value) {
+            this.hash = hash;
+            this.value = value;
+        }
+
+        Entry(String id, long value) {
+            this(sha1Bytes(id), value);
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final int size;
+
+    private HashIndex(ByteBuffer buffer) {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw error("Corrupt index file.");
+        }
+        this.buffer = buffer;
+        this.size = buffer.getInt(FANOUT + 255 * 4);
+    }
+
+    /** Maps the index in FILE, or returns null if there is no such file. */
+    static HashIndex open(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new HashIndex(map);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes ENTRIES as a new index in FILE, replacing any existing one.
+     *  The file is written beside FILE and renamed into place, so readers
+     *  never map a half-written index. */
+    static void write(File file, List<Entry> entries) {
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort((a, b) -> Arrays.compareUnsigned(a.hash, b.hash));
+
+        int n = sorted.size();
+        ByteBuffer out = ByteBuffer.allocate(HASHES + n * (HASH_SIZE + 8));
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+
+        int[] fanout = new int[256];
+        for (Entry e : sorted) {
+            fanout[e.hash[0] & 0xff]++;
+        }
+        int total = 0;
+        for (int i = 0; i < 256; i++) {
+            total += fanout[i];
+            out.putInt(total);
+        }
+        for (Entry e : sorted) {
+            out.put(e.hash);
+        }
+        for (Entry e : sorted) {
+            out.putLong(e.value);
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        writeContents(temp, out.array());
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the number of UIDs in this index. */
+    int size() {
+        return size;
+    }
+
+    /** Returns the raw UID at position I. */
+    byte[] hashAt(int i) {
+        byte[] hash = new byte[HASH_SIZE];
+        buffer.get(HASHES + i * HASH_SIZE, hash);
+        return hash;
+    }
+
+    /** Returns the hexadecimal UID at position I. */
+    String idAt(int i) {
+        return sha1Hex(hashAt(i));
+    }
+
+    /** Returns the value stored with the UID at position I. */
+    long valueAt(int i) {
+        return buffer.getLong(HASHES + size * HASH_SIZE + i * 8);
+    }
+
+    /** Returns the first position at or after which HASH would sort. */
+    private int lowerBound(byte[] hash, int lo, int hi) {
+        byte[] probe = new byte[HASH_SIZE];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            buffer.get(HASHES + mid * HASH_SIZE, probe);
+            if (Arrays.compareUnsigned(probe, hash) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns the start of the fan-out bucket for first byte B. */
+    private int bucketStart(int b) {
+        return b == 0 ? 0 : buffer.getInt(FANOUT + (b - 1) * 4);
+    }
+
+    /** Returns the end of the fan-out bucket for first byte B. */
+    private int bucketEnd(int b) {
+        return buffer.getInt(FANOUT + b * 4);
+    }
+
+    /** Returns the position of HASH, or -1 if it is not in this index. */
+    int position(byte[] hash) {
+        int b = hash[0] & 0xff;
+        int end = bucketEnd(b);
+        int i = lowerBound(hash, bucketStart(b), end);
+        if (i < end && Arrays.equals(hashAt(i), hash)) {
+            return i;
+        }
+        return -1;
+    }
+
+    /** Returns the range [LO, HI) of positions whose UIDs start with the
+     *  hexadecimal PREFIX, as the array {LO, HI}. */
+    int[] prefixRange(String prefix) {
+        String low = prefix + "0".repeat(UID_LENGTH - prefix.length());
+        String high = prefix + "f".repeat(UID_LENGTH - prefix.length());
+        byte[] lowHash = sha1Bytes(low);
+        byte[] highHash = sha1Bytes(high);
+        int lo = lowerBound(lowHash, bucketStart(lowHash[0] & 0xff),
+                bucketEnd(lowHash[0] & 0xff));
+        int hi = lowerBound(highHash, lo, bucketEnd(highHash[0] & 0xff));
+        if (hi < size && Arrays.equals(hashAt(hi), highHash)) {
+            hi++;
+        }
+        return new int[] {lo, hi};
+    }
+
+    /** Returns the position of the full UID ID, or -1 if it is absent. */
+    int position(String id) {
+        return position(sha1Bytes(id));
+    }
+
+    /** Returns true iff the full UID ID is in this index. */
+    boolean contains(String id) {
+        return position(id) >= 0;
+    }
+}
@@ -2,17 +2,26 @@ package gitlet;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
-import java.nio.file.CopyOption;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 import static gitlet.Directory.*;
 import static gitlet.Utils.*;
 import static gitlet.Commit.*;
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 public class Helper {
+    /** True iff timing output was requested with -Dgitlet.timing or by
+     *  setting GITLET_TIMING in the environment. */
+    private static final boolean TIMING = Boolean.getBoolean("gitlet.timing")
+            || System.getenv("GITLET_TIMING") != null;
+
+    /** Largest file that is read into memory at once to stage it. */
+    private static final int STAGE_BUFFER_SIZE = 1 << 16;
+
     /** Check if a file has already been created. If it doesn't, it will create the File */
     public static void createNewFile(File file) {
         if (!(file.exists())) {
@@ -26,278 +35,352 @@ public class Helper {
         }
     }
 
-    /** Checks if a file is begin tracked by a given commit */
-    public static boolean isFileTracked(Commit commit, String filename) {
-        Set<String> keys = commit.blobs.keySet();
-        for (String key : keys) {
-            if (key.equals(filename)) {
-                return true;
+    /** Prints a message composed from MSG and ARGS to System.err when
+     *  timing output was requested. */
+    public static void timing(String msg, Object... args) {
+        if (TIMING) {
+            System.err.printf("timing: " + msg + "%n", args);
+        }
+    }
+
+    /** Returns FILENAME as a '/'-separated path relative to the working
+     *  directory, the form in which commits and the stage name files. */
+    public static String normalize(String filename) {
+        Path path = CWD.toPath().relativize(CWD.toPath().resolve(filename).normalize());
+        return path.toString().replace(File.separatorChar, '/');
+    }
+
+    /** Deletes the working file at PATH, then any directories above it
+     *  that are left empty. */
+    public static void deleteFile(String path) {
+        File file = join(CWD, path);
+        if (!file.isFile()) {
+            return;
+        }
+        file.delete();
+        for (File dir = file.getParentFile(); !dir.equals(CWD); dir = dir.getParentFile()) {
+            String[] rest = dir.list();
+            if (rest == null || rest.length > 0 || !dir.delete()) {
+                break;
             }
         }
-        return false;
+    }
+
+    /** Checks if a file is begin tracked by a given commit */
+    public static boolean isFileTracked(Commit commit, String filename) {
+        return commit.getBlob(filename) != null;
     }
 
     public static void checkoutHelper(String commitID, String filename) throws IOException {
+        filename = normalize(filename);
         String fullID = getFullID(commitID);
-        List<String> commitIDs = plainFilenamesIn(COMMIT_DIR);
 
-        // Checks if commit ID does not exist in the directory,
-        if (fullID == null || !commitIDs.contains(fullID)) {
+        // Checks if commit ID does not exist in the commit store
+        if (!COMMITS.contains(fullID)) {
             Validate.noCommitIDExists();
         }
 
         Commit commit = fromFile(fullID);
-        String version = (String) commit.blobs.get(filename);
+        String version = commit.getBlob(filename);
 
         if (version == null) {
             Validate.noFileExistsInCommit();
         }
         File target = join(CWD, filename);
-        File source = join(BLOBS_DIR, version);
-
-        if (restrictedDelete(target)) {
-            Files.copy(source.toPath(), target.toPath());
-        } else {
-            Validate.fileNotInCommit();
-        }
+        BLOBS.copyTo(version, target);
     }
 
-    /** Return the full commit ID */
+    /** Return the full commit ID of the abbreviated commit ID UID, or UID
+     *  itself if no commit matches it */
     public static String getFullID(String uid) {
-        List<String> list = plainFilenamesIn(COMMIT_DIR);
-        int size = uid.length();
+        List<String> matches = CommitGraph.open().resolve(uid);
+        if (matches.size() > 1) {
+            Validate.ambiguousCommitID();
+        }
+        return matches.isEmpty() ? uid : matches.get(0);
+    }
 
-        for (String elem : list) {
-            if (elem.substring(0, size).equals(uid)) {
-                return elem;
+    /** Hashes the raw bytes of SOURCE and, unless the stage or the blob
+     *  store already has that version, stages a copy of it in STAGE_DIR
+     *  under its SHA-1 UID.  Returns the UID.
+     *
+     *  A file small enough for one buffer is read once and written from
+     *  memory.  A larger one is hashed through a fixed-size buffer, so
+     *  memory use does not depend on its size, and then copied only if it
+     *  is new, with FileChannel.transferTo: an in-kernel copy, which newer
+     *  JDKs make with copy_file_range, cloning the file on filesystems
+     *  that can share blocks copy-on-write.  The working file is never
+     *  linked into the repository, since editing it in place would then
+     *  change the stored version too.  Should the file change while it is
+     *  copied, the copy is hashed again, and staged under its own UID. */
+    public static String stageFile(File source) throws IOException {
+        Index.Entry before = Index.stat(source);
+        if (before != null && before.size <= STAGE_BUFFER_SIZE) {
+            byte[] contents = readContents(source);
+            String version = sha1(contents);
+            if (!isStored(version)) {
+                File temp = File.createTempFile("add", ".tmp", STAGE_DIR);
+                writeContents(temp, contents);
+                promote(temp, version);
             }
+            return version;
         }
-        return uid;
-    }
 
-    public static void deleteStageFiles() {
-        for (File file : STAGE_DIR.listFiles()) {
-            if (file.isFile() && file.getParentFile().equals(STAGE_DIR)) {
-                file.delete();
+        String version = Index.hashFile(source);
+        if (isStored(version)) {
+            return version;
+        }
+        File temp = File.createTempFile("add", ".tmp", STAGE_DIR);
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+            long size = in.size();
+            for (long done = 0; done < size; ) {
+                done += in.transferTo(done, size - done, out);
             }
         }
+        Index.Entry after = Index.stat(source);
+        if (before == null || after == null || !before.matches(after)) {
+            version = Index.hashFile(temp);
+        }
+        promote(temp, version);
+        return version;
     }
 
-    /** If file is successfully overwritten, return true. */
-    public static boolean canOverwrite(Commit other) throws IOException {
-        // get all the blob on head
-        String headID = readHeadCommitUID();
-        Commit headCommit = fromFile(headID);
-
-        // get all blob on other
-        Set<String> otherKeys = other.blobs.keySet();
-        // get all files on cwd
-        List<String> filesCWD = plainFilenamesIn(CWD);
-
-        for (String key : otherKeys) {
-            boolean inHead = headCommit.blobs.containsKey(key);
-            boolean inOther = other.blobs.containsKey(key);
-            boolean inCWD = filesCWD.contains(key);
+    /** Returns true iff version VERSION is staged or in the blob store. */
+    private static boolean isStored(String version) {
+        return join(STAGE_DIR, version).exists() || BLOBS.contains(version);
+    }
 
-            if (inCWD && inOther && !inHead) {
-                return false;
-            }
+    /** Renames TEMP, a copy of version VERSION, to that version's file in
+     *  the stage, unless another add staged it meanwhile. */
+    private static void promote(File temp, String version) throws IOException {
+        if (isStored(version)) {
+            temp.delete();
+        } else {
+            Files.move(temp.toPath(), join(STAGE_DIR, version).toPath());
         }
+    }
 
-        /** Copy the contents of that version to the CWD */
-        for (String key : otherKeys) {
-            File source = join(BLOBS_DIR, (String) other.blobs.get(key));
-            File target = join(CWD, key);
-            Files.copy(source.toPath(), target.toPath(), REPLACE_EXISTING);
+    /** As for stageFile(SOURCE), except that when INDEX has an up-to-date
+     *  entry for FILENAME, whose working copy is SOURCE, the file is neither
+     *  hashed nor copied unless its version is missing from both the stage
+     *  and the blob store.  INDEX is updated with the stat data and UID of
+     *  SOURCE. */
+    public static String stageFile(File source, Index index, String filename) throws IOException {
+        String version = index.cached(filename, source);
+        if (version != null && isStored(version)) {
+            return version;
         }
+        Index.Entry stat = Index.stat(source);
+        version = stageFile(source);
+        index.update(filename, stat, version);
+        return version;
+    }
 
-        return true;
+    public static void deleteStageFiles() {
+        for (File file : STAGE_DIR.listFiles()) {
+            if (file.isFile() && file.getParentFile().equals(STAGE_DIR)) {
+                file.delete();
+            }
+        }
     }
 
     public static void clearStage() {
         /** Clears the stage and write the changes to a file */
         deleteStageFiles();
+        Journal.crashPoint("stage files");
         stageAdd.clear();
         stageRmv.clear();
-        writeObject(STAGE_ADD_FILE, (Serializable) stageAdd);
-        writeObject(STAGE_REMOVE_FILE, (Serializable) stageRmv);
+        Codec.writeMap(STAGE_ADD_FILE, stageAdd);
+        Codec.writeMap(STAGE_REMOVE_FILE, stageRmv);
     }
 
     public static String readHeadBranch() {
-        Branch branch = readObject(HEAD, Branch.class);
-        return branch.getName();
+        return Refs.head();
     }
 
     public static String readHeadCommitUID() {
-        Branch branch = readObject(HEAD, Branch.class);
-        return branch.getCommitUID();
+        return Refs.resolve(Refs.head());
     }
 
     public static String getBranchID(String name) {
-        File source = join(BRANCHES_DIR, name);
-        if (source.exists()) {
-            return readContentsAsString(source);
-        }
-        return null;
+        return Refs.resolve(name);
     }
 
-    public static void updatePointer(Branch branch) {
-        String branchName = branch.getName();
-        String branchUID = branch.getCommitUID();
-
-        // write the new commit to the active pointer
-        File file = join(BRANCHES_DIR, branchName);
-        if (!file.exists()) {
-            createNewFile(file);
+    /** Replaces the files of commit FROM in the working directory with
+     *  those of commit TO, and clears the stage.  Changes nothing if an
+     *  untracked file would be overwritten. */
+    public static void checkoutCommit(Commit from, Commit to) {
+        Index index = Index.read();
+        if (!WorkTree.checkout(from, to, index)) {
+            Validate.containsUntrackedFiles();
         }
-        writeContents(file, branchUID);
-
-        writeObject(HEAD, branch);
+        index.write();
+        clearStage();
+        Merge.record(Collections.emptyMap());
     }
 
-
+    /** Returns the latest common ancestor of the active branch and the
+     *  branch BRANCHNAME, as found in the commit graph. */
     public static String splitPointFinder(String branchName) {
-        // Find all the paths from branch to initial commit
-        Deque<String> paths1 = paths(branchName);
-
-        // Find all the paths from active branch to initial
-        Deque<String> paths2 = paths(readHeadBranch());
-
-        return getLatest(paths1, paths2);
+        String branchID = getBranchID(branchName);
+        return CommitGraph.open().mergeBase(readHeadCommitUID(), branchID);
     }
 
-    public static String getLatest(Deque<String> paths1, Deque<String> paths2) {
-        int size = min(paths1.size(), paths2.size());
-        String latestCommitID = readHeadCommitUID();
-        for (int i = 0; i < size; i++) {
-            String lastPath1 = paths1.getLast();
-            String lastPath2 = paths2.getLast();
-            if (lastPath1.equals(lastPath2)) {
-                latestCommitID = lastPath1;
-                paths1.removeLast();
-                paths2.removeLast();
-            } else {
-                return latestCommitID;
+    /** Merges into the working directory and the stage the changes the
+     *  given branch made since the split point, where SPLITBLOBS,
+     *  HEADBLOBS and BRANCHBLOBS hold the files at the split point, in the
+     *  current commit and in the given branch.  Files only the given
+     *  branch changed are checked out and staged, files only it removed
+     *  are removed, and files both branches changed differently are
+     *  merged line by line, with conflict markers where their changes
+     *  meet (see Merge).  A file that one branch renamed since the split
+     *  point is merged at its new path with the other branch's changes to
+     *  it (see Renames).  Nothing is changed if an untracked file would be
+     *  overwritten.  Returns the files that conflicted, each mapped to the
+     *  version staged for it. */
+    public static SortedMap<String, String> mergeHelper(Map<String, String> splitBlobs,
+                                                        Map<String, String> headBlobs,
+                                                        Map<String, String> branchBlobs)
+            throws IOException {
+
+        /** Follow renames by moving the renamed file to its new path in
+         *      the split point and in the branch that did not rename it */
+        splitBlobs = new HashMap<>(splitBlobs);
+        Map<String, String> realHead = headBlobs;
+        headBlobs = new HashMap<>(headBlobs);
+        branchBlobs = new HashMap<>(branchBlobs);
+        Map<String, String> headRenames = renames(splitBlobs, headBlobs);
+        Map<String, String> branchRenames = renames(splitBlobs, branchBlobs);
+        Map<String, String> moved = new TreeMap<>();
+        for (Map.Entry<String, String> e : branchRenames.entrySet()) {
+            String from = e.getKey();
+            String to = e.getValue();
+            if (to.equals(headRenames.get(from))) {
+                splitBlobs.put(to, splitBlobs.remove(from));
+            } else if (!headRenames.containsKey(from) && headBlobs.containsKey(from)
+                    && !headBlobs.containsKey(to)) {
+                if (join(CWD, to).exists()) {
+                    Validate.containsUntrackedFiles();
+                }
+                splitBlobs.put(to, splitBlobs.remove(from));
+                headBlobs.put(to, headBlobs.remove(from));
+                moved.put(from, to);
             }
         }
-        return latestCommitID;
-    }
-
-//    public static Deque<String> paths(String branchName) {
-//        File file = join(BRANCHES_DIR, branchName);
-//        String commitID;
-//        if (file.exists()) {
-//            commitID = readContentsAsString(file);
-//            Commit commit = fromFile(commitID);
-//
-//            Deque<String> pathsList = new LinkedList<>();
-//
-//            while (commit != null) {
-//                pathsList.add(commit.getUid());
-//
-//                String parentUID = commit.getFirstParent();
-//                commit = fromFile(parentUID);
-//            }
-//            return pathsList;
-//        }
-//        return null;
-//    }
-
-    public static Deque<String> paths(String branchName) {
-        File file = join(BRANCHES_DIR, branchName);
-        graph = readObject(GRAPH_FILE, Graph.class);
-
-        String commitID = readContentsAsString(file);
-        return graph.bfs(commitID);
-    }
-
-    public static int min(int size1, int size2) {
-        if (size1 < size2) {
-            return size1;
-        } else {
-            return size2;
+        for (Map.Entry<String, String> e : headRenames.entrySet()) {
+            String from = e.getKey();
+            String to = e.getValue();
+            if (!branchRenames.containsKey(from) && branchBlobs.containsKey(from)
+                    && !branchBlobs.containsKey(to)) {
+                splitBlobs.put(to, splitBlobs.remove(from));
+                branchBlobs.put(to, branchBlobs.remove(from));
+            }
         }
-    }
-
-    public static void mergeHelper(Map<String, String> splitBlobs,
-                                   Map<String, String> headBlobs,
-                                   Map<String, String> branchBlobs) throws IOException {
 
         Set<String> files = fileCollector(splitBlobs.keySet(),
                 headBlobs.keySet(), branchBlobs.keySet());
 
+        /** Decide what to do with each file before changing any */
+        SortedSet<String> take = new TreeSet<>();
+        SortedSet<String> remove = new TreeSet<>();
+        SortedSet<String> both = new TreeSet<>();
         for (String filename : files) {
-            boolean inSplit = splitBlobs.containsKey(filename);
-            boolean inBranch = branchBlobs.containsKey(filename);
-            boolean inHead = headBlobs.containsKey(filename);
-
-            /** If the same version of a file is in split and other, but
-             *      different version is in head */
-            if (inSplit && inHead && inBranch) {
-                String splitVersion = splitBlobs.get(filename);
-                String branchVersion = branchBlobs.get(filename);
-                String headVersion = headBlobs.get(filename);
-
-                /** Rule # 2 */
-                if (splitVersion.equals(branchVersion) && !splitVersion.equals(headVersion)) {
-                    File source = join(BLOBS_DIR, headVersion);
-                    File target = join(CWD, filename);
-                    Files.copy(source.toPath(), target.toPath());
-                    continue;
-                }
-
-                /** Rule # 1: */
-                if (splitVersion.equals(headVersion) && !splitVersion.equals(branchVersion)) {
-                    File source = join(BLOBS_DIR, branchVersion);
-                    File target = join(CWD, filename);
-                    Files.copy(source.toPath(), target.toPath());
-                    continue;
-                }
-
-                /** Rule # 3a */
-                if (!splitVersion.equals(branchVersion) && branchVersion.equals(headVersion)) {
-                    continue;
-                }
+            String splitVersion = splitBlobs.get(filename);
+            String headVersion = headBlobs.get(filename);
+            String branchVersion = branchBlobs.get(filename);
+
+            /** Rules # 2, 3a, 4 and 7: the given branch changed nothing the
+             *      current one does not have */
+            if (Objects.equals(headVersion, branchVersion)
+                    || Objects.equals(splitVersion, branchVersion)) {
+                continue;
+            }
+            if (Objects.equals(splitVersion, headVersion)) {
+                /** Rules # 1, 5 and 6: only the given branch changed it */
+                (branchVersion == null ? remove : take).add(filename);
+            } else {
+                /** Rule # 3b: both changed it, differently */
+                both.add(filename);
+            }
+            if (headVersion == null && join(CWD, filename).exists()) {
+                Validate.containsUntrackedFiles();
+            }
+        }
 
-                /** Rule # 3b */
-                if (!splitVersion.equals(branchVersion) && !branchVersion.equals(headVersion)) {
-                    continue;
-                }
+        /** The files the given branch renamed move in the working
+         *      directory too, keeping the current branch's version where
+         *      the rules keep it */
+        for (Map.Entry<String, String> e : moved.entrySet()) {
+            String to = e.getValue();
+            if (!take.contains(to) && !both.contains(to)) {
+                BLOBS.copyTo(headBlobs.get(to), join(CWD, to));
+                stageAdd.put(to, headBlobs.get(to));
+            }
+            stageRmv.put(e.getKey(), realHead.get(e.getKey()));
+            deleteFile(e.getKey());
+        }
+        for (String filename : take) {
+            String branchVersion = branchBlobs.get(filename);
+            BLOBS.copyTo(branchVersion, join(CWD, filename));
+            stageAdd.put(filename, branchVersion);
+        }
+        for (String filename : remove) {
+            stageRmv.put(filename, headBlobs.get(filename));
+            deleteFile(filename);
+        }
+        SortedMap<String, String> conflicts = new TreeMap<>();
+        for (String filename : both) {
+            File target = join(CWD, filename);
+            boolean conflict = Merge.merge(map(splitBlobs.get(filename)),
+                    map(headBlobs.get(filename)), map(branchBlobs.get(filename)), target);
+            String version = stageFile(target);
+            stageAdd.put(filename, version);
+            if (conflict) {
+                conflicts.put(filename, version);
             }
+        }
+        return conflicts;
+    }
+
+    /** Returns the files renamed between FROM and TO, which map files to
+     *  their blobs, each old path mapped to the new one. */
+    private static Map<String, String> renames(Map<String, String> from,
+                                               Map<String, String> to) {
+        Map<String, String> gone = new HashMap<>(from);
+        gone.keySet().removeAll(to.keySet());
+        Map<String, String> added = new HashMap<>(to);
+        added.keySet().removeAll(from.keySet());
+        Map<String, String> renames = new HashMap<>();
+        for (Renames.Rename rename : Renames.find(gone, added, DiffPrinter::contents)) {
+            renames.put(rename.from, rename.to);
+        }
+        return renames;
+    }
 
-            /** Checks first if the file is in CWD before deleting */
-            List<String> filesCWD = plainFilenamesIn(CWD);
-            boolean inCWD = filesCWD.contains(filename);
+    /** Returns the contents of blob VERSION, or null if VERSION is null. */
+    private static ByteBuffer map(String version) {
+        return version == null ? null : BLOBS.map(version);
+    }
 
-            /** Rule # 5 */
-            if (!inSplit && inBranch && !inHead) {
-                String branchVersion = branchBlobs.get(filename);
-                File source = join(BLOBS_DIR, branchVersion);
-                File target = join(CWD, filename);
-                Files.copy(source.toPath(), target.toPath());
+    /** Maps each blob to the version of the same file that its commit
+     *  replaced, which is the best delta base we know of for it.  Only the
+     *  trees that differ between a commit and its first parent are read. */
+    public static Map<String, String> deltaBases() {
+        Map<String, String> bases = new HashMap<>();
+        for (String id : COMMITS.ids()) {
+            Commit commit = fromFile(id);
+            Commit parent = fromFile(commit.getFirstParent());
+            if (parent == null) {
                 continue;
             }
-
-            if (inCWD) {
-                /** Rule # 6 and Rule # 7*/
-                if ((inSplit && !inBranch && inHead)
-                        || (inSplit && inBranch && !inHead)) {
-                    File fileCWD = join(CWD, filename);
-                    fileCWD.delete();
-                    continue;
-                }
-
-                /** Rule # 4 */
-                if (!inSplit && !inBranch && inHead) {
-                    String headVersion = headBlobs.get(filename);
-                    File source = join(BLOBS_DIR, headVersion);
-                    File target = join(CWD, filename);
-                    Files.copy(source.toPath(), target.toPath());
-                    continue;
+            for (String[] change : Tree.diff(parent.getTree(), commit.getTree()).values()) {
+                if (change[0] != null && change[1] != null) {
+                    bases.putIfAbsent(change[1], change[0]);
                 }
             }
-
         }
+        return bases;
     }
 
     public static Set<String> fileCollector(Set<String> splitKs,
@@ -0,0 +1,235 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Directory.*;
+import static gitlet.Utils.*;
+
+/** The stat cache of the working directory, kept in the binary file
+ *  INDEX_FILE.  For every file whose contents were hashed it records the
+ *  path, size, modification time, inode and blob UID, so add and status
+ *  only have to rehash files whose stat data changed.
+ *
+ *  A file modified within the same clock tick in which the index was
+ *  written can keep identical stat data while its contents change.  Such
+ *  "racily clean" entries, whose mtime is not older than the index file
+ *  itself, are never trusted and are hashed again. */
+class Index {
+    /** Magic number ("GIDC") and format version of the index file. */
+    private static final int MAGIC = 0x47494443;
+    private static final int VERSION = 1;
+
+    /** Size of the buffer through which files are hashed. */
+    private static final int HASH_BUFFER_SIZE = 1 << 16;
+
+    /** The stat data and blob UID recorded for one path. */
+    static class Entry {
+        final long size;
+        final long mtime;
+        final long inode;
+        final String hash;
+
+        Entry(long size, long mtime, long inode, String hash) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.hash = hash;
+        }
+
+        /** Returns true iff STAT describes the same file as this entry. */
+        boolean matches(Entry stat) {
+            return size == stat.size && mtime == stat.mtime && inode == stat.inode;
+        }
+    }
+
+    /** Entries by path, in path order. */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+    /** Modification time of the index file when it was read, in nanoseconds. */
+    private long written = Long.MIN_VALUE;
+
+    /** True iff entries changed since the index was read. */
+    private boolean dirty;
+
+    /** Reads the index from INDEX_FILE, or returns an empty one.  While a
+     *  Batch runs, its commands share one index. */
+    static Index read() {
+        if (Batch.running()) {
+            return Batch.index();
+        }
+        return load();
+    }
+
+    /** Reads the index from INDEX_FILE, or returns an empty one. */
+    static Index load() {
+        Index index = new Index();
+        if (!INDEX_FILE.isFile()) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(readContents(INDEX_FILE)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return index;
+            }
+            int count = in.readInt();
+            byte[] hash = new byte[HashIndex.HASH_SIZE];
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                long inode = in.readLong();
+                in.readFully(hash);
+                index.entries.put(path, new Entry(size, mtime, inode, sha1Hex(hash)));
+            }
+            index.written = Files.getLastModifiedTime(INDEX_FILE.toPath())
+                    .to(TimeUnit.NANOSECONDS);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return index;
+    }
+
+    /** Writes the index to INDEX_FILE if it changed since it was read.
+     *  While a Batch runs, this is left to the end of the batch. */
+    void write() {
+        if (!dirty || Batch.running()) {
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.inode);
+                out.write(sha1Bytes(entry.hash));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        /** Readers write the cache too, without the writer lock, so each
+         *  writes a temporary file of its own; whichever is renamed last
+         *  wins, and every entry in either is right about its file. */
+        try {
+            File temp = File.createTempFile("index", ".tmp", GITLET_DIR);
+            writeContents(temp, bytes.toByteArray());
+            Files.move(temp.toPath(), INDEX_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        dirty = false;
+    }
+
+    /** Returns the stat data of FILE, with no hash, or null if FILE is
+     *  not a regular file. */
+    static Entry stat(File file) {
+        Path path = file.toPath();
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path,
+                    BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (!attrs.isRegularFile()) {
+                return null;
+            }
+            long inode = 0;
+            Object key = attrs.fileKey();
+            if (key != null) {
+                try {
+                    inode = ((Number) Files.getAttribute(path, "unix:ino",
+                            LinkOption.NOFOLLOW_LINKS)).longValue();
+                } catch (UnsupportedOperationException | IllegalArgumentException excp) {
+                    inode = key.hashCode();
+                }
+            }
+            FileTime mtime = attrs.lastModifiedTime();
+            return new Entry(attrs.size(), mtime.to(TimeUnit.NANOSECONDS), inode, null);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns the blob UID recorded for PATH if FILE still has the stat
+     *  data recorded for it and the entry is not racily clean, and
+     *  otherwise null. */
+    String cached(String path, File file) {
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            return null;
+        }
+        Entry stat = stat(file);
+        if (stat == null || !entry.matches(stat) || entry.mtime >= written) {
+            return null;
+        }
+        return entry.hash;
+    }
+
+    /** Records that FILE, the working copy of PATH, has blob UID HASH.
+     *  STAT is FILE's stat data taken before it was hashed, so a change
+     *  made while hashing is noticed next time. */
+    void update(String path, Entry stat, String hash) {
+        if (stat == null) {
+            remove(path);
+            return;
+        }
+        entries.put(path, new Entry(stat.size, stat.mtime, stat.inode, hash));
+        dirty = true;
+    }
+
+    /** Forgets the entry of PATH. */
+    void remove(String path) {
+        if (entries.remove(path) != null) {
+            dirty = true;
+        }
+    }
+
+    /** Returns the blob UID of FILE, the working copy of PATH, hashing it
+     *  only if its stat data changed since it was last hashed. */
+    String hash(String path, File file) throws IOException {
+        String cached = cached(path, file);
+        if (cached != null) {
+            return cached;
+        }
+        Entry stat = stat(file);
+        String hash = hashFile(file);
+        update(path, stat, hash);
+        return hash;
+    }
+
+    /** Returns the SHA-1 UID of the raw contents of FILE, read through one
+     *  fixed-size buffer. */
+    static String hashFile(File file) throws IOException {
+        MessageDigest md = sha1Digest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+        }
+        return sha1Hex(md.digest());
+    }
+}
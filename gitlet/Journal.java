@@ -0,0 +1,537 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import static gitlet.Directory.*;
+import static gitlet.Utils.*;
+
+/** The write-ahead journal that keeps a repository whole across crashes.
+ *
+ *  Objects are written without being synced, each whole or not at all.
+ *  Before any ref or HEAD changes, the objects written since the last
+ *  record and the changes themselves are appended to JOURNAL_FILE as one
+ *  checksummed record, and the journal alone is synced: that single
+ *  fsync is the moment a commit happens, whatever it wrote.  An object
+ *  larger than LARGE_OBJECT is instead synced where it is before the
+ *  record is appended, since copying it would cost more than the extra
+ *  fsync.  The changes are then made without syncing, and once the
+ *  command ends the header notes that the record was applied.
+ *
+ *  A command that finds records not marked applied replays every record
+ *  in the journal, in order.  Objects are rewritten if they are missing
+ *  or damaged, and each ref or HEAD change is remade only if its target
+ *  still has the value from before the change, so that replaying the
+ *  whole chain of changes to a ref always leaves it at the last one.
+ *
+ *  Once the journal passes CHECKPOINT_BYTES, every file its records wrote
+ *  is synced, each directory once, and the journal is emptied, so over
+ *  many commits durability costs about one fsync per commit. */
+class Journal {
+    /** Magic number ("GJRN") and format version of the journal. */
+    private static final int MAGIC = 0x474a524e;
+    private static final int VERSION = 1;
+
+    /** Size of the header: magic, version, the sequence number of the
+     *  last record appended and of the last record applied.  Each record
+     *  that follows is its length, the CRC-32 of its body, and its body:
+     *  its sequence number and its changes. */
+    private static final int HEADER = 24;
+    private static final int LAST = 8;
+    private static final int APPLIED = 16;
+    private static final int FRAME = 8;
+
+    /** Size of the journal above which it is checkpointed. */
+    private static final long CHECKPOINT_BYTES = 4 << 20;
+
+    /** Size of the objects that are synced where they are rather than
+     *  copied into the journal. */
+    private static final long LARGE_OBJECT = 1 << 20;
+
+    /** Kinds of change. */
+    private static final byte OBJECT = 'O';
+    private static final byte REF = 'R';
+    private static final byte HEAD_CHANGE = 'H';
+
+    /** The crash point at which to stop, counted from 1 in the order a
+     *  command reaches them, from -Dgitlet.crash; 0 for none. */
+    private static final int CRASH_AT = Integer.getInteger("gitlet.crash", 0);
+
+    /** Exit status of a process stopped at a crash point. */
+    static final int CRASH_STATUS = 137;
+
+    /** Number of crash points reached so far. */
+    private static int crashPoints;
+
+    /** Objects written since the last record, each as its store and UID. */
+    private static final List<Object[]> pending = new ArrayList<>();
+
+    /** Sequence number of the last record this process appended, and of
+     *  the last it marked applied. */
+    private static long logged;
+    private static long applied;
+
+    /** One change in a record.  An object has a STORE, its UID as NAME and
+     *  its CONTENTS; a ref has a NAME and an OLD and NEW UID; HEAD has an
+     *  OLD and a NEW branch name.  A missing value is null. */
+    private static class Change {
+        byte kind;
+        ObjectStore store;
+        String name;
+        String old;
+        String value;
+        byte[] contents;
+    }
+
+    /* WRITING */
+
+    /** Notes that object ID was written to STORE. */
+    static synchronized void written(ObjectStore store, String id) {
+        pending.add(new Object[] {store, id});
+    }
+
+    /** Logs the ref changes CHANGES, each a name mapped to its old and new
+     *  UIDs, along with the objects written before them. */
+    static synchronized void refs(Map<String, String[]> changes) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (Map.Entry<String, String[]> e : changes.entrySet()) {
+            body.write(REF);
+            Codec.writeString(body, e.getKey());
+            writeOptionalHash(body, e.getValue()[0]);
+            writeOptionalHash(body, e.getValue()[1]);
+        }
+        append(body);
+    }
+
+    /** Logs a change of the current branch from OLD, which is null if HEAD
+     *  names none, to NAME. */
+    static synchronized void head(String old, String name) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(HEAD_CHANGE);
+        body.write(old == null ? 0 : 1);
+        Codec.writeString(body, old == null ? "" : old);
+        Codec.writeString(body, name);
+        append(body);
+    }
+
+    /** Appends a record of the pending objects followed by CHANGES and
+     *  syncs the journal.  Large objects are synced in place first, and
+     *  left out of the record, rather than copied. */
+    private static void append(ByteArrayOutputStream changes) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        Set<File> dirs = new LinkedHashSet<>();
+        for (Object[] written : pending) {
+            ObjectStore store = (ObjectStore) written[0];
+            String id = (String) written[1];
+            File loose = store.loose(id);
+            if (loose.length() > LARGE_OBJECT) {
+                try {
+                    fsync(loose);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+                dirs.add(loose.getParentFile());
+                dirs.add(loose.getParentFile().getParentFile());
+                continue;
+            }
+            byte[] contents = store.read(id);
+            body.write(OBJECT);
+            body.write(tag(store));
+            Codec.writeHash(body, id);
+            Codec.writeVarint(body, contents.length);
+            body.write(contents, 0, contents.length);
+        }
+        body.write(changes.toByteArray(), 0, changes.size());
+
+        try (FileChannel channel = open()) {
+            for (File dir : dirs) {
+                fsync(dir);
+            }
+            long seq = channel.size() == 0 ? 1 : readLong(channel, LAST) + 1;
+            if (channel.size() == 0) {
+                writeHeader(channel, 0, 0);
+                fsync(GITLET_DIR);
+            }
+            byte[] bytes = body.toByteArray();
+            ByteBuffer record = ByteBuffer.allocate(FRAME + 8 + bytes.length);
+            record.putInt(8 + bytes.length);
+            record.putInt(0);
+            record.putLong(seq);
+            record.put(bytes);
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), FRAME, record.capacity() - FRAME);
+            record.putInt(4, (int) crc.getValue());
+            record.flip();
+
+            long end = channel.size();
+            if (CRASH_AT > 0) {
+                channel.write(record.duplicate().limit(record.limit() / 2), end);
+                crashPoint("torn journal record");
+            }
+            while (record.hasRemaining()) {
+                channel.write(record, end + record.position());
+            }
+            writeLong(channel, LAST, seq);
+            crashPoint("journal record");
+            channel.force(false);
+            crashPoint("journal synced");
+            logged = seq;
+            pending.clear();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Marks the records this process appended as applied, once the
+     *  command that appended them is done, and checkpoints the journal if
+     *  it has grown too long. */
+    static synchronized void finish() {
+        pending.clear();
+        if (logged == applied) {
+            return;
+        }
+        try (FileChannel channel = open()) {
+            writeLong(channel, APPLIED, logged);
+            applied = logged;
+            crashPoint("journal applied");
+            if (channel.size() > CHECKPOINT_BYTES && !Batch.running()) {
+                checkpoint(channel);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Syncs every file that the records in CHANNEL wrote and the
+     *  directories they are in, then empties the journal. */
+    private static void checkpoint(FileChannel channel) throws IOException {
+        Set<File> files = new LinkedHashSet<>();
+        Set<File> dirs = new LinkedHashSet<>();
+        for (List<Change> record : read(channel)) {
+            for (Change change : record) {
+                File file;
+                if (change.kind == OBJECT) {
+                    file = change.store.loose(change.name);
+                    dirs.add(file.getParentFile().getParentFile());
+                } else if (change.kind == REF) {
+                    file = join(BRANCHES_DIR, change.name);
+                    if (!file.isFile()) {
+                        file = PACKED_REFS_FILE;
+                    }
+                } else {
+                    file = HEAD;
+                }
+                if (file.isFile()) {
+                    files.add(file);
+                    dirs.add(file.getParentFile());
+                }
+            }
+        }
+        for (File file : files) {
+            fsync(file);
+        }
+        for (File dir : dirs) {
+            fsync(dir);
+        }
+        crashPoint("checkpoint synced");
+        long last = readLong(channel, LAST);
+        channel.truncate(HEADER);
+        writeHeader(channel, last, last);
+        channel.force(false);
+    }
+
+    /* RECOVERY */
+
+    /** Returns the sequence number of the last record appended, or 0 if
+     *  there is no journal. */
+    static long last() {
+        return header(LAST);
+    }
+
+    /** Returns true iff the journal has records that were never marked
+     *  applied: a writer is running or stopped while making its changes. */
+    static boolean needsRecovery() {
+        return header(LAST) != header(APPLIED);
+    }
+
+    /** Returns the ref changes in the records not yet marked applied, each
+     *  ref mapped to the UID the last of them gives it, or to null if that
+     *  deletes it: the refs as a writer that is still applying them, or
+     *  that stopped before it could, has made them.  Takes no lock and
+     *  changes nothing, so that readers may call it; a journal that cannot
+     *  be read has no changes. */
+    static Map<String, String> pendingRefs() {
+        Map<String, String> refs = new HashMap<>();
+        if (JOURNAL_FILE.length() < HEADER) {
+            return refs;
+        }
+        try (FileChannel channel = FileChannel.open(JOURNAL_FILE.toPath(),
+                StandardOpenOption.READ)) {
+            long applied = readLong(channel, APPLIED);
+            if (readLong(channel, LAST) == applied) {
+                return refs;
+            }
+            for (List<Change> record : read(channel, applied, false)) {
+                for (Change change : record) {
+                    if (change.kind == REF) {
+                        refs.put(change.name, change.value);
+                    }
+                }
+            }
+            return refs;
+        } catch (IOException | RuntimeException excp) {
+            return new HashMap<>();
+        }
+    }
+
+    /** Returns the header field at POSITION, or 0 if there is no journal. */
+    private static long header(int position) {
+        if (JOURNAL_FILE.length() < HEADER) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(JOURNAL_FILE.toPath(),
+                StandardOpenOption.READ)) {
+            return readLong(channel, position);
+        } catch (IOException excp) {
+            return 0;
+        }
+    }
+
+    /** Replays the journal if it has records that were never marked
+     *  applied, because a command stopped while making its changes, then
+     *  checkpoints it.  Entries a crash left in the stage that the replayed
+     *  commit already holds are dropped. */
+    static synchronized void recover() {
+        if (!JOURNAL_FILE.isFile()) {
+            return;
+        }
+        try (FileChannel channel = open()) {
+            if (channel.size() < HEADER) {
+                channel.truncate(0);
+                return;
+            }
+            long last = readLong(channel, LAST);
+            if (readLong(channel, APPLIED) == last) {
+                return;
+            }
+            for (List<Change> record : read(channel)) {
+                for (Change change : record) {
+                    replay(change);
+                }
+            }
+            cleanStage();
+            checkpoint(channel);
+            logged = applied = last;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Makes CHANGE again if a crash lost it. */
+    private static void replay(Change change) throws IOException {
+        switch (change.kind) {
+            case OBJECT:
+                change.store.repair(change.name, change.contents);
+                if (change.store == COMMITS) {
+                    index(Codec.decodeCommit(change.contents, change.name));
+                }
+                break;
+            case REF:
+                Refs.replay(change.name, change.old, change.value);
+                break;
+            default:
+                Refs.replayHead(change.old, change.value);
+                break;
+        }
+    }
+
+    /** Adds COMMIT to the commit graph and the message index if they do
+     *  not have it, rebuilding either if a crash damaged it. */
+    private static void index(Commit commit) {
+        try {
+            CommitGraph.append(commit);
+        } catch (GitletException | IllegalArgumentException excp) {
+            CommitGraph.rebuild();
+        }
+        try {
+            if (!MessageIndex.open().exact(commit.getMessage()).contains(commit.getUid())) {
+                MessageIndex.append(commit);
+            }
+        } catch (GitletException | IllegalArgumentException excp) {
+            MessageIndex.rebuild();
+        }
+    }
+
+    /** Removes from the stage each addition that the head commit already
+     *  tracks and each removal of a file it does not track: what a commit
+     *  that stopped before clearing the stage leaves behind. */
+    private static void cleanStage() {
+        Commit head = Commit.fromFile(Refs.resolve(Refs.head()));
+        Map<String, String> additions = Codec.readMap(STAGE_ADD_FILE);
+        Map<String, String> removals = Codec.readMap(STAGE_REMOVE_FILE);
+        boolean changed = additions.entrySet().removeIf(e ->
+                e.getValue().equals(head.getBlob(e.getKey())));
+        changed |= removals.keySet().removeIf(name -> head.getBlob(name) == null);
+        if (changed) {
+            Codec.writeMap(STAGE_ADD_FILE, additions);
+            Codec.writeMap(STAGE_REMOVE_FILE, removals);
+        }
+    }
+
+    /* TESTING */
+
+    /** Stops the process at once, as a crash would, if this is the crash
+     *  point chosen with -Dgitlet.crash.  NAME describes the point. */
+    static void crashPoint(String name) {
+        if (CRASH_AT > 0 && ++crashPoints == CRASH_AT) {
+            System.err.println("crash: " + name);
+            System.err.flush();
+            Runtime.getRuntime().halt(CRASH_STATUS);
+        }
+    }
+
+    /* ENCODING */
+
+    /** Opens the journal for reading and writing, creating it if need be,
+     *  and locks it; closing the channel releases the lock. */
+    private static FileChannel open() throws IOException {
+        FileChannel channel = FileChannel.open(JOURNAL_FILE.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            channel.lock();
+            return channel;
+        } catch (IOException | RuntimeException excp) {
+            channel.close();
+            throw excp;
+        }
+    }
+
+    private static void writeHeader(FileChannel channel, long last, long done)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putLong(last).putLong(done).flip();
+        channel.write(header, 0);
+    }
+
+    private static long readLong(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        if (channel.read(buffer, position) != 8) {
+            throw error("Corrupt journal.");
+        }
+        return buffer.getLong(0);
+    }
+
+    private static void writeLong(FileChannel channel, long position, long value)
+            throws IOException {
+        channel.write(ByteBuffer.allocate(8).putLong(0, value), position);
+    }
+
+    /** Returns the changes of each whole record in CHANNEL, in order.  A
+     *  record cut short or damaged by a crash, and anything after it, is
+     *  cut off the journal. */
+    private static List<List<Change>> read(FileChannel channel) throws IOException {
+        return read(channel, 0, true);
+    }
+
+    /** Returns the changes of each whole record in CHANNEL with a sequence
+     *  number above AFTER, in order.  A record cut short or damaged, and
+     *  anything after it, is left out, and cut off the journal if CUT. */
+    private static List<List<Change>> read(FileChannel channel, long after, boolean cut)
+            throws IOException {
+        ByteBuffer in = ByteBuffer.allocate((int) channel.size());
+        while (in.hasRemaining() && channel.read(in, in.position()) > 0) {
+            continue;
+        }
+        in.flip();
+        if (in.limit() < HEADER || in.getInt(0) != MAGIC || in.getInt(4) != VERSION) {
+            throw error("Corrupt journal.");
+        }
+        List<List<Change>> records = new ArrayList<>();
+        int position = HEADER;
+        while (position + FRAME <= in.limit()) {
+            int length = in.getInt(position);
+            if (length < 8 || length > in.limit() - position - FRAME) {
+                break;
+            }
+            byte[] body = new byte[length];
+            in.get(position + FRAME, body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != in.getInt(position + 4)) {
+                break;
+            }
+            if (ByteBuffer.wrap(body).getLong(0) > after) {
+                records.add(decode(ByteBuffer.wrap(body, 8, length - 8)));
+            }
+            position += FRAME + length;
+        }
+        if (cut && position < in.limit()) {
+            channel.truncate(position);
+        }
+        return records;
+    }
+
+    /** Returns the changes encoded in the rest of IN. */
+    private static List<Change> decode(ByteBuffer in) {
+        List<Change> changes = new ArrayList<>();
+        while (in.hasRemaining()) {
+            Change change = new Change();
+            change.kind = in.get();
+            if (change.kind == OBJECT) {
+                change.store = store(in.get());
+                change.name = Codec.readHash(in);
+                change.contents = new byte[(int) Codec.readVarint(in)];
+                in.get(change.contents);
+            } else if (change.kind == REF) {
+                change.name = Codec.readString(in);
+                change.old = readOptionalHash(in);
+                change.value = readOptionalHash(in);
+            } else if (change.kind == HEAD_CHANGE) {
+                boolean hasOld = in.get() != 0;
+                String old = Codec.readString(in);
+                change.old = hasOld ? old : null;
+                change.value = Codec.readString(in);
+            } else {
+                throw error("Corrupt journal.");
+            }
+            changes.add(change);
+        }
+        return changes;
+    }
+
+    private static void writeOptionalHash(ByteArrayOutputStream out, String id) {
+        out.write(id == null ? 0 : 1);
+        if (id != null) {
+            Codec.writeHash(out, id);
+        }
+    }
+
+    private static String readOptionalHash(ByteBuffer in) {
+        return in.get() == 0 ? null : Codec.readHash(in);
+    }
+
+    /** Returns the byte that stands for STORE in a record. */
+    private static byte tag(ObjectStore store) {
+        return (byte) (store == BLOBS ? 'b' : store == TREES ? 't' : 'c');
+    }
+
+    /** Returns the store that TAG stands for. */
+    private static ObjectStore store(byte tag) {
+        switch (tag) {
+            case 'b':
+                return BLOBS;
+            case 't':
+                return TREES;
+            case 'c':
+                return COMMITS;
+            default:
+                throw error("Corrupt journal.");
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+
+import static gitlet.Directory.*;
+import static gitlet.Utils.*;
+
+/** Prints a list of commits for log and global-log.  Commits are read and
+ *  rendered in parallel, CHUNK at a time, while the chunk before is being
+ *  written, and everything goes through one buffered writer, so printing
+ *  a long history is bound by the reader of the output rather than by
+ *  decoding.  Options, which follow the command name, are
+ *
+ *      --max-count=N   print at most N commits
+ *      --skip=N        skip the first N commits
+ *      --format=TEXT   print each commit as TEXT followed by a newline
+ *
+ *  each of which may also be given as two words.  TEXT may use
+ *  %H (UID), %h (abbreviated UID), %P and %p (parent UIDs, full and
+ *  abbreviated), %s (message), %ad (date), %at (date in seconds since the
+ *  epoch), %n (newline) and %% (a percent sign).  Without --format, commits
+ *  are printed as log always has. */
+class LogPrinter {
+    /** The format of dates in the default output. */
+    static final DateTimeFormatter DATE =
+            DateTimeFormatter.ofPattern("E MMM dd HH:mm:ss yyyy Z").withZone(ZoneId.systemDefault());
+
+    /** Number of commits rendered by one task. */
+    private static final int CHUNK = 1024;
+
+    /** Length of abbreviated UIDs in --format output. */
+    private static final int ABBREV = 7;
+
+    private int skip = 0;
+    private int maxCount = Integer.MAX_VALUE;
+
+    /** The parsed --format template: literal Strings and placeholder
+     *  Characters ('a' standing for %ad and 't' for %at), or null for the
+     *  default output. */
+    private List<Object> template;
+
+    /** A printer for the options in ARGS[FROM..]. */
+    LogPrinter(String[] args, int from) {
+        for (int i = from; i < args.length; i++) {
+            String option = args[i];
+            String value;
+            int eq = option.indexOf('=');
+            if (eq >= 0) {
+                value = option.substring(eq + 1);
+                option = option.substring(0, eq);
+            } else if (i + 1 < args.length) {
+                value = args[++i];
+            } else {
+                throw new GitletException("Incorrect operands");
+            }
+            switch (option) {
+                case "--max-count":
+                    maxCount = count(value);
+                    break;
+                case "--skip":
+                    skip = count(value);
+                    break;
+                case "--format":
+                    template = parse(value);
+                    break;
+                default:
+                    throw new GitletException("Incorrect operands");
+            }
+        }
+    }
+
+    private static int count(String value) {
+        try {
+            int n = Integer.parseInt(value);
+            if (n >= 0) {
+                return n;
+            }
+        } catch (NumberFormatException excp) {
+            // Reported below
+        }
+        throw new GitletException("Incorrect operands");
+    }
+
+    /** Returns the template of the --format text FORMAT. */
+    private static List<Object> parse(String format) {
+        List<Object> parts = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if (c != '%' || i + 1 == format.length()) {
+                literal.append(c);
+                continue;
+            }
+            char p = format.charAt(++i);
+            Character placeholder = null;
+            if (p == '%') {
+                literal.append('%');
+            } else if (p == 'n') {
+                literal.append('\n');
+            } else if ("HhPps".indexOf(p) >= 0) {
+                placeholder = p;
+            } else if (p == 'a' && i + 1 < format.length()
+                    && "dt".indexOf(format.charAt(i + 1)) >= 0) {
+                placeholder = format.charAt(++i) == 'd' ? 'a' : 't';
+            } else {
+                literal.append('%').append(p);
+            }
+            if (placeholder != null) {
+                if (literal.length() > 0) {
+                    parts.add(literal.toString());
+                    literal.setLength(0);
+                }
+                parts.add(placeholder);
+            }
+        }
+        if (literal.length() > 0) {
+            parts.add(literal.toString());
+        }
+        return parts;
+    }
+
+    /** Returns the number of commits that print needs to be given, at
+     *  most, to print all that it will. */
+    int limit() {
+        return (int) Math.min(Integer.MAX_VALUE, (long) skip + maxCount);
+    }
+
+    /** Prints the commits IDS, after skipping and limiting them. */
+    void print(List<String> ids) throws IOException {
+        int from = Math.min(skip, ids.size());
+        int to = (int) Math.min(ids.size(), (long) from + maxCount);
+        ids = ids.subList(from, to);
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        ForkJoinTask<String> next = render(ids, 0);
+        for (int start = 0; start < ids.size(); start += CHUNK) {
+            String text = next.join();
+            next = render(ids, start + CHUNK);
+            out.write(text);
+        }
+        out.flush();
+    }
+
+    /** Starts rendering the chunk of IDS that begins at START. */
+    private ForkJoinTask<String> render(List<String> ids, int start) {
+        List<String> chunk = ids.subList(Math.min(start, ids.size()),
+                Math.min(start + CHUNK, ids.size()));
+        return WorkTree.POOL.submit(() -> chunk.parallelStream()
+                .map(id -> format(Codec.decodeCommit(COMMITS.read(id), id)))
+                .collect(Collectors.joining()));
+    }
+
+    /** Returns the text printed for COMMIT. */
+    String format(Commit commit) {
+        StringBuilder out = new StringBuilder();
+        if (template == null) {
+            out.append("===\ncommit ").append(commit.getUid()).append('\n');
+            if (commit.getSecondParent() != null) {
+                out.append("Merge: ").append(commit.getFirstParent(), 0, 6).append(' ')
+                        .append(commit.getSecondParent(), 0, 6).append('\n');
+            }
+            out.append("Date: ").append(DATE.format(commit.getTimeStamp().toInstant()))
+                    .append('\n').append(commit.getMessage()).append("\n\n");
+            return out.toString();
+        }
+        for (Object part : template) {
+            if (part instanceof String) {
+                out.append((String) part);
+                continue;
+            }
+            switch ((Character) part) {
+                case 'H':
+                    out.append(commit.getUid());
+                    break;
+                case 'h':
+                    out.append(commit.getUid(), 0, ABBREV);
+                    break;
+                case 'P':
+                case 'p':
+                    int length = (Character) part == 'P' ? UID_LENGTH : ABBREV;
+                    String sep = "";
+                    for (String parent : new String[] {commit.getFirstParent(),
+                        commit.getSecondParent()}) {
+                        if (parent != null) {
+                            out.append(sep).append(parent, 0, length);
+                            sep = " ";
+                        }
+                    }
+                    break;
+                case 's':
+                    out.append(commit.getMessage());
+                    break;
+                case 'a':
+                    out.append(DATE.format(commit.getTimeStamp().toInstant()));
+                    break;
+                case 't':
+                    out.append(commit.getTimeStamp().getTime() / 1000);
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+        return out.append('\n').toString();
+    }
+}
@@ -1,6 +1,12 @@
 package gitlet;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.Set;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author Irvin Tancioco
@@ -9,10 +15,105 @@ public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
+     *  The command is handed to the repository's daemon if one is running,
+     *  and run in this process otherwise.
      */
     public static void main(String[] args) throws IOException {
+        try {
+            boolean local = args.length > 0 && args[0].equals("batch")
+                    || args.length == 1 && args[0].equals("daemon");
+            if (!local && Daemon.forward(args)) {
+                return;
+            }
+            run(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+    }
+
+    /** Commands that only read the repository, and so run without the
+     *  writer lock, against the last snapshot a writer published. */
+    private static final Set<String> READERS = Set.of("log", "global-log", "find", "status",
+            "diff");
+
+    /** Runs the command ARGS against the repository in the working
+     *  directory, throwing a GitletException for any user error.  Commands
+     *  that change the repository hold the writer lock while they run. */
+    static void run(String[] args) throws IOException {
         Validate.command(args);
 
+        String command = args[0];
+        if (command.equals("init") || command.equals("daemon") || !Directory.GITLET_DIR.exists()) {
+            execute(args);
+        } else if (READERS.contains(command) && !WriterLock.held()) {
+            read(args);
+        } else {
+            WriterLock.acquire();
+            try {
+                maintain();
+                execute(args);
+            } finally {
+                WriterLock.release();
+            }
+        }
+    }
+
+    /** Upgrades the layout of the repository, finishes changes that an
+     *  earlier command left half made, and builds missing indices.  The
+     *  writer lock must be held. */
+    private static void maintain() throws IOException {
+        Directory.upgrade();
+        Journal.recover();
+        if (!Directory.COMMIT_GRAPH_FILE.isFile()) {
+            CommitGraph.rebuild();
+        }
+        if (!Directory.MESSAGES_FILE.isFile()) {
+            MessageIndex.rebuild();
+        }
+    }
+
+    /** Runs the read-only command ARGS against the last published
+     *  snapshot.  If the repository needs maintenance, or the snapshot is
+     *  stale, and no writer is running, that is seen to first. */
+    private static void read(String[] args) throws IOException {
+        boolean maintenance = !Directory.COMMIT_GRAPH_FILE.isFile()
+                || !Directory.MESSAGES_FILE.isFile() || Journal.needsRecovery();
+        boolean locked;
+        if (Directory.needsUpgrade()) {
+            WriterLock.acquire();
+            locked = true;
+        } else {
+            locked = (maintenance || Snapshot.stale()) && WriterLock.tryAcquire();
+        }
+        if (locked) {
+            try {
+                maintain();
+            } finally {
+                WriterLock.release();
+            }
+        }
+        Snapshot.begin();
+        try {
+            execute(args);
+        } finally {
+            Snapshot.end();
+        }
+    }
+
+    /** Runs the command ARGS, then marks what it logged in the journal as
+     *  applied. */
+    private static void execute(String[] args) throws IOException {
+        try {
+            dispatch(args);
+        } catch (GitletException excp) {
+            Journal.finish();
+            throw excp;
+        }
+        Journal.finish();
+    }
+
+    /** Runs the command ARGS. */
+    private static void dispatch(String[] args) throws IOException {
         String firstArg = args[0];
         switch(firstArg) {
             /** 1. Calls the repository set up initializing method which creates a .gitlet directory */
@@ -39,27 +140,38 @@ public class Main {
                 filename = args[1];
                 Repository.rm(filename);
                 break;
+            /** log and global-log take --max-count, --skip and --format */
             case "log":
-                Validate.numArgs(args, 1);
+                Validate.numArgs(args, 1, 7);
                 Validate.initialization();
-                Repository.log();
+                Repository.log(args);
                 break;
             case "global-log":
-                Validate.numArgs(args, 1);
+                Validate.numArgs(args, 1, 7);
                 Validate.initialization();
-                Repository.globalLog();
+                Repository.globalLog(args);
                 break;
+            /** find MESSAGE, or find --word WORDS, or find --grep TEXT */
             case "find":
-                Validate.numArgs(args, 2);
+                Validate.numArgs(args, 2, 3);
                 Validate.initialization();
-                message = args[1];
-                Repository.find(message);
+                if (args.length == 3) {
+                    Repository.find(args[1], args[2]);
+                } else {
+                    Repository.find(args[1]);
+                }
                 break;
             case "status":
                 Validate.numArgs(args, 1);
                 Validate.initialization();
                 Repository.status();
                 break;
+            /** diff [--cached] [-U N] [COMMIT [COMMIT]] */
+            case "diff":
+                Validate.numArgs(args, 1, 5);
+                Validate.initialization();
+                Repository.diff(args);
+                break;
             case "checkout":
                 Validate.numArgs(args, 2,4);
                 Validate.initialization();
@@ -89,6 +201,46 @@ public class Main {
                 name = args[1];
                 Repository.merge(name);
                 break;
+            case "pack":
+                Validate.numArgs(args, 1);
+                Validate.initialization();
+                Repository.pack();
+                break;
+            /** gc [--budget MILLIS] [--grace SECONDS] */
+            case "gc":
+                Validate.numArgs(args, 1, 5);
+                Validate.initialization();
+                Repository.gc(args);
+                break;
+            /** Rebuilds the commit graph and the message index */
+            case "reindex":
+                Validate.numArgs(args, 1);
+                Validate.initialization();
+                Repository.reindex();
+                break;
+            /** Runs the commands in a file, or on standard input, in this process */
+            case "batch":
+                Validate.numArgs(args, 1, 2);
+                try (BufferedReader in = args.length == 2
+                        ? Files.newBufferedReader(Paths.get(args[1]))
+                        : new BufferedReader(new InputStreamReader(System.in))) {
+                    Batch.run(in);
+                } catch (NoSuchFileException excp) {
+                    throw new GitletException("File does not exist.");
+                }
+                break;
+            /** Serves this repository's commands from one warm process */
+            case "daemon":
+                Validate.numArgs(args, 1, 2);
+                Validate.initialization();
+                if (args.length == 2) {
+                    if (!args[1].equals("stop")) {
+                        throw new GitletException("Incorrect operands");
+                    }
+                    throw new GitletException("No daemon is running.");
+                }
+                Daemon.serve();
+                break;
             default:
                 Validate.noExistingCmd();
         }
@@ -0,0 +1,258 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static gitlet.Directory.*;
+
+/** Three-way merges of the contents of a file, line by line.
+ *
+ *  The changes that each side made to the base are found with Diff, and
+ *  walked through together in the order of the base.  Changes to lines
+ *  that only one side touched are taken from that side; changes that
+ *  overlap, or touch, the same lines of the base conflict unless both
+ *  sides made the same one.  A conflict is written with markers around
+ *  the current branch's lines and the given branch's:
+ *
+ *      <<<<<<< HEAD
+ *      lines in the current branch
+ *      =======
+ *      lines in the given branch
+ *      >>>>>>>
+ *
+ *  The versions are mapped from the object store rather than read into
+ *  memory where the store allows, and the result is streamed out, so
+ *  memory use is the few ints a line that Diff needs.  A version that
+ *  looks binary, or a file that one side deleted and the other changed,
+ *  conflicts as a whole.
+ *
+ *  CONFLICTS_FILE lists the files the last merge left conflicted, each
+ *  mapped to the version it committed with the markers; a file leaves the
+ *  list when it is added or removed again, and the list is emptied when
+ *  another commit is checked out. */
+class Merge {
+    /** Markers around the two sides of a conflict. */
+    private static final byte[] OURS = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] THEIRS = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Number of leading bytes searched for a NUL to tell binary files. */
+    private static final int BINARY_CHECK = 8000;
+
+    /** Size of the buffer through which lines are copied out. */
+    private static final int COPY_BUFFER_SIZE = 1 << 16;
+
+    /** The output and the buffer lines are copied out through. */
+    private final OutputStream out;
+    private final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+
+    /** True iff the last byte written was a newline, or none was. */
+    private boolean atLineStart = true;
+
+    private Merge(OutputStream out) {
+        this.out = out;
+    }
+
+    /** Writes to TARGET the merge of the changes from BASE to OURS with
+     *  those from BASE to THEIRS, where a missing version is null.
+     *  Returns true iff they conflict. */
+    static boolean merge(ByteBuffer base, ByteBuffer ours, ByteBuffer theirs, File target)
+            throws IOException {
+        target.getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target.toPath()),
+                COPY_BUFFER_SIZE)) {
+            Merge merge = new Merge(out);
+            if (ours == null || theirs == null
+                    || isBinary(base) || isBinary(ours) || isBinary(theirs)) {
+                merge.wholeConflict(ours, theirs);
+                return true;
+            }
+            if (base == null) {
+                base = ByteBuffer.allocate(0);
+            }
+            return merge.lines(base, ours, theirs);
+        }
+    }
+
+    /** Writes the whole of OURS and THEIRS, either of which may be null
+     *  for an empty file, as one conflict. */
+    private void wholeConflict(ByteBuffer ours, ByteBuffer theirs) throws IOException {
+        out.write(OURS);
+        if (ours != null) {
+            copy(ours, 0, ours.limit());
+        }
+        out.write(SEPARATOR);
+        if (theirs != null) {
+            copy(theirs, 0, theirs.limit());
+        }
+        out.write(THEIRS);
+    }
+
+    /** Merges OURS and THEIRS with BASE line by line.  Returns true iff
+     *  any of their changes conflict. */
+    private boolean lines(ByteBuffer baseContents, ByteBuffer oursContents,
+                          ByteBuffer theirsContents) throws IOException {
+        long start = System.nanoTime();
+        Diff.Lines[] split = Diff.split(baseContents, oursContents, theirsContents);
+        Diff.Lines base = split[0];
+        Diff.Lines ours = split[1];
+        Diff.Lines theirs = split[2];
+        long splitNanos = System.nanoTime() - start;
+        List<int[]> oursEdits = Diff.diff(base, ours);
+        List<int[]> theirsEdits = Diff.diff(base, theirs);
+        long diffNanos = System.nanoTime() - start - splitNanos;
+
+        boolean conflict = false;
+        int done = 0;
+        int oursShift = 0;
+        int theirsShift = 0;
+        int o = 0;
+        int t = 0;
+        while (o < oursEdits.size() || t < theirsEdits.size()) {
+            /* Gather the edits from either side that overlap or touch,
+             * into a chunk covering base lines lo to hi - 1 */
+            int firstO = o;
+            int firstT = t;
+            int lo = Math.min(o < oursEdits.size() ? oursEdits.get(o)[0] : Integer.MAX_VALUE,
+                    t < theirsEdits.size() ? theirsEdits.get(t)[0] : Integer.MAX_VALUE);
+            int hi = lo;
+            while (true) {
+                if (o < oursEdits.size() && oursEdits.get(o)[0] <= hi) {
+                    hi = Math.max(hi, oursEdits.get(o++)[1]);
+                } else if (t < theirsEdits.size() && theirsEdits.get(t)[0] <= hi) {
+                    hi = Math.max(hi, theirsEdits.get(t++)[1]);
+                } else {
+                    break;
+                }
+            }
+            int[] oursRange = range(oursEdits, firstO, o, lo, hi, oursShift);
+            int[] theirsRange = range(theirsEdits, firstT, t, lo, hi, theirsShift);
+            oursShift = oursRange[1] - hi;
+            theirsShift = theirsRange[1] - hi;
+
+            lines(base, done, lo);
+            done = hi;
+            if (firstT == t) {
+                lines(ours, oursRange[0], oursRange[1]);
+            } else if (firstO == o || same(ours, oursRange, theirs, theirsRange)) {
+                lines(theirs, theirsRange[0], theirsRange[1]);
+            } else {
+                conflict = true;
+                newline();
+                out.write(OURS);
+                lines(ours, oursRange[0], oursRange[1]);
+                newline();
+                out.write(SEPARATOR);
+                lines(theirs, theirsRange[0], theirsRange[1]);
+                newline();
+                out.write(THEIRS);
+            }
+        }
+        lines(base, done, base.size());
+        Helper.timing("merge: split %.1f ms, diff %.1f ms, write %.1f ms", splitNanos / 1e6,
+                diffNanos / 1e6, (System.nanoTime() - start - splitNanos - diffNanos) / 1e6);
+        return conflict;
+    }
+
+    /** Returns the lines {start, end} of a side that stand for base lines
+     *  LO to HI - 1, given its EDITS FIRST to LAST - 1 in them, and the
+     *  difference SHIFT between its line numbers and the base's before
+     *  them. */
+    private static int[] range(List<int[]> edits, int first, int last, int lo, int hi,
+                               int shift) {
+        if (first == last) {
+            return new int[] {lo + shift, hi + shift};
+        }
+        int[] start = edits.get(first);
+        int[] end = edits.get(last - 1);
+        return new int[] {start[2] - (start[0] - lo), end[3] + (hi - end[1])};
+    }
+
+    /** Returns true iff lines RANGEA of A are the same as RANGEB of B. */
+    private static boolean same(Diff.Lines a, int[] rangeA, Diff.Lines b, int[] rangeB) {
+        if (rangeA[1] - rangeA[0] != rangeB[1] - rangeB[0]) {
+            return false;
+        }
+        for (int i = rangeA[0], j = rangeB[0]; i < rangeA[1]; i++, j++) {
+            if (a.ids[i] != b.ids[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes lines FROM to TO - 1 of LINES. */
+    private void lines(Diff.Lines lines, int from, int to) throws IOException {
+        if (from < to) {
+            copy(lines.contents, lines.start(from), lines.start(to));
+        }
+    }
+
+    /** Writes bytes START to END - 1 of CONTENTS. */
+    private void copy(ByteBuffer contents, int start, int end) throws IOException {
+        for (int at = start; at < end; at += buffer.length) {
+            int length = Math.min(buffer.length, end - at);
+            contents.get(at, buffer, 0, length);
+            out.write(buffer, 0, length);
+        }
+        if (end > start) {
+            atLineStart = contents.get(end - 1) == '\n';
+        }
+    }
+
+    /** Ends the last line written, if it has no newline, so that a
+     *  marker starts a line of its own. */
+    private void newline() throws IOException {
+        if (!atLineStart) {
+            out.write('\n');
+            atLineStart = true;
+        }
+    }
+
+    /** Returns true iff CONTENTS, which may be null, has a NUL byte near
+     *  its start, as binary files do and text files do not. */
+    static boolean isBinary(ByteBuffer contents) {
+        if (contents == null) {
+            return false;
+        }
+        for (int i = 0, n = Math.min(contents.limit(), BINARY_CHECK); i < n; i++) {
+            if (contents.get(i) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* CONFLICTED FILES */
+
+    /** Returns the files the last merge left conflicted, each mapped to
+     *  the version with markers that it committed. */
+    static SortedMap<String, String> conflicts() {
+        if (!CONFLICTS_FILE.isFile()) {
+            return new TreeMap<>();
+        }
+        return new TreeMap<>(Codec.readMap(CONFLICTS_FILE));
+    }
+
+    /** Records CONFLICTS as the files left conflicted. */
+    static void record(Map<String, String> conflicts) {
+        if (conflicts.isEmpty() && !CONFLICTS_FILE.isFile()) {
+            return;
+        }
+        Batch.writeThrough(CONFLICTS_FILE, Codec.encode(conflicts));
+    }
+
+    /** Notes that FILENAMES are no longer conflicted. */
+    static void resolved(Collection<String> filenames) {
+        SortedMap<String, String> conflicts = conflicts();
+        if (conflicts.keySet().removeAll(filenames)) {
+            record(conflicts);
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Predicate;
+
+import static gitlet.Directory.*;
+import static gitlet.Utils.*;
+
+/** An inverted index of commit messages, so that find never opens a
+ *  commit.  Messages are kept in an append-only log, one record per
+ *  commit after an 8-byte header:
+ *
+ *      UID (20 bytes) | message length (4 bytes) | message (UTF-8)
+ *
+ *  The log is indexed by immutable segments, each covering a contiguous
+ *  range of it.  A segment maps the key of every term that occurs in its
+ *  range (the whole message, each lower-case word and each lower-case
+ *  three-character substring) to the sorted offsets of the records it
+ *  occurs in: a HashIndex from the term's SHA-1 to a list in a postings
+ *  file.  Records appended since the last segment are searched linearly;
+ *  once there are TAIL_LIMIT of them they become a new segment, which is
+ *  merged with the segments before it that are at most twice its size.
+ *  Segment sizes thus grow geometrically, so a commit costs amortized
+ *  O(log n) index work and a query reads O(log n) segments.
+ *
+ *  Segment files are named after the range they cover.  Segments are found
+ *  by chaining, from the start of the log, the longest segment that begins
+ *  where the previous one ends, so a segment left behind by an interrupted
+ *  merge is simply ignored until the next merge deletes it.  A merge keeps
+ *  the segments it replaced for SEGMENT_GRACE milliseconds, for readers
+ *  that listed them before it finished. */
+class MessageIndex {
+    /** Magic numbers ("GMSG", "GMSP") and format version of the log and
+     *  of a postings file. */
+    private static final int LOG_MAGIC = 0x474d5347;
+    private static final int POSTINGS_MAGIC = 0x474d5350;
+    private static final int VERSION = 1;
+
+    /** Size of the header of both files, and of a record's fixed part. */
+    private static final int HEADER = 8;
+    private static final int RECORD = HashIndex.HASH_SIZE + 4;
+
+    /** Number of unindexed records that makes a new segment. */
+    private static final int TAIL_LIMIT = 256;
+
+    /** Age in milliseconds below which a replaced segment is kept. */
+    private static final long SEGMENT_GRACE = 60_000;
+
+    /** Prefixes of the three kinds of terms. */
+    private static final String EXACT = "=";
+    private static final String WORD = "w";
+    private static final String TRIGRAM = "t";
+
+    private final File log;
+    private final File dir;
+
+    /** An index whose log is LOG and whose segments are in DIR. */
+    MessageIndex(File log, File dir) {
+        this.log = log;
+        this.dir = dir;
+    }
+
+    /** Returns the index of this repository, building it from the commit
+     *  store first if the repository does not have one yet. */
+    static MessageIndex open() {
+        if (!MESSAGES_FILE.isFile()) {
+            rebuild();
+        }
+        return new MessageIndex(MESSAGES_FILE, MESSAGE_INDEX_DIR);
+    }
+
+    /** Adds COMMIT to the index of this repository.  Builds the whole index
+     *  instead if it does not exist. */
+    static void append(Commit commit) {
+        if (!MESSAGES_FILE.isFile()) {
+            rebuild();
+            return;
+        }
+        new MessageIndex(MESSAGES_FILE, MESSAGE_INDEX_DIR).add(commit.getUid(),
+                commit.getMessage());
+    }
+
+    /** Rebuilds the index of this repository from every commit in the
+     *  commit store. */
+    static void rebuild() {
+        Map<String, String> messages = new LinkedHashMap<>();
+        for (String id : COMMITS.ids()) {
+            messages.put(id, Commit.fromFile(id).getMessage());
+        }
+        new MessageIndex(MESSAGES_FILE, MESSAGE_INDEX_DIR).write(messages);
+    }
+
+    /** Replaces the contents of this index with MESSAGES, a map from
+     *  commit UIDs to their messages. */
+    void write(Map<String, String> messages) {
+        deleteSegments(Collections.emptyList(), 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(LOG_MAGIC);
+        header.putInt(VERSION);
+        out.write(header.array(), 0, HEADER);
+        for (Map.Entry<String, String> e : messages.entrySet()) {
+            byte[] record = record(e.getKey(), e.getValue());
+            out.write(record, 0, record.length);
+        }
+        replace(log, out.toByteArray());
+        if (!messages.isEmpty()) {
+            writeSegment(HEADER, log.length());
+        }
+    }
+
+    /** Appends the commit ID with MESSAGE to the log, and indexes the
+     *  records appended since the last segment if there are enough. */
+    void add(String id, String message) {
+        if (!log.isFile()) {
+            write(Collections.emptyMap());
+        }
+        ByteBuffer record = ByteBuffer.wrap(record(id, message));
+        try (FileChannel channel = FileChannel.open(log.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            if (channel.size() + record.remaining() > Integer.MAX_VALUE) {
+                throw error("Message index is full; run reindex.");
+            }
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        ByteBuffer buffer = map();
+        List<Segment> chain = segments();
+        long from = chain.isEmpty() ? HEADER : chain.get(chain.size() - 1).to;
+        int records = 0;
+        for (int pos = (int) from; pos < buffer.limit(); pos = next(buffer, pos)) {
+            records++;
+        }
+        if (records < TAIL_LIMIT) {
+            return;
+        }
+        while (!chain.isEmpty() && chain.get(chain.size() - 1).records <= 2 * records) {
+            Segment last = chain.remove(chain.size() - 1);
+            from = last.from;
+            records += last.records;
+        }
+        Segment merged = writeSegment(from, buffer.limit());
+        chain.add(merged);
+        deleteSegments(chain, SEGMENT_GRACE);
+    }
+
+    /** Returns the UIDs of the commits whose message is exactly MESSAGE. */
+    SortedSet<String> exact(String message) {
+        return search(List.of(EXACT + message), message::equals);
+    }
+
+    /** Returns the UIDs of the commits whose message contains every word
+     *  of TEXT, ignoring case.  A word is a run of letters and digits. */
+    SortedSet<String> words(String text) {
+        Set<String> wanted = words(text, new LinkedHashSet<>());
+        if (wanted.isEmpty()) {
+            return new TreeSet<>();
+        }
+        List<String> terms = new ArrayList<>();
+        for (String w : wanted) {
+            terms.add(WORD + w);
+        }
+        return search(terms, m -> words(m, new HashSet<>()).containsAll(wanted));
+    }
+
+    /** Returns the UIDs of the commits whose message contains TEXT,
+     *  ignoring case.  Texts shorter than three characters have no trigram
+     *  to look up and are matched against every message in the log. */
+    SortedSet<String> grep(String text) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        List<String> terms = new ArrayList<>();
+        for (String t : trigrams(lower, new LinkedHashSet<>())) {
+            terms.add(TRIGRAM + t);
+        }
+        return search(terms, m -> m.toLowerCase(Locale.ROOT).contains(lower));
+    }
+
+    /** Returns the UIDs of the commits whose messages contain all TERMS
+     *  and satisfy MATCHES.  Each segment yields the records holding every
+     *  term, which are checked with MATCHES to rule out hash collisions and
+     *  terms that only co-occur; the unindexed tail is checked directly.
+     *  With no TERMS, every record is checked. */
+    private SortedSet<String> search(List<String> terms, Predicate<String> matches) {
+        SortedSet<String> result = new TreeSet<>();
+        if (!log.isFile()) {
+            return result;
+        }
+        ByteBuffer buffer = map();
+        int tail = HEADER;
+        if (!terms.isEmpty()) {
+            List<byte[]> keys = new ArrayList<>();
+            for (String term : terms) {
+                keys.add(key(term));
+            }
+            for (Segment segment : segments()) {
+                for (int pos : segment.lookup(keys)) {
+                    check(buffer, pos, matches, result);
+                }
+                tail = (int) segment.to;
+            }
+        }
+        for (int pos = tail; pos < buffer.limit(); pos = next(buffer, pos)) {
+            check(buffer, pos, matches, result);
+        }
+        return result;
+    }
+
+    /** Adds the UID of the record at POS of BUFFER to RESULT if its
+     *  message satisfies MATCHES. */
+    private static void check(ByteBuffer buffer, int pos, Predicate<String> matches,
+                              Set<String> result) {
+        byte[] message = new byte[buffer.getInt(pos + HashIndex.HASH_SIZE)];
+        buffer.get(pos + RECORD, message);
+        if (matches.test(new String(message, StandardCharsets.UTF_8))) {
+            byte[] hash = new byte[HashIndex.HASH_SIZE];
+            buffer.get(pos, hash);
+            result.add(sha1Hex(hash));
+        }
+    }
+
+    /** Returns the offset of the record after the one at POS of BUFFER. */
+    private static int next(ByteBuffer buffer, int pos) {
+        return pos + RECORD + buffer.getInt(pos + HashIndex.HASH_SIZE);
+    }
+
+    /** Returns the log record of the commit ID with MESSAGE. */
+    private static byte[] record(String id, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(RECORD + bytes.length);
+        record.put(sha1Bytes(id));
+        record.putInt(bytes.length);
+        record.put(bytes);
+        return record.array();
+    }
+
+    /** Maps the log. */
+    private ByteBuffer map() {
+        try (FileChannel channel = FileChannel.open(log.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER || buffer.getInt(0) != LOG_MAGIC
+                    || buffer.getInt(4) != VERSION) {
+                throw error("Corrupt message index; run reindex.");
+            }
+            return buffer;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* TERMS */
+
+    /** Returns every term of MESSAGE. */
+    private static Set<String> terms(String message) {
+        Set<String> terms = new HashSet<>();
+        terms.add(EXACT + message);
+        for (String w : words(message, new HashSet<>())) {
+            terms.add(WORD + w);
+        }
+        for (String t : trigrams(message.toLowerCase(Locale.ROOT), new HashSet<>())) {
+            terms.add(TRIGRAM + t);
+        }
+        return terms;
+    }
+
+    /** Adds the lower-case words of TEXT to RESULT and returns it. */
+    private static Set<String> words(String text, Set<String> result) {
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                result.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    /** Adds the three-character substrings of LOWER to RESULT and returns
+     *  it. */
+    private static Set<String> trigrams(String lower, Set<String> result) {
+        for (int i = 0; i + 3 <= lower.length(); i++) {
+            result.add(lower.substring(i, i + 3));
+        }
+        return result;
+    }
+
+    /** Returns the key of TERM in a segment's HashIndex. */
+    private static byte[] key(String term) {
+        return sha1Digest().digest(term.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /* SEGMENTS */
+
+    /** The index of the log records in [FROM, TO). */
+    private static class Segment {
+        final long from;
+        final long to;
+        final int records;
+        private final HashIndex index;
+        private final ByteBuffer postings;
+
+        Segment(long from, long to, HashIndex index, ByteBuffer postings) {
+            if (postings.limit() < HEADER || postings.getInt(0) != POSTINGS_MAGIC) {
+                throw error("Corrupt message index; run reindex.");
+            }
+            this.from = from;
+            this.to = to;
+            this.records = postings.getInt(4);
+            this.index = index;
+            this.postings = postings;
+        }
+
+        /** Returns the sorted offsets of the records of this segment that
+         *  contain every term whose key is in KEYS. */
+        int[] lookup(List<byte[]> keys) {
+            List<int[]> lists = new ArrayList<>();
+            for (byte[] key : keys) {
+                int i = index.position(key);
+                if (i < 0) {
+                    return new int[0];
+                }
+                int offset = (int) index.valueAt(i);
+                int[] list = new int[postings.getInt(offset)];
+                for (int k = 0; k < list.length; k++) {
+                    list[k] = postings.getInt(offset + 4 + 4 * k);
+                }
+                lists.add(list);
+            }
+            lists.sort(Comparator.comparingInt(list -> list.length));
+            int[] result = lists.get(0);
+            for (int[] list : lists.subList(1, lists.size())) {
+                int n = 0;
+                for (int pos : result) {
+                    if (Arrays.binarySearch(list, pos) >= 0) {
+                        result[n++] = pos;
+                    }
+                }
+                result = Arrays.copyOf(result, n);
+            }
+            return result;
+        }
+    }
+
+    /** Returns the file of the segment covering [FROM, TO) with SUFFIX. */
+    private File segmentFile(long from, long to, String suffix) {
+        return join(dir, from + "-" + to + suffix);
+    }
+
+    /** Returns the chain of segments that covers the start of the log. */
+    private List<Segment> segments() {
+        Map<Long, Long> ends = new HashMap<>();
+        String[] names = dir.list();
+        for (String name : names == null ? new String[0] : names) {
+            if (name.endsWith(".idx")) {
+                String[] range = name.substring(0, name.length() - 4).split("-");
+                ends.merge(Long.parseLong(range[0]), Long.parseLong(range[1]), Math::max);
+            }
+        }
+        long end = log.length();
+        List<Segment> chain = new ArrayList<>();
+        for (Long from = (long) HEADER, to = ends.get(from); to != null && to <= end;
+             from = to, to = ends.get(from)) {
+            try (FileChannel channel = FileChannel.open(
+                    segmentFile(from, to, ".dat").toPath(), StandardOpenOption.READ)) {
+                chain.add(new Segment(from, to, HashIndex.open(segmentFile(from, to, ".idx")),
+                        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return chain;
+    }
+
+    /** Deletes every segment file at least GRACE milliseconds old except
+     *  those of the segments in KEEP. */
+    private void deleteSegments(List<Segment> keep, long grace) {
+        long before = System.currentTimeMillis() - grace;
+        Set<String> kept = new HashSet<>();
+        for (Segment s : keep) {
+            kept.add(segmentFile(s.from, s.to, ".idx").getName());
+            kept.add(segmentFile(s.from, s.to, ".dat").getName());
+        }
+        File[] files = dir.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            if (!kept.contains(file.getName()) && (grace == 0 || file.lastModified() < before)) {
+                file.delete();
+            }
+        }
+    }
+
+    /** Writes and returns the segment covering the log records in
+     *  [FROM, TO).  The postings file is written before the HashIndex that
+     *  makes the segment visible. */
+    private Segment writeSegment(long from, long to) {
+        ByteBuffer buffer = map();
+        Map<String, Postings> postings = new HashMap<>();
+        int records = 0;
+        for (int pos = (int) from; pos < to; pos = next(buffer, pos)) {
+            byte[] message = new byte[buffer.getInt(pos + HashIndex.HASH_SIZE)];
+            buffer.get(pos + RECORD, message);
+            for (String term : terms(new String(message, StandardCharsets.UTF_8))) {
+                postings.computeIfAbsent(term, t -> new Postings()).add(pos);
+            }
+            records++;
+        }
+
+        int size = HEADER;
+        for (Postings p : postings.values()) {
+            size += 4 + 4 * p.size;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(POSTINGS_MAGIC);
+        out.putInt(records);
+        List<HashIndex.Entry> entries = new ArrayList<>(postings.size());
+        for (Map.Entry<String, Postings> e : postings.entrySet()) {
+            entries.add(new HashIndex.Entry(key(e.getKey()), out.position()));
+            Postings p = e.getValue();
+            out.putInt(p.size);
+            for (int k = 0; k < p.size; k++) {
+                out.putInt(p.offsets[k]);
+            }
+        }
+
+        dir.mkdirs();
+        replace(segmentFile(from, to, ".dat"), out.array());
+        HashIndex.write(segmentFile(from, to, ".idx"), entries);
+        out.rewind();
+        return new Segment(from, to, HashIndex.open(segmentFile(from, to, ".idx")), out);
+    }
+
+    /** A growing list of record offsets. */
+    private static class Postings {
+        int[] offsets = new int[4];
+        int size;
+
+        void add(int offset) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            offsets[size++] = offset;
+        }
+    }
+
+    /** Writes CONTENTS beside FILE and renames it into place. */
+    private static void replace(File file, byte[] contents) {
+        File temp = new File(file.getPath() + ".tmp");
+        writeContents(temp, contents);
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,506 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/** A content-addressed store of objects named by their SHA-1 UIDs.
+ *  New objects are written loose, one file per object, sharded by the
+ *  first two hex digits of their UID: object abcdef... lives in
+ *  DIR/ab/cdef..., so no directory grows past 1/256 of the objects.  The pack
+ *  command appends the loose objects to an immutable packfile in DIR/pack,
+ *  together with a sorted, memory-mapped HashIndex from UID to offset, and
+ *  removes the loose copies.  When it is given a delta base for an object,
+ *  the pack stores the object as a Delta against that base, as long as the
+ *  chain of deltas above a full object stays at most MAX_DELTA_DEPTH long.
+ *  Every read goes through this class, so callers never care whether an
+ *  object is loose, packed, or rebuilt from a delta chain.
+ *
+ *  A store may also keep the decoded forms of recently read objects.
+ *  Objects never change once written, so cached ones never go stale. */
+class ObjectStore {
+    /** Magic number ("GPAK") and format version of a packfile. */
+    private static final int MAGIC = 0x4750414b;
+    private static final int VERSION = 1;
+
+    /** Type tags of a pack entry holding an object's full contents, and of
+     *  one holding a base UID, its chain depth and a Delta from that base. */
+    private static final byte FULL = 1;
+    private static final byte DELTA = 2;
+
+    /** Default limit on the length of a delta chain. */
+    static final int MAX_DELTA_DEPTH = 10;
+
+    /** Bytes of a pack entry's header: its type tag and its length. */
+    private static final int ENTRY_HEADER = 1 + 8;
+
+    /** A packfile and its index. */
+    private class Pack {
+        final FileChannel channel;
+        final HashIndex index;
+
+        Pack(File packFile, HashIndex index) throws IOException {
+            this.channel = new RandomAccessFile(packFile, "r").getChannel();
+            this.index = index;
+        }
+
+        /** Reads LENGTH bytes at OFFSET of this pack. */
+        ByteBuffer read(long offset, int length) {
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            try {
+                while (buf.hasRemaining()) {
+                    if (channel.read(buf, offset + buf.position()) < 0) {
+                        throw error("Truncated packfile.");
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            buf.flip();
+            return buf;
+        }
+
+        /** Returns the contents of the entry at position I of the index,
+         *  applying its delta to its base if it has one. */
+        byte[] contents(int i) {
+            long offset = index.valueAt(i);
+            ByteBuffer header = read(offset, ENTRY_HEADER);
+            byte type = header.get();
+            long length = header.getLong();
+            ByteBuffer body = read(offset + ENTRY_HEADER, (int) length);
+            if (type == FULL) {
+                return body.array();
+            } else if (type == DELTA) {
+                byte[] base = new byte[HashIndex.HASH_SIZE];
+                body.get(base);
+                body.getInt();
+                byte[] delta = new byte[body.remaining()];
+                body.get(delta);
+                return Delta.apply(ObjectStore.this.read(sha1Hex(base)), delta);
+            }
+            throw error("Unknown pack entry type %d.", type);
+        }
+
+        /** Returns the type tag of the entry at position I. */
+        byte type(int i) {
+            return read(index.valueAt(i), 1).get();
+        }
+
+        /** Returns the delta chain depth of the entry at position I. */
+        int depth(int i) {
+            if (type(i) == FULL) {
+                return 0;
+            }
+            return read(index.valueAt(i) + ENTRY_HEADER + HashIndex.HASH_SIZE, 4).getInt();
+        }
+    }
+
+    /** Directory holding the loose objects. */
+    private final File dir;
+
+    /** Directory holding the packfiles and their indices. */
+    private final File packDir;
+
+    /** The packs of this store, loaded on first use, and the modification
+     *  time of the pack directory when they were. */
+    private List<Pack> packs;
+    private long packsStamp;
+
+    /** Decoded objects, least recently used first, or null if this store
+     *  does not cache them. */
+    private final Map<String, Object> cache;
+
+    ObjectStore(File dir) {
+        this(dir, 0);
+    }
+
+    /** A store in DIR that keeps up to CACHESIZE decoded objects. */
+    ObjectStore(File dir, int cacheSize) {
+        this.dir = dir;
+        this.packDir = join(dir, "pack");
+        if (cacheSize > 0) {
+            this.cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                    return size() > cacheSize;
+                }
+            });
+        } else {
+            this.cache = null;
+        }
+    }
+
+    /** Returns the file that holds object ID when it is loose. */
+    File loose(String id) {
+        return join(dir, id.substring(0, 2), id.substring(2));
+    }
+
+    /** Returns the UIDs of the loose objects, in sorted order. */
+    List<String> looseIds() {
+        List<String> result = new ArrayList<>();
+        for (String shard : shards()) {
+            result.addAll(looseIds(shard));
+        }
+        return result;
+    }
+
+    /** Returns the names of the directories the loose objects are sharded
+     *  into, in sorted order. */
+    List<String> shards() {
+        List<String> result = new ArrayList<>();
+        String[] names = dir.list();
+        for (String name : names == null ? new String[0] : names) {
+            if (name.length() == 2) {
+                result.add(name);
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Returns the UIDs of the loose objects in SHARD, in sorted order. */
+    private List<String> looseIds(String shard) {
+        List<String> result = new ArrayList<>();
+        List<String> names = plainFilenamesIn(join(dir, shard));
+        if (names != null) {
+            for (String name : names) {
+                if (name.length() == UID_LENGTH - 2) {
+                    result.add(shard + name);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Deletes each loose object in SHARD whose UID is UNWANTED, and each
+     *  temporary file a crash left there, if it was last modified before
+     *  the time BEFORE.  Returns the number of objects and of bytes
+     *  deleted. */
+    long[] sweep(String shard, Predicate<String> unwanted, long before) {
+        long[] removed = new long[2];
+        File[] files = join(dir, shard).listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            String id = shard + file.getName();
+            boolean object = id.length() == UID_LENGTH;
+            if ((object ? unwanted.test(id) : file.getName().endsWith(".tmp"))
+                    && file.lastModified() < before) {
+                long length = file.length();
+                if (file.delete() && object) {
+                    removed[0]++;
+                    removed[1] += length;
+                    if (cache != null) {
+                        cache.remove(id);
+                    }
+                }
+            }
+        }
+        join(dir, shard).delete();
+        return removed;
+    }
+
+    /** Moves the loose objects of the old flat layout, DIR/abcdef..., into
+     *  their shards.  Returns the number of objects moved. */
+    int shard() throws IOException {
+        List<String> flat = plainFilenamesIn(dir);
+        int moved = 0;
+        for (String id : flat) {
+            if (id.length() != UID_LENGTH) {
+                continue;
+            }
+            File target = loose(id);
+            target.getParentFile().mkdir();
+            Files.move(join(dir, id).toPath(), target.toPath(), REPLACE_EXISTING);
+            moved++;
+        }
+        return moved;
+    }
+
+    /** Returns the packs of this store.  Synchronized because checkout
+     *  reads objects from several threads. */
+    private synchronized List<Pack> packs() {
+        if (packs == null) {
+            packsStamp = packDir.lastModified();
+            packs = new ArrayList<>();
+            String[] names = packDir.list();
+            if (names != null) {
+                Arrays.sort(names);
+                for (String name : names) {
+                    if (!name.endsWith(".idx")) {
+                        continue;
+                    }
+                    String base = name.substring(0, name.length() - 4);
+                    try {
+                        packs.add(new Pack(join(packDir, base + ".pack"),
+                                HashIndex.open(join(packDir, name))));
+                    } catch (IOException excp) {
+                        throw new IllegalArgumentException(excp.getMessage());
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /** Drops the loaded packs if another process has added or removed
+     *  packs since, so that a long-running process sees its objects. */
+    synchronized void refresh() {
+        if (packs != null && packDir.lastModified() != packsStamp) {
+            for (Pack pack : packs) {
+                try {
+                    pack.channel.close();
+                } catch (IOException excp) {
+                    // Nothing more can be read from it either way
+                }
+            }
+            packs = null;
+        }
+    }
+
+    /** Returns true iff object ID is in this store, loose or packed. */
+    boolean contains(String id) {
+        if (id == null || id.length() != UID_LENGTH) {
+            return false;
+        }
+        if (loose(id).isFile()) {
+            return true;
+        }
+        for (Pack pack : packs()) {
+            if (pack.index.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the contents of object ID. */
+    byte[] read(String id) {
+        File file = loose(id);
+        if (file.isFile()) {
+            try {
+                return readContents(file);
+            } catch (IllegalArgumentException excp) {
+                /** Packed by another process since; the new pack has it */
+            }
+        }
+        for (Pack pack : packs()) {
+            int i = pack.index.position(id);
+            if (i >= 0) {
+                return pack.contents(i);
+            }
+        }
+        throw error("No object with id %s.", id);
+    }
+
+    /** Writes CONTENTS as object ID, unless the store already has it.  The
+     *  object appears whole or not at all, and is logged with the journal. */
+    void write(String id, byte[] contents) {
+        if (!contains(id)) {
+            File file = loose(id);
+            file.getParentFile().mkdir();
+            writeAtomically(file, contents);
+            Journal.written(this, id);
+        }
+    }
+
+    /** Moves the file SOURCE, whose contents are object ID, into the
+     *  store.  If the store already has ID, SOURCE is simply deleted. */
+    void insert(String id, File source) throws IOException {
+        if (contains(id)) {
+            source.delete();
+        } else {
+            File file = loose(id);
+            file.getParentFile().mkdir();
+            Files.move(source.toPath(), file.toPath());
+            Journal.written(this, id);
+        }
+    }
+
+    /** Writes CONTENTS as object ID unless the store has an intact copy,
+     *  one whose hash is its UID.  Returns true iff it wrote the object. */
+    boolean repair(String id, byte[] contents) {
+        File file = loose(id);
+        if (file.isFile() ? sha1(readContents(file)).equals(id) : contains(id)) {
+            return false;
+        }
+        file.getParentFile().mkdir();
+        writeAtomically(file, contents);
+        if (cache != null) {
+            cache.remove(id);
+        }
+        return true;
+    }
+
+    /** Returns object ID as decoded from its contents by DECODER, from the
+     *  cache if it was read recently. */
+    @SuppressWarnings("unchecked")
+    <T> T read(String id, Function<byte[], T> decoder) {
+        if (cache == null) {
+            return decoder.apply(read(id));
+        }
+        Object value = cache.get(id);
+        if (value == null) {
+            value = decoder.apply(read(id));
+            cache.put(id, value);
+        }
+        return (T) value;
+    }
+
+    /** Returns the contents of object ID, mapped from its loose file
+     *  where it has one rather than read into memory. */
+    ByteBuffer map(String id) {
+        try (FileChannel channel = FileChannel.open(loose(id).toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            return ByteBuffer.wrap(read(id));
+        }
+    }
+
+    /** Writes the contents of object ID to TARGET, replacing TARGET and
+     *  creating the directories above it. */
+    void copyTo(String id, File target) throws IOException {
+        target.getParentFile().mkdirs();
+        File file = loose(id);
+        if (file.isFile()) {
+            Files.copy(file.toPath(), target.toPath(), REPLACE_EXISTING);
+        } else {
+            writeContents(target, read(id));
+        }
+    }
+
+    /** Returns the UIDs of all objects in this store, in sorted order. */
+    List<String> ids() {
+        TreeSet<String> result = new TreeSet<>(looseIds());
+        for (Pack pack : packs()) {
+            for (int i = 0; i < pack.index.size(); i++) {
+                result.add(pack.index.idAt(i));
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Appends every loose object to a new packfile, indexes it, and
+     *  removes the loose copies.  Returns the number of objects packed. */
+    int pack() throws IOException {
+        return pack(Collections.emptyMap(), MAX_DELTA_DEPTH);
+    }
+
+    /** As for pack(), but an object whose UID is a key of BASES is stored
+     *  as a delta against the object it maps to, when that saves space and
+     *  keeps its delta chain at most MAXDEPTH long. */
+    int pack(Map<String, String> bases, int maxDepth) throws IOException {
+        List<String> ids = basesFirst(looseIds(), bases);
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        packDir.mkdir();
+
+        File temp = join(packDir, "pack.tmp");
+        List<HashIndex.Entry> entries = new ArrayList<>();
+        Map<String, Integer> depths = new HashMap<>();
+        MessageDigest md = sha1Digest();
+        byte[] checksum;
+        try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)), md))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(ids.size());
+            long offset = 12;
+            for (String id : ids) {
+                byte[] contents = readContents(loose(id));
+                entries.add(new HashIndex.Entry(id, offset));
+
+                /** A base not yet written to this pack would form a cycle. */
+                String base = bases.get(id);
+                int depth = maxDepth + 1;
+                if (depths.containsKey(base)) {
+                    depth = depths.get(base) + 1;
+                } else if (base != null && !loose(base).isFile() && contains(base)) {
+                    depth = packedDepth(base) + 1;
+                }
+                byte[] delta = null;
+                if (depth <= maxDepth) {
+                    delta = Delta.encode(read(base), contents);
+                }
+
+                if (delta != null && delta.length < contents.length / 2) {
+                    depths.put(id, depth);
+                    out.writeByte(DELTA);
+                    out.writeLong(HashIndex.HASH_SIZE + 4 + delta.length);
+                    out.write(sha1Bytes(base));
+                    out.writeInt(depth);
+                    out.write(delta);
+                    offset += ENTRY_HEADER + HashIndex.HASH_SIZE + 4 + delta.length;
+                } else {
+                    depths.put(id, 0);
+                    out.writeByte(FULL);
+                    out.writeLong(contents.length);
+                    out.write(contents);
+                    offset += ENTRY_HEADER + contents.length;
+                }
+            }
+            checksum = md.digest();
+            out.write(checksum);
+        }
+
+        /** The index is written last: a pack without one is never read. */
+        String name = "pack-" + sha1Hex(checksum);
+        Files.move(temp.toPath(), join(packDir, name + ".pack").toPath(), REPLACE_EXISTING);
+        HashIndex.write(join(packDir, name + ".idx"), entries);
+        packs = null;
+
+        /** The loose copies are the only durable ones until the pack is. */
+        fsync(join(packDir, name + ".pack"));
+        fsync(join(packDir, name + ".idx"));
+        fsync(packDir);
+
+        for (String id : ids) {
+            File file = loose(id);
+            file.delete();
+            file.getParentFile().delete();
+        }
+        return ids.size();
+    }
+
+    /** Returns IDS reordered so that each object comes after the object
+     *  BASES maps it to, whenever both are in IDS. */
+    private static List<String> basesFirst(List<String> ids, Map<String, String> bases) {
+        Set<String> pending = new HashSet<>(ids);
+        List<String> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Deque<String> chain = new ArrayDeque<>();
+            for (String cur = id; cur != null && pending.remove(cur); cur = bases.get(cur)) {
+                chain.push(cur);
+            }
+            result.addAll(chain);
+        }
+        return result;
+    }
+
+    /** Returns the delta chain depth of the packed object ID, or 0 if it
+     *  is not packed. */
+    private int packedDepth(String id) {
+        for (Pack pack : packs()) {
+            int i = pack.index.position(id);
+            if (i >= 0) {
+                return pack.depth(i);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,529 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.Directory.*;
+import static gitlet.Utils.*;
+
+/** The branches of a repository and the symbolic HEAD that names the
+ *  current one.  A branch lives either as a loose ref, a file in
+ *  BRANCHES_DIR holding its commit UID, or in PACKED_REFS_FILE, a sorted,
+ *  memory-mapped table of many refs; a loose ref overrides a packed one,
+ *  and an empty loose ref marks a packed one as deleted.  HEAD holds
+ *  "ref: NAME", so moving a branch never rewrites HEAD.
+ *
+ *  Refs change only through a Transaction, which locks each ref it
+ *  touches by creating NAME.lock beside it, holding its process ID so
+ *  that a lock left by a crashed command can be taken over, checks that every ref still
+ *  has the value the caller expects, and then renames each new value into
+ *  place.  Every transaction is first logged, whole, to the repository's
+ *  Journal: once its record is there the transaction has happened, readers
+ *  take the refs it changes from the record until it is marked applied,
+ *  and the next writer to find a record left behind by a crash finishes
+ *  it.
+ *
+ *  The pack command folds the loose refs into the packed file, and so
+ *  does a transaction that creates a ref, or listing the refs in a
+ *  command that holds the writer lock, once there are more than
+ *  LOOSE_LIMIT loose ones, so resolving and listing stay fast with many
+ *  branches.  Readers never pack; they overlay the journal of a
+ *  transaction in progress on the refs they list. */
+class Refs {
+    /** Magic number ("GREF") and format version of the packed file. */
+    private static final int MAGIC = 0x47524546;
+    private static final int VERSION = 1;
+
+    /** Size of the packed file's header: magic, version, ref count.  The
+     *  header is followed by the offset of each record, and the records,
+     *  each a name length, the UTF-8 name and a raw UID, sorted by name. */
+    private static final int HEADER = 12;
+
+    /** Suffix of lock files. */
+    static final String LOCK = ".lock";
+
+    /** What HEAD holds before the name of the current branch. */
+    private static final String SYMBOLIC = "ref: ";
+
+    /** Number of loose refs above which they are packed. */
+    private static final int LOOSE_LIMIT = 1024;
+
+    /** Listing the loose refs costs as much as reading many of them, so a
+     *  transaction counts them only when it creates a ref whose name hashes
+     *  to 0 modulo SAMPLE. */
+    private static final int SAMPLE = 32;
+
+    /* HEAD */
+
+    /** Returns the name of the current branch. */
+    static String head() {
+        String text = new String(Batch.read(HEAD), StandardCharsets.UTF_8).trim();
+        if (!text.startsWith(SYMBOLIC)) {
+            throw error("Corrupt HEAD.");
+        }
+        return text.substring(SYMBOLIC.length());
+    }
+
+    /** Makes NAME the current branch.  HEAD is written at once even while
+     *  a batch runs, as its change is in the journal. */
+    static void setHead(String name) {
+        String text = HEAD.length() == 0 ? ""
+                : new String(Batch.read(HEAD), StandardCharsets.UTF_8).trim();
+        Journal.head(text.startsWith(SYMBOLIC) ? text.substring(SYMBOLIC.length()) : null, name);
+        Batch.writeThrough(HEAD, (SYMBOLIC + name + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Makes NAME the current branch if OLD still is: the journal's replay
+     *  of a change that a crash may have lost. */
+    static void replayHead(String old, String name) {
+        String text = HEAD.length() == 0 ? ""
+                : new String(Batch.read(HEAD), StandardCharsets.UTF_8).trim();
+        String current = text.startsWith(SYMBOLIC) ? text.substring(SYMBOLIC.length()) : null;
+        if (Objects.equals(current, old)) {
+            Batch.writeThrough(HEAD, (SYMBOLIC + name + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /* READING */
+
+    /** Returns true iff NAME can name a branch: it is not empty, does not
+     *  start with '.', and has no '/', control characters or lock suffix. */
+    static boolean isValidName(String name) {
+        if (name.isEmpty() || name.startsWith(".") || name.endsWith(LOCK)) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '/' || c == '\\' || Character.isISOControl(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the commit UID of branch NAME, or null if there is no such
+     *  branch. */
+    static String resolve(String name) {
+        if (name == null || !isValidName(name)) {
+            return null;
+        }
+        String snapshot = Snapshot.resolve(name);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        Map<String, String> pending = pending();
+        if (pending.containsKey(name)) {
+            return pending.get(name);
+        }
+        String id = readLoose(name);
+        if (id != null) {
+            return id.isEmpty() ? null : id;
+        }
+        Packed packed = Packed.open();
+        return packed == null ? null : packed.get(name);
+    }
+
+    /** Returns true iff branch NAME exists. */
+    static boolean exists(String name) {
+        return resolve(name) != null;
+    }
+
+    /** Returns a map from the name of every branch to its commit UID. */
+    static SortedMap<String, String> list() {
+        List<String> loose = looseNames();
+        if (loose.size() > LOOSE_LIMIT && autoPack()) {
+            loose = looseNames();
+        }
+        SortedMap<String, String> refs = new TreeMap<>();
+        Packed packed = Packed.open();
+        if (packed != null) {
+            for (int i = 0; i < packed.count; i++) {
+                refs.put(packed.nameAt(i), packed.idAt(i));
+            }
+        }
+        for (String name : loose) {
+            String id = readLoose(name);
+            if (id == null) {
+                /** Packed since it was listed; the packed file now has it */
+                return list();
+            } else if (id.isEmpty()) {
+                refs.remove(name);
+            } else {
+                refs.put(name, id);
+            }
+        }
+        for (Map.Entry<String, String> e : pending().entrySet()) {
+            if (e.getValue() == null) {
+                refs.remove(e.getKey());
+            } else {
+                refs.put(e.getKey(), e.getValue());
+            }
+        }
+        return refs;
+    }
+
+    /** Returns the ref changes of a transaction that a writer has logged
+     *  but may not have finished applying, for a reader to see it whole;
+     *  see Journal.pendingRefs.  A writer sees the refs as they are. */
+    private static Map<String, String> pending() {
+        return WriterLock.held() ? Collections.emptyMap() : Journal.pendingRefs();
+    }
+
+    /** Returns the contents of the loose ref NAME, which are empty if it
+     *  is deleted, or null if there is no loose ref NAME.  The pack command
+     *  of another process may remove it at any time. */
+    private static String readLoose(String name) {
+        File loose = join(BRANCHES_DIR, name);
+        try {
+            return loose.isFile() ? readContentsAsString(loose).trim() : null;
+        } catch (IllegalArgumentException excp) {
+            return null;
+        }
+    }
+
+    /** Returns the names of the loose refs, including deleted ones. */
+    private static List<String> looseNames() {
+        List<String> names = new ArrayList<>();
+        List<String> files = plainFilenamesIn(BRANCHES_DIR);
+        for (String name : files == null ? List.<String>of() : files) {
+            if (isValidName(name)) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /** Returns about the number of loose refs, counting lock files too,
+     *  without reading any of them. */
+    private static int looseCount() {
+        String[] names = BRANCHES_DIR.list();
+        return names == null ? 0 : names.length;
+    }
+
+    /** Packs the refs, unless this thread does not hold the writer lock,
+     *  as readers must not change the repository, or another command holds
+     *  a lock.  Returns true iff they were packed. */
+    private static boolean autoPack() {
+        if (!WriterLock.held()) {
+            return false;
+        }
+        try {
+            pack();
+            return true;
+        } catch (GitletException excp) {
+            return false;
+        }
+    }
+
+    /* WRITING */
+
+    /** A set of ref changes that happen together or not at all. */
+    static class Transaction {
+        /** Each ref changed, mapped to its new UID, or to null if it is
+         *  deleted. */
+        private final SortedMap<String, String> updates = new TreeMap<>();
+
+        /** The UID each ref must have for the transaction to go ahead, or
+         *  null if it must not exist; refs changed unconditionally are not
+         *  in this map. */
+        private final Map<String, String> expected = new HashMap<>();
+
+        /** Sets branch NAME to ID, provided it is still at OLD, or still
+         *  does not exist if OLD is null. */
+        Transaction update(String name, String old, String id) {
+            force(name, id);
+            expected.put(name, old);
+            return this;
+        }
+
+        /** Creates branch NAME at ID, provided it does not exist. */
+        Transaction create(String name, String id) {
+            return update(name, null, id);
+        }
+
+        /** Sets branch NAME to ID whatever its value. */
+        Transaction force(String name, String id) {
+            if (!isValidName(name)) {
+                throw new GitletException("Invalid branch name.");
+            }
+            updates.put(name, id);
+            return this;
+        }
+
+        /** Deletes branch NAME, provided it is still at OLD. */
+        Transaction delete(String name, String old) {
+            force(name, null);
+            expected.put(name, old);
+            return this;
+        }
+
+        /** Applies the changes.  Throws a GitletException, having changed
+         *  nothing, if a ref is locked by another command or no longer has
+         *  its expected value. */
+        void commit() {
+            if (updates.isEmpty()) {
+                return;
+            }
+            List<File> locks = new ArrayList<>();
+            try {
+                for (String name : updates.keySet()) {
+                    File lock = join(BRANCHES_DIR, name + LOCK);
+                    if (!lock(lock)) {
+                        throw new GitletException("Unable to lock branch " + name
+                                + "; another command is using it.");
+                    }
+                    locks.add(lock);
+                }
+                for (Map.Entry<String, String> e : expected.entrySet()) {
+                    if (!Objects.equals(resolve(e.getKey()), e.getValue())) {
+                        throw new GitletException("Branch " + e.getKey()
+                                + " was changed by another command.");
+                    }
+                }
+                Map<String, String[]> changes = new TreeMap<>();
+                for (Map.Entry<String, String> e : updates.entrySet()) {
+                    String name = e.getKey();
+                    String old = expected.containsKey(name) ? expected.get(name) : resolve(name);
+                    changes.put(name, new String[] {old, e.getValue()});
+                }
+                Journal.refs(changes);
+                for (Map.Entry<String, String> e : updates.entrySet()) {
+                    apply(e.getKey(), e.getValue());
+                }
+                Journal.crashPoint("refs applied");
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            } finally {
+                for (File lock : locks) {
+                    lock.delete();
+                }
+            }
+            for (Map.Entry<String, String> e : expected.entrySet()) {
+                if (e.getValue() == null && Math.floorMod(e.getKey().hashCode(), SAMPLE) == 0
+                        && looseCount() > LOOSE_LIMIT) {
+                    autoPack();
+                    break;
+                }
+            }
+        }
+    }
+
+    /** Takes the lock file LOCK, writing into it the ID of this process,
+     *  and first removing one that a process which has since exited left
+     *  behind.  Returns false if a running process holds LOCK. */
+    private static boolean lock(File lock) throws IOException {
+        if (!lock.createNewFile()
+                && !(isStale(lock) && lock.delete() && lock.createNewFile())) {
+            return false;
+        }
+        writeContents(lock, Long.toString(ProcessHandle.current().pid()));
+        return true;
+    }
+
+    /** Returns true iff LOCK names a process that is no longer running.  A
+     *  lock still being written, or holding a new ref value about to be
+     *  renamed into place, is not stale. */
+    private static boolean isStale(File lock) {
+        try {
+            long pid = Long.parseLong(readContentsAsString(lock).trim());
+            return ProcessHandle.of(pid).map(p -> !p.isAlive()).orElse(true);
+        } catch (IllegalArgumentException excp) {
+            return false;
+        }
+    }
+
+    /** Returns a new, empty transaction. */
+    static Transaction transaction() {
+        return new Transaction();
+    }
+
+    /** Sets the loose ref NAME to ID, or deletes it if ID is null, by
+     *  writing its lock file and renaming that into place.  A deleted ref
+     *  that is also packed is left as an empty loose ref. */
+    private static void apply(String name, String id) throws IOException {
+        File loose = join(BRANCHES_DIR, name);
+        File lock = join(BRANCHES_DIR, name + LOCK);
+        if (id == null) {
+            Packed packed = Packed.open();
+            if (packed == null || packed.get(name) == null) {
+                loose.delete();
+                return;
+            }
+        }
+        writeContents(lock, id == null ? "" : id);
+        Files.move(lock.toPath(), loose.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Sets branch NAME to ID, or deletes it if ID is null, provided it is
+     *  still at OLD: the journal's replay of a change that a crash may have
+     *  lost. */
+    static void replay(String name, String old, String id) throws IOException {
+        if (Objects.equals(resolve(name), old)) {
+            apply(name, id);
+        }
+    }
+
+    /* PACKING */
+
+    /** Moves every loose ref into the packed file.  The packed file and
+     *  each loose ref are locked while they are read and replaced. */
+    static void pack() {
+        File packedLock = new File(PACKED_REFS_FILE.getPath() + LOCK);
+        List<File> locks = new ArrayList<>();
+        try {
+            if (!lock(packedLock)) {
+                throw new GitletException("Unable to lock the packed refs; "
+                        + "another command is using them.");
+            }
+            locks.add(packedLock);
+            List<String> names = looseNames();
+            for (String name : names) {
+                File lock = join(BRANCHES_DIR, name + LOCK);
+                if (!lock(lock)) {
+                    throw new GitletException("Unable to lock branch " + name
+                            + "; another command is using it.");
+                }
+                locks.add(lock);
+            }
+
+            SortedMap<String, String> refs = new TreeMap<>();
+            Packed packed = Packed.open();
+            if (packed != null) {
+                for (int i = 0; i < packed.count; i++) {
+                    refs.put(packed.nameAt(i), packed.idAt(i));
+                }
+            }
+            for (String name : names) {
+                String id = readContentsAsString(join(BRANCHES_DIR, name)).trim();
+                if (id.isEmpty()) {
+                    refs.remove(name);
+                } else {
+                    refs.put(name, id);
+                }
+            }
+            writeContents(packedLock, Packed.encode(refs));
+            Files.move(packedLock.toPath(), PACKED_REFS_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (String name : names) {
+                join(BRANCHES_DIR, name).delete();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            for (File lock : locks) {
+                lock.delete();
+            }
+        }
+    }
+
+    /** The mapped packed file. */
+    private static class Packed {
+        private final ByteBuffer buffer;
+        final int count;
+
+        private Packed(ByteBuffer buffer) {
+            if (buffer.limit() < HEADER || buffer.getInt(0) != MAGIC
+                    || buffer.getInt(4) != VERSION) {
+                throw error("Corrupt packed refs.");
+            }
+            this.buffer = buffer;
+            this.count = buffer.getInt(8);
+        }
+
+        /** The file last mapped by open, and its length and modification
+         *  time when it was. */
+        private static Packed cached;
+        private static long[] cachedStamp;
+
+        /** Maps the packed file, or returns null if there is none.  The
+         *  mapping is reused for as long as the file does not change. */
+        static synchronized Packed open() {
+            if (!PACKED_REFS_FILE.isFile()) {
+                return null;
+            }
+            long[] stamp = {PACKED_REFS_FILE.length(), PACKED_REFS_FILE.lastModified()};
+            if (cached != null && Arrays.equals(stamp, cachedStamp)) {
+                return cached;
+            }
+            try (FileChannel channel = FileChannel.open(PACKED_REFS_FILE.toPath(),
+                    StandardOpenOption.READ)) {
+                cached = new Packed(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                cachedStamp = stamp;
+                return cached;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Returns the encoding of REFS, a map from names to UIDs. */
+        static byte[] encode(SortedMap<String, String> refs) {
+            List<byte[]> names = new ArrayList<>(refs.size());
+            int size = HEADER + 4 * refs.size();
+            for (String name : refs.keySet()) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                names.add(bytes);
+                size += 4 + bytes.length + HashIndex.HASH_SIZE;
+            }
+            ByteBuffer out = ByteBuffer.allocate(size);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(refs.size());
+            int offset = HEADER + 4 * refs.size();
+            for (byte[] name : names) {
+                out.putInt(offset);
+                offset += 4 + name.length + HashIndex.HASH_SIZE;
+            }
+            int i = 0;
+            for (String id : refs.values()) {
+                byte[] name = names.get(i++);
+                out.putInt(name.length);
+                out.put(name);
+                out.put(sha1Bytes(id));
+            }
+            return out.array();
+        }
+
+        /** Returns the name of the I-th ref. */
+        String nameAt(int i) {
+            int offset = buffer.getInt(HEADER + 4 * i);
+            byte[] name = new byte[buffer.getInt(offset)];
+            buffer.get(offset + 4, name);
+            return new String(name, StandardCharsets.UTF_8);
+        }
+
+        /** Returns the UID of the I-th ref. */
+        String idAt(int i) {
+            int offset = buffer.getInt(HEADER + 4 * i);
+            byte[] hash = new byte[HashIndex.HASH_SIZE];
+            buffer.get(offset + 4 + buffer.getInt(offset), hash);
+            return sha1Hex(hash);
+        }
+
+        /** Returns the UID of ref NAME, found by binary search, or null if
+         *  it is not packed. */
+        String get(String name) {
+            int lo = 0;
+            int hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = nameAt(mid).compareTo(name);
+                if (cmp == 0) {
+                    return idAt(mid);
+                } else if (cmp < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return null;
+        }
+    }
+}
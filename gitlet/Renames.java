@@ -0,0 +1,350 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static gitlet.Directory.*;
+import static gitlet.Utils.*;
+
+/** Finds the files that were renamed between two versions, for diff,
+ *  status and merge.
+ *
+ *  A file that disappeared is paired with one that appeared if they have
+ *  the same blob, and otherwise if their contents are similar enough:
+ *  at least -Dgitlet.renameThreshold percent (50 by default; 100 pairs
+ *  only identical files).  Similarity is estimated from a sketch of each
+ *  blob, the MinHash of the set of its shingles, each shingle being a
+ *  line and the line before it: for each of SKETCH_SIZE hash functions,
+ *  the least hash of any shingle.  The fraction of those minima that two
+ *  sketches share estimates the fraction of shingles the blobs share.
+ *
+ *  Pairs are never all compared.  The sketches are cut into bands of
+ *  BAND values, and only a file that shares a whole band with a file that
+ *  disappeared is compared with it, which finds almost every pair above
+ *  the threshold.  Bands shared by more than BUCKET_LIMIT files come from
+ *  boilerplate lines and are passed over.  Candidates are then paired off
+ *  greedily, the most similar first, each file in one pair at most.
+ *
+ *  Blobs never change, so their sketches are kept in SKETCHES_FILE and
+ *  computed once; gc drops those of the blobs it collects. */
+class Renames {
+    /** Magic number ("GSKT") and format version of the sketch file. */
+    private static final int MAGIC = 0x47534b54;
+    private static final int VERSION = 1;
+
+    /** Number of minima in a sketch, and in a band of one. */
+    private static final int SKETCH_SIZE = 64;
+    private static final int BAND = 2;
+
+    /** Most files that disappeared whose band may match a file. */
+    private static final int BUCKET_LIMIT = 64;
+
+    /** Least similarity, in percent, of a pair of renamed files. */
+    static final int THRESHOLD = Integer.getInteger("gitlet.renameThreshold", 50);
+
+    /** Seeds of the hash functions of a sketch. */
+    private static final long[] SEEDS = new long[SKETCH_SIZE];
+
+    static {
+        long seed = 0x9e3779b97f4a7c15L;
+        for (int i = 0; i < SKETCH_SIZE; i++) {
+            seed = mix(seed + i);
+            SEEDS[i] = seed | 1;
+        }
+    }
+
+    /** A file renamed from one path to another, and the similarity of its
+     *  versions in percent. */
+    static class Rename {
+        final String from;
+        final String to;
+        final int similarity;
+
+        Rename(String from, String to, int similarity) {
+            this.from = from;
+            this.to = to;
+            this.similarity = similarity;
+        }
+    }
+
+    /** Returns the files renamed from a path in GONE to one in ADDED, each
+     *  mapping paths to blobs, in the order of their new paths.  CONTENTS
+     *  gives the contents of a blob. */
+    static List<Rename> find(Map<String, String> gone, Map<String, String> added,
+                             Function<String, ByteBuffer> contents) {
+        long start = System.nanoTime();
+        List<Rename> renames = new ArrayList<>();
+        if (gone.isEmpty() || added.isEmpty()) {
+            return renames;
+        }
+
+        /* Identical files first, by blob UID */
+        Map<String, Deque<String>> goneByBlob = new HashMap<>();
+        for (Map.Entry<String, String> e : new TreeMap<>(gone).entrySet()) {
+            goneByBlob.computeIfAbsent(e.getValue(), k -> new ArrayDeque<>()).add(e.getKey());
+        }
+        List<String> fromPaths = new ArrayList<>();
+        List<String> toPaths = new ArrayList<>();
+        for (Map.Entry<String, String> e : new TreeMap<>(added).entrySet()) {
+            Deque<String> same = goneByBlob.get(e.getValue());
+            if (same != null && !same.isEmpty()) {
+                renames.add(new Rename(same.poll(), e.getKey(), 100));
+            } else {
+                toPaths.add(e.getKey());
+            }
+        }
+        for (Deque<String> left : goneByBlob.values()) {
+            fromPaths.addAll(left);
+        }
+        Collections.sort(fromPaths);
+        int exact = renames.size();
+        if (THRESHOLD >= 100 || fromPaths.isEmpty() || toPaths.isEmpty()) {
+            renames.sort(Comparator.comparing(r -> r.to));
+            return renames;
+        }
+
+        /* Then similar ones, by sketch */
+        Set<String> blobs = new HashSet<>();
+        for (String path : fromPaths) {
+            blobs.add(gone.get(path));
+        }
+        for (String path : toPaths) {
+            blobs.add(added.get(path));
+        }
+        Map<String, int[]> sketches = sketches(blobs, contents);
+
+        Map<Long, List<Integer>> buckets = new HashMap<>();
+        for (int i = 0; i < fromPaths.size(); i++) {
+            int[] sketch = sketches.get(gone.get(fromPaths.get(i)));
+            if (sketch == null) {
+                continue;
+            }
+            for (int band = 0; band < SKETCH_SIZE; band += BAND) {
+                buckets.computeIfAbsent(key(sketch, band), k -> new ArrayList<>()).add(i);
+            }
+        }
+        List<int[]> candidates = new ArrayList<>();
+        int[] seen = new int[fromPaths.size()];
+        Arrays.fill(seen, -1);
+        for (int j = 0; j < toPaths.size(); j++) {
+            int[] sketch = sketches.get(added.get(toPaths.get(j)));
+            if (sketch == null) {
+                continue;
+            }
+            for (int band = 0; band < SKETCH_SIZE; band += BAND) {
+                List<Integer> bucket = buckets.get(key(sketch, band));
+                if (bucket == null || bucket.size() > BUCKET_LIMIT) {
+                    continue;
+                }
+                for (int i : bucket) {
+                    if (seen[i] == j) {
+                        continue;
+                    }
+                    seen[i] = j;
+                    int similarity = similarity(sketches.get(gone.get(fromPaths.get(i))), sketch);
+                    if (similarity >= THRESHOLD) {
+                        candidates.add(new int[] {similarity, i, j});
+                    }
+                }
+            }
+        }
+        candidates.sort((x, y) -> x[0] != y[0] ? y[0] - x[0]
+                : x[1] != y[1] ? x[1] - y[1] : x[2] - y[2]);
+        boolean[] fromUsed = new boolean[fromPaths.size()];
+        boolean[] toUsed = new boolean[toPaths.size()];
+        for (int[] c : candidates) {
+            if (!fromUsed[c[1]] && !toUsed[c[2]]) {
+                fromUsed[c[1]] = true;
+                toUsed[c[2]] = true;
+                renames.add(new Rename(fromPaths.get(c[1]), toPaths.get(c[2]), c[0]));
+            }
+        }
+        renames.sort(Comparator.comparing(r -> r.to));
+        Helper.timing("renames: %d gone, %d added, %d identical, %d similar of %d candidates, "
+                + "%.3f ms", gone.size(), added.size(), exact, renames.size() - exact,
+                candidates.size(), (System.nanoTime() - start) / 1e6);
+        return renames;
+    }
+
+    /** Returns the key of the band of SKETCH that starts at value BAND. */
+    private static long key(int[] sketch, int band) {
+        long key = band;
+        for (int i = band; i < band + BAND; i++) {
+            key = key * 0x100000001b3L + sketch[i];
+        }
+        return mix(key);
+    }
+
+    /** Returns the percentage of the minima that sketches A and B share. */
+    private static int similarity(int[] a, int[] b) {
+        int same = 0;
+        for (int i = 0; i < SKETCH_SIZE; i++) {
+            if (a[i] == b[i]) {
+                same++;
+            }
+        }
+        return same * 100 / SKETCH_SIZE;
+    }
+
+    /** Returns the sketch of CONTENTS, or null if it is empty. */
+    static int[] sketch(ByteBuffer contents) {
+        int limit = contents.limit();
+        if (limit == 0) {
+            return null;
+        }
+        long[] minima = new long[SKETCH_SIZE];
+        Arrays.fill(minima, Long.MAX_VALUE);
+        long previous = 0;
+        for (int start = 0; start < limit; ) {
+            long hash = 0xcbf29ce484222325L;
+            int at = start;
+            while (at < limit) {
+                byte b = contents.get(at++);
+                hash = (hash ^ b) * 0x100000001b3L;
+                if (b == '\n') {
+                    break;
+                }
+            }
+            long shingle = mix(previous * 31 + hash);
+            for (int i = 0; i < SKETCH_SIZE; i++) {
+                long h = (shingle ^ SEEDS[i]) * SEEDS[i];
+                h ^= h >>> 29;
+                if (h < minima[i]) {
+                    minima[i] = h;
+                }
+            }
+            previous = hash;
+            start = at;
+        }
+        int[] sketch = new int[SKETCH_SIZE];
+        for (int i = 0; i < SKETCH_SIZE; i++) {
+            sketch[i] = (int) (minima[i] >>> 32);
+        }
+        return sketch;
+    }
+
+    /** Returns a finalizer of splitmix64 applied to X. */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    /* SKETCH CACHE */
+
+    /** Returns the sketches of BLOBS, leaving out empty ones, computing
+     *  the ones not in SKETCHES_FILE in parallel from CONTENTS and adding
+     *  them to it. */
+    private static Map<String, int[]> sketches(Set<String> blobs,
+                                               Function<String, ByteBuffer> contents) {
+        long start = System.nanoTime();
+        Map<String, int[]> cache = load();
+        List<String> missing = new ArrayList<>();
+        for (String blob : blobs) {
+            if (!cache.containsKey(blob)) {
+                missing.add(blob);
+            }
+        }
+        if (!missing.isEmpty()) {
+            List<int[]> computed = WorkTree.POOL.submit(() -> missing.parallelStream()
+                    .map(blob -> {
+                        int[] sketch = sketch(contents.apply(blob));
+                        return sketch == null ? new int[0] : sketch;
+                    }).collect(Collectors.toList())).join();
+            for (int i = 0; i < missing.size(); i++) {
+                cache.put(missing.get(i), computed.get(i));
+            }
+            save(cache);
+        }
+        Helper.timing("sketches: %d cached, %d computed, %.3f ms", blobs.size() - missing.size(),
+                missing.size(), (System.nanoTime() - start) / 1e6);
+        Map<String, int[]> result = new HashMap<>();
+        for (String blob : blobs) {
+            int[] sketch = cache.get(blob);
+            if (sketch.length == SKETCH_SIZE) {
+                result.put(blob, sketch);
+            }
+        }
+        return result;
+    }
+
+    /** Drops from SKETCHES_FILE the sketches of the blobs not in KEEP. */
+    static void retain(Set<String> keep) {
+        Map<String, int[]> cache = load();
+        if (cache.keySet().retainAll(keep)) {
+            save(cache);
+        }
+    }
+
+    /** Returns the sketches in SKETCHES_FILE, an empty one standing for
+     *  an empty blob, or none if it is missing or unreadable. */
+    private static Map<String, int[]> load() {
+        Map<String, int[]> cache = new HashMap<>();
+        if (!SKETCHES_FILE.isFile()) {
+            return cache;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(readContents(SKETCHES_FILE)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readInt() != SKETCH_SIZE) {
+                return cache;
+            }
+            byte[] hash = new byte[HashIndex.HASH_SIZE];
+            for (int n = in.readInt(); n > 0; n--) {
+                in.readFully(hash);
+                int[] sketch = new int[in.readBoolean() ? SKETCH_SIZE : 0];
+                for (int i = 0; i < sketch.length; i++) {
+                    sketch[i] = in.readInt();
+                }
+                cache.put(sha1Hex(hash), sketch);
+            }
+            return cache;
+        } catch (IOException | IllegalArgumentException excp) {
+            return new HashMap<>();
+        }
+    }
+
+    /** Replaces SKETCHES_FILE with CACHE, if it can.  Readers save the
+     *  cache too, without the writer lock, so each writes a temporary file
+     *  of its own; whichever is renamed last wins, and as only a cache is
+     *  lost, a failure to save it is ignored. */
+    private static void save(Map<String, int[]> cache) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(SKETCH_SIZE);
+            out.writeInt(cache.size());
+            for (Map.Entry<String, int[]> e : cache.entrySet()) {
+                out.write(sha1Bytes(e.getKey()));
+                out.writeBoolean(e.getValue().length > 0);
+                for (int value : e.getValue()) {
+                    out.writeInt(value);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        File temp = null;
+        try {
+            temp = File.createTempFile("sketches", ".tmp", GITLET_DIR);
+            writeContents(temp, bytes.toByteArray());
+            Files.move(temp.toPath(), SKETCHES_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | IllegalArgumentException excp) {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+}
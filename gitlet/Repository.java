@@ -1,8 +1,6 @@
 package gitlet;
 import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
-import java.nio.file.Files;
 import java.util.*;
 import static gitlet.Utils.*;
 import static gitlet.Directory.*;
@@ -30,66 +28,71 @@ public class Repository {
 
         Directory.initDirectory();
 
-        // Creates a new Commit object and save to a file
+        // Creates a new Commit object and save to a file and the commit graph
         Commit init = new Commit("initial commit");
         init.writeCommit();
 
-        // Creates a new master branch
-        Branch branch = new Branch("master", init.getUid());
-        branch.writeBranch();
-
-        // Creates a new vertex in graph
-        graph.addVertex(init.getUid());
-        writeObject(GRAPH_FILE, (Serializable) graph);
-
-        // Update Head pointer pointing to the initial commit
-        updatePointer(branch);
+        // Creates a new master branch and makes it the current branch
+        Refs.transaction().create("master", init.getUid()).commit();
+        Refs.setHead("master");
 
     }
 
-    /** Adds a copy of the file as it currently exists in the STAGING AREA. */
+    /** Adds a copy of the file as it currently exists in the STAGING AREA.
+     *  FILENAME may name a directory, in which case every file under it is
+     *  added. */
     public static void add(String filename) throws IOException {
-        File fileCWD = join(CWD, filename);
+        String path = normalize(filename);
+        File fileCWD = join(CWD, path);
 
         /** If FILE does not exist, program will just exit */
         Validate.NoFileExists(fileCWD);
-
-        /** Read contents of a file from Working Directory */
-        String contents = readContentsAsString(fileCWD);
-        String version = sha1(contents);
+        Collection<String> paths = fileCWD.isDirectory()
+                ? WorkTree.walk(path) : Collections.singletonList(path);
 
         /** Loading StageAdd hashmap */
-        stageAdd = readObject(STAGE_ADD_FILE, HashMap.class);
-        stageRmv = readObject(STAGE_REMOVE_FILE, HashMap.class);
+        stageAdd = Codec.readMap(STAGE_ADD_FILE);
+        stageRmv = Codec.readMap(STAGE_REMOVE_FILE);
 
-        /** Copy the contents of a file from Working directory into
-         * Staging Area hashmap, STAGE_ADD */
-        File versionPath = join(STAGE_DIR, version);
-        Files.copy(fileCWD.toPath(), versionPath.toPath());
-        stageAdd.put(filename, version);
-
-        /** If the CWD version is identical to a tracked version in the commit,
-         *      remove from staging area. */
         String head = readHeadCommitUID();
         Commit commit = fromFile(head);
-        if (isFileTracked(commit, filename) && fileCWD.exists()) {
-            if (commit.blobs.containsValue(version)) {
-
-                /** if file is in the stage for addition, remove that file from
-                 *      stage for removal */
-                boolean inStageAdd = stageAdd.containsValue(version);
-                boolean inStageRmv = stageRmv.containsValue(version);
-                if (inStageAdd) {
-                    stageRmv.remove(filename);
-                }
-                stageAdd.remove(filename);
-            }
+        Index index = Index.read();
+        for (String p : paths) {
+            add(p, index, commit);
         }
+        index.write();
+        Merge.resolved(paths);
 
         /** Writes changes on stage_add to a file */
-        writeObject(STAGE_ADD_FILE, (Serializable) stageAdd);
-        writeObject(STAGE_REMOVE_FILE, (Serializable) stageRmv);
+        Codec.writeMap(STAGE_ADD_FILE, stageAdd);
+        Codec.writeMap(STAGE_REMOVE_FILE, stageRmv);
+
+    }
+
+    /** Stages the file at PATH against the HEAD commit COMMIT. */
+    private static void add(String path, Index index, Commit commit) throws IOException {
+        File fileCWD = join(CWD, path);
+
+        /** Hash the raw bytes of the file while copying them into the
+         *  Staging Area, unless the stat cache shows the file is unchanged
+         *  or that version is already stored */
+        String version = stageFile(fileCWD, index, path);
 
+        /** Record the staged version in Staging Area hashmap, STAGE_ADD */
+        stageAdd.put(path, version);
+
+        /** If the CWD version is identical to a tracked version in the commit,
+         *      remove from staging area. */
+        if (version.equals(commit.getBlob(path))) {
+
+            /** if file is in the stage for addition, remove that file from
+             *      stage for removal */
+            boolean inStageAdd = stageAdd.containsValue(version);
+            if (inStageAdd) {
+                stageRmv.remove(path);
+            }
+            stageAdd.remove(path);
+        }
     }
 
     /** Saves a snapshot of certain files in the current commit and staging
@@ -97,8 +100,8 @@ public class Repository {
      * */
     public static void commit(String msg) throws IOException {
         /** Load the Stage maps */
-        stageAdd = readObject(STAGE_ADD_FILE, HashMap.class);
-        stageRmv = readObject(STAGE_REMOVE_FILE, HashMap.class);
+        stageAdd = Codec.readMap(STAGE_ADD_FILE);
+        stageRmv = Codec.readMap(STAGE_REMOVE_FILE);
         Validate.noFilesStages();
         commit(msg, null);
     }
@@ -115,41 +118,41 @@ public class Repository {
         Set<String> keys = stageAdd.keySet();
         for (String key : keys) {
             String stageValue = stageAdd.get(key);
-            currentCommit.blobs.put(key, stageValue);
+            currentCommit.track(key, stageValue);
         }
 
         /** Use the staging are to remove the files from blobs to be tracked */
         Set<String> rmvKeys = stageRmv.keySet();
-        Set<String> blobsKeys = currentCommit.blobs.keySet();
         for (String key : rmvKeys) {
-            if (blobsKeys.contains(key)) {
-                currentCommit.blobs.remove(key);
-            }
+            currentCommit.untrack(key);
         }
 
-        /** Write the new commit with secondParent */
-        currentCommit.writeCommit();
-
-        /** Update the active pointers */
-        Branch branch = new Branch(readHeadBranch(), currentCommit.getUid());
-        updatePointer(branch);
-
-        /** Move the files from Staging area directory to Blob directory after the Commit */
+        /** Move the files from Staging area directory to the blob store, so
+         *  that every object the commit refers to exists before it does */
         Collection<String> versions = stageAdd.values();
         for (String v : versions) {
             File source = join(STAGE_DIR, v);
-            File target = join(BLOBS_DIR, v);
-            Files.move(source.toPath(), target.toPath());
+            BLOBS.insert(v, source);
         }
+        Journal.crashPoint("blobs");
+
+        /** Write the new commit with secondParent */
+        currentCommit.writeCommit();
+
+        /** Move the active branch, unless another command moved it first.
+         *  The journal record written here is the point of no return. */
+        Refs.transaction().update(readHeadBranch(), head, currentCommit.getUid()).commit();
 
         /** Clears the stage and write the changes to a file */
         clearStage();
     }
 
     public static void rm(String filename) {
+        filename = normalize(filename);
+
         /** Load the StageRemove map */
-        stageAdd = readObject(STAGE_ADD_FILE, HashMap.class);
-        stageRmv = readObject(STAGE_REMOVE_FILE, HashMap.class);
+        stageAdd = Codec.readMap(STAGE_ADD_FILE);
+        stageRmv = Codec.readMap(STAGE_REMOVE_FILE);
         boolean isTrackedOrStaged = false;
 
         /** Un-stage the file if file is staged for addition */
@@ -167,20 +170,20 @@ public class Repository {
             stageRmv.put(filename, commit.getUid());
 
             /** File will also be removed from the Working Directory if it exists */
-            File file = join(CWD, filename);
-
-            if (file.exists()) {
-                file.delete();
-            }
+            deleteFile(filename);
+            Index index = Index.read();
+            index.remove(filename);
+            index.write();
         }
 
         if (!isTrackedOrStaged) {
             Validate.noReasonToRmv();
         }
+        Merge.resolved(Collections.singletonList(filename));
 
         /** Write changes to files */
-        writeObject(STAGE_ADD_FILE, (Serializable) stageAdd);
-        writeObject(STAGE_REMOVE_FILE, (Serializable) stageRmv);
+        Codec.writeMap(STAGE_ADD_FILE, stageAdd);
+        Codec.writeMap(STAGE_REMOVE_FILE, stageRmv);
     }
 
     public static void
@@ -203,126 +206,103 @@ public class Repository {
             checkoutHelper(head, filename);
         } else if (numArgs == 2) {
             String branchName = args[1];
-            List<String> branches = plainFilenamesIn(BRANCHES_DIR);
+            String branchID = getBranchID(branchName);
 
-            if (!(branches.contains(branchName))) {
+            if (branchID == null) {
                 Validate.noBranchExists();
             }
             if (branchName.equals(readHeadBranch())) {
                 Validate.isCurrentBranch();
             }
 
-            /** load stage maps */
-            /** Load the StageRemove map */
-            stageAdd = readObject(STAGE_ADD_FILE, HashMap.class);
-            stageRmv = readObject(STAGE_REMOVE_FILE, HashMap.class);
-
-            File branchFile = join(BRANCHES_DIR, branchName);
-            String branchID = readContentsAsString(branchFile);
-            Commit headCommit = fromFile(head);
-            Commit branchCommit = fromFile(branchID);
-
-            /** check if file can be overwritten. If any files are untracked,
-             *      prints error and program exits */
-            if (!canOverwrite(branchCommit)) {
-                Validate.containsUntrackedFiles();
-            } else {
-                /** if files are not in checkout branch, delete it from CWD */
-                List<String> filesCWD = plainFilenamesIn(CWD);
-                Set<String> branchKeys = branchCommit.blobs.keySet();
-                Set<String> headKeys = headCommit.blobs.keySet();
-
-                for (String file : filesCWD) {
-                    if (!branchKeys.contains(file)) {
-                        File fileToDelete = join(CWD, file);
-                        fileToDelete.delete();
-                    }
-                }
-
-                /** if files are tracked in Head branch but are not in
-                 *      in check out branch, delete them from CWD *?
-                 */
-                for (String file : headKeys) {
-                    boolean inBranch = branchKeys.contains(file);
-                    if (!inBranch) {
-                        File fileToDelete = join(CWD, file);
-                        fileToDelete.delete();
-                    }
-                }
-
-                /** Update the active pointer and Head pointer */
-                if (branchName.equals(Branch.SENTINEL)) {
-                    branchName = "master";
-                    rmBranch(Branch.SENTINEL);
-                }
-                Branch branch = new Branch(branchName, branchCommit.getUid());
-                updatePointer(branch);
-
-                /** If branch is not the Head branch, clear the stage */
-                if (!branchName.equals(readHeadBranch())) {
-                    clearStage();
-                }
-            }
+            /** Write the files that differ from HEAD and delete those the
+             *      branch does not track.  If any untracked file would be
+             *      overwritten, prints error and program exits */
+            checkoutCommit(fromFile(head), fromFile(branchID));
+
+            /** Make the branch the current one */
+            Refs.setHead(branchName);
         }
 
     }
 
-    public static void log() {
-        String commitUID = readHeadCommitUID();
-        Commit commit = fromFile(commitUID);
-
-        while (commit != null) {
-            commit.printCommit();
-
-            String parentUID = commit.getFirstParent();
-            commit = fromFile(parentUID);
+    /** Prints the first-parent history of the head commit, with the
+     *  options in ARGS[1..] (see LogPrinter).  The history is walked in the
+     *  commit graph, so only the commits printed are read. */
+    public static void log(String[] args) throws IOException {
+        LogPrinter printer = new LogPrinter(args, 1);
+        CommitGraph graph = CommitGraph.open();
+        List<String> ids = new ArrayList<>();
+        int pos = graph.position(readHeadCommitUID());
+        while (pos >= 0 && ids.size() < printer.limit()) {
+            ids.add(graph.idAt(pos));
+            pos = graph.parent(pos, 0);
         }
+        printer.print(ids);
     }
 
-    public static void globalLog() {
-        List<String> files = plainFilenamesIn(COMMIT_DIR);
-
-        for (String file: files) {
-            Commit commit = fromFile(file);
-            commit.printCommit();
-        }
+    /** Prints every commit ever made, with the options in ARGS[1..]. */
+    public static void globalLog(String[] args) throws IOException {
+        new LogPrinter(args, 1).print(COMMITS.ids());
     }
 
+    /** Prints the UIDs of the commits whose message is exactly MESSAGE. */
     public static void find(String message) {
-        List<String> files = plainFilenamesIn(COMMIT_DIR);
-        int match = 0;
-
-        for (String file: files) {
-            Commit commit = fromFile(file);
-            int cmp = commit.getMessage().compareTo(message);
-            if (cmp == 0) {
-                System.out.println(commit.getUid());
-                match++;
-            }
+        printMatches(MessageIndex.open().exact(message));
+    }
+
+    /** Prints the UIDs of the commits whose message contains every word of
+     *  TEXT (OPTION "--word") or contains TEXT (OPTION "--grep"), ignoring
+     *  case. */
+    public static void find(String option, String text) {
+        MessageIndex index = MessageIndex.open();
+        switch (option) {
+            case "--word":
+                printMatches(index.words(text));
+                break;
+            case "--grep":
+                printMatches(index.grep(text));
+                break;
+            default:
+                throw new GitletException("Incorrect operands");
         }
-        if (match == 0) {
+    }
+
+    private static void printMatches(Collection<String> ids) {
+        if (ids.isEmpty()) {
             Validate.noMessage();
         }
+        for (String id : ids) {
+            System.out.println(id);
+        }
+    }
+
+    /** Rebuilds the commit graph and the message index from the commit
+     *  store. */
+    public static void reindex() {
+        CommitGraph.rebuild();
+        MessageIndex.rebuild();
     }
 
     public static void status() {
         /** Prints Branches */
         System.out.println("=== Branches ===");
-        List<String> files = plainFilenamesIn(BRANCHES_DIR);
-        for (String file : files) {
-            String active = readHeadBranch();
+        String active = readHeadBranch();
+        StringBuilder branches = new StringBuilder();
+        for (String file : Refs.list().keySet()) {
             if (file.equals(active)) {
-                System.out.print("*");
+                branches.append('*');
             }
-            System.out.println(file);
+            branches.append(file).append('\n');
         }
+        System.out.print(branches);
 
         System.out.println();
 
         /** Prints Staged Files */
         System.out.println("=== Staged Files ===");
 
-        stageAdd = readObject(STAGE_ADD_FILE, HashMap.class);
+        stageAdd = Codec.readMap(STAGE_ADD_FILE);
         Set<String> keys = stageAdd.keySet();
 
         for (String key : keys) {
@@ -334,7 +314,7 @@ public class Repository {
         /** Prints Removed Files */
         System.out.println("=== Removed Files ===");
 
-        stageRmv = readObject(STAGE_REMOVE_FILE, HashMap.class);
+        stageRmv = Codec.readMap(STAGE_REMOVE_FILE);
         keys = stageRmv.keySet();
 
         for (String key : keys) {
@@ -343,119 +323,190 @@ public class Repository {
 
         System.out.println();
 
-        /** Prints Removed Files */
+        /** Prints the files staged for removal and addition that are
+         *      renames of one another, if any */
+        Commit commit = fromFile(readHeadCommitUID());
+        Map<String, String> gone = new HashMap<>();
+        for (String key : stageRmv.keySet()) {
+            gone.put(key, commit.getBlob(key));
+        }
+        Map<String, String> added = new HashMap<>();
+        for (Map.Entry<String, String> e : stageAdd.entrySet()) {
+            if (commit.getBlob(e.getKey()) == null) {
+                added.put(e.getKey(), e.getValue());
+            }
+        }
+        List<Renames.Rename> renames = Renames.find(gone, added, DiffPrinter::contents);
+        if (!renames.isEmpty()) {
+            System.out.println("=== Renamed Files ===");
+            for (Renames.Rename rename : renames) {
+                System.out.println(rename.from + " -> " + rename.to);
+            }
+            System.out.println();
+        }
+
+        /** Compare the working directory with the stage and the HEAD commit,
+         *      hashing only the files that are staged or tracked and whose
+         *      stat data changed */
+        Map<String, String> tracked = commit.getBlobs();
+        Set<String> wanted = new HashSet<>(stageAdd.keySet());
+        for (String key : tracked.keySet()) {
+            if (!stageRmv.containsKey(key)) {
+                wanted.add(key);
+            }
+        }
+        Index index = Index.read();
+        SortedMap<String, String> filesCWD = WorkTree.scan(index, wanted);
+        index.write();
+
+        /** Prints Modified Files */
         System.out.println("=== Modifications Not Staged For Commit ===");
+
+        SortedSet<String> modified = new TreeSet<>();
+        for (String key : wanted) {
+            String version = stageAdd.containsKey(key) ? stageAdd.get(key) : tracked.get(key);
+            if (!filesCWD.containsKey(key)) {
+                modified.add(key + " (deleted)");
+            } else if (!version.equals(filesCWD.get(key))) {
+                modified.add(key + " (modified)");
+            }
+        }
+        for (String entry : modified) {
+            System.out.println(entry);
+        }
+
         System.out.println();
 
         /** Prints Untracked Files */
         System.out.println("=== Untracked Files ===");
+
+        for (String file : filesCWD.keySet()) {
+            if (!wanted.contains(file)) {
+                System.out.println(file);
+            }
+        }
+
         System.out.println();
 
+        /** Prints the files the last merge left conflicted, if any */
+        SortedMap<String, String> conflicts = Merge.conflicts();
+        if (!conflicts.isEmpty()) {
+            System.out.println("=== Unmerged Files ===");
+            for (String file : conflicts.keySet()) {
+                System.out.println(file);
+            }
+            System.out.println();
+        }
+
+    }
+
+    /** Prints the changes between two versions of the tracked files, as
+     *  diff ARGS[1..] asks; see DiffPrinter. */
+    public static void diff(String[] args) throws IOException {
+        DiffPrinter.run(args);
     }
 
     public static void branch(String name) {
-        File branchFile = join(BRANCHES_DIR, name);
-        if (branchFile.exists()) {
+        if (Refs.exists(name)) {
             Validate.branchExists();
+            return;
         }
-        Branch branch = new Branch(name, readHeadCommitUID());
-        branch.writeBranch();
+        Refs.transaction().create(name, readHeadCommitUID()).commit();
     }
 
     public static void rmBranch(String name) {
-        List<String> branches = plainFilenamesIn(BRANCHES_DIR);
-        String currentBranch = readHeadBranch();
-
-        //System.out.println(currentBranch);
-
-        boolean notExist = true;
-
-        for (String branch : branches) {
-            int cmp = currentBranch.compareTo(name);
-            if (cmp == 0) {
-                Validate.notRemovable();
-            }
-
-            cmp = branch.compareTo(name);
-            if (cmp == 0) {
-                notExist = false;
-                File file = join(BRANCHES_DIR, name);
-                file.delete();
-                break;
-            }
+        if (name.equals(readHeadBranch())) {
+            Validate.notRemovable();
         }
-
-        if (notExist) {
+        String id = getBranchID(name);
+        if (id == null) {
             Validate.noBranchNameExists();
         }
+        Refs.transaction().delete(name, id).commit();
     }
 
+    /** Checks out the commit COMMITUID and moves the current branch to it. */
     public static void reset(String commitUID) throws IOException {
-        List<String> commits = plainFilenamesIn(COMMIT_DIR);
         String fullID = getFullID(commitUID);
-        if (!commits.contains(fullID)) {
+        if (!COMMITS.contains(fullID)) {
             Validate.noCommitIDExists();
         }
 
-        Branch temp = new Branch(Branch.SENTINEL, commitUID);
-        temp.writeBranch();
-        String[] args = {"checkout", temp.getName()};
-
-        clearStage();
-        checkout(args);
+        String head = readHeadCommitUID();
+        checkoutCommit(fromFile(head), fromFile(fullID));
+        Refs.transaction().update(readHeadBranch(), head, fullID).commit();
     }
 
     public static void merge(String branchName) throws IOException {
 
         // Validate if there are staged additions or removals
-        stageAdd = readObject(STAGE_ADD_FILE, HashMap.class);
-        stageRmv = readObject(STAGE_REMOVE_FILE, HashMap.class);
+        stageAdd = Codec.readMap(STAGE_ADD_FILE);
+        stageRmv = Codec.readMap(STAGE_REMOVE_FILE);
 
         if (!stageAdd.isEmpty() || !stageRmv.isEmpty()) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+            throw new GitletException("You have uncommitted changes.");
         }
 
-        List<String> branches = plainFilenamesIn(BRANCHES_DIR);
-        if (!branches.contains(branchName)) {
+        String branchID = getBranchID(branchName);
+        if (branchID == null) {
             Validate.noBranchExists();
         }
 
         if (branchName.equals(readHeadBranch())) {
-            System.out.println("Cannot merge a branch with itself.");
+            throw new GitletException("Cannot merge a branch with itself.");
         }
 
 
         // Find a splitpoint(), to get the blobs at the splitpoint
-        File branchFile = join(BRANCHES_DIR, branchName);
         String splitPoint = splitPointFinder(branchName);
 
         // If splitPoint is the same commit as the given branch, do nothing
-        String branchID = readContentsAsString(join(BRANCHES_DIR, branchName));
         if (splitPoint.equals(branchID)) {
             System.out.println("Given branch is an ancestor of the current branch");
             return;
         }
 
-        // If split point is the current branch, checkout the given branch
-        if (splitPoint.equals(readHeadCommitUID())) {
-            String[] args = {"checkout", branchID};
-            checkout(args);
+        // If split point is the current branch, move it to the given branch
+        String head = readHeadCommitUID();
+        if (splitPoint.equals(head)) {
+            checkoutCommit(fromFile(head), fromFile(branchID));
+            Refs.transaction().update(readHeadBranch(), head, branchID).commit();
             System.out.println("Current branch fast-forwarded.");
             return;
         }
 
         Commit commitSplit = fromFile(splitPoint);
-        Commit commitHead = fromFile(readHeadCommitUID());
-        Commit commitBranch = fromFile(readContentsAsString(branchFile));
-        Map<String, String> splitBlobs = commitSplit.blobs;
-        Map<String, String> headBlobs = commitHead.blobs;
-        Map<String, String> branchBlobs = commitBranch.blobs;
-
-        mergeHelper(splitBlobs, headBlobs, branchBlobs);
+        Commit commitHead = fromFile(head);
+        Commit commitBranch = fromFile(branchID);
+        Map<String, String> splitBlobs = commitSplit.getBlobs();
+        Map<String, String> headBlobs = commitHead.getBlobs();
+        Map<String, String> branchBlobs = commitBranch.getBlobs();
+
+        SortedMap<String, String> conflicts = mergeHelper(splitBlobs, headBlobs, branchBlobs);
+        if (!conflicts.isEmpty()) {
+            System.out.println("Encountered a merge conflict.");
+        }
 
         String contents = String.format("Merged %s into %s.",
                 branchName, readHeadBranch());
         commit(contents, branchName);
+        Merge.record(conflicts);
+    }
+
+    /** Deletes the loose objects and stage files nothing refers to, as
+     *  gc ARGS[1..] asks; see GarbageCollector. */
+    public static void gc(String[] args) throws IOException {
+        GarbageCollector.run(args);
+    }
+
+    /** Moves the loose commits and blobs into packfiles, storing each new
+     *  version of a file as a delta against its previous version, and the
+     *  loose branches into the packed refs. */
+    public static void pack() throws IOException {
+        Map<String, String> bases = deltaBases();
+        COMMITS.pack();
+        TREES.pack();
+        BLOBS.pack(bases, ObjectStore.MAX_DELTA_DEPTH);
+        Refs.pack();
     }
 }
\ No newline at end of file
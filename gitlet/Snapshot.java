@@ -0,0 +1,143 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static gitlet.Directory.*;
+import static gitlet.Utils.*;
+
+/** A consistent picture of a repository's mutable state, for commands
+ *  that read it without the WriterLock.  Whenever a writer lets go of the
+ *  lock it publishes SNAPSHOT_FILE, holding the current branch, its
+ *  commit and the contents of HEAD and the stage maps, in one atomic
+ *  rename.  A reader loads the file once and takes those from it rather
+ *  than from the live files, which a writer may be halfway through
+ *  changing; everything else it reads is an immutable object, or, like the
+ *  commit graph, only ever appended to.  A snapshot is stale when the
+ *  journal has records from after it, which happens only while a writer
+ *  runs or after one crashed. */
+class Snapshot {
+    /** Magic number ("GSNP") and format version of the snapshot file. */
+    private static final int MAGIC = 0x47534e50;
+    private static final int VERSION = 1;
+
+    /** The files a snapshot holds. */
+    private static final File[] FILES = {HEAD, STAGE_ADD_FILE, STAGE_REMOVE_FILE};
+
+    /** The snapshot the running reader uses, or null. */
+    private static Snapshot current;
+
+    /** Sequence number of the last journal record when published. */
+    private final long seq;
+
+    /** The current branch and its commit UID. */
+    private final String branch;
+    private final String head;
+
+    /** Contents of each of FILES. */
+    private final Map<File, byte[]> files;
+
+    private Snapshot(long seq, String branch, String head, Map<File, byte[]> files) {
+        this.seq = seq;
+        this.branch = branch;
+        this.head = head;
+        this.files = files;
+    }
+
+    /** Writes the snapshot of the repository as it is now.  The writer
+     *  lock must be held. */
+    static void publish() {
+        if (!HEAD.isFile() || HEAD.length() == 0) {
+            return;
+        }
+        String branch = Refs.head();
+        String head = Refs.resolve(branch);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(Journal.last());
+            out.writeUTF(branch);
+            out.writeUTF(head == null ? "" : head);
+            out.writeInt(FILES.length);
+            for (File file : FILES) {
+                byte[] contents = readContents(file);
+                out.writeUTF(file.getName());
+                out.writeInt(contents.length);
+                out.write(contents);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeAtomically(SNAPSHOT_FILE, bytes.toByteArray());
+    }
+
+    /** Returns the published snapshot, or null if there is none. */
+    private static Snapshot load() {
+        if (!SNAPSHOT_FILE.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(readContents(SNAPSHOT_FILE)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            long seq = in.readLong();
+            String branch = in.readUTF();
+            String head = in.readUTF();
+            Map<File, byte[]> files = new HashMap<>();
+            for (int n = in.readInt(); n > 0; n--) {
+                File file = join(GITLET_DIR, in.readUTF());
+                byte[] contents = new byte[in.readInt()];
+                in.readFully(contents);
+                files.put(file, contents);
+            }
+            return new Snapshot(seq, branch, head.isEmpty() ? null : head, files);
+        } catch (IOException | IllegalArgumentException excp) {
+            return null;
+        }
+    }
+
+    /** Returns true iff there is no snapshot, or the journal has records
+     *  from after it. */
+    static boolean stale() {
+        Snapshot snapshot = load();
+        return snapshot == null || snapshot.seq != Journal.last();
+    }
+
+    /** Makes the running command read from the published snapshot. */
+    static void begin() {
+        current = load();
+    }
+
+    /** Makes the running command read the live files again. */
+    static void end() {
+        current = null;
+    }
+
+    /** Returns the contents of FILE in the snapshot the running command
+     *  reads from, or null if it reads the live file. */
+    static byte[] get(File file) {
+        Snapshot snapshot = current;
+        if (snapshot == null || WriterLock.held()) {
+            return null;
+        }
+        return snapshot.files.get(file);
+    }
+
+    /** Returns the commit UID of branch NAME in the snapshot the running
+     *  command reads from, or null if it is not the snapshot's current
+     *  branch or the command reads the live refs. */
+    static String resolve(String name) {
+        Snapshot snapshot = current;
+        if (snapshot == null || WriterLock.held() || !name.equals(snapshot.branch)) {
+            return null;
+        }
+        return snapshot.head;
+    }
+}
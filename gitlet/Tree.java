@@ -0,0 +1,170 @@
+package gitlet;
+
+import java.util.*;
+
+import static gitlet.Directory.*;
+import static gitlet.Utils.*;
+
+/** A directory of a commit's snapshot: a sorted map from each name in the
+ *  directory to the UID of its blob or, for subdirectories, of its tree.
+ *  Trees are content-addressed and live in the TREES store, so a commit
+ *  shares every unchanged subtree with its parent and writing a commit
+ *  only writes the trees along the paths that changed.  Paths below a
+ *  tree are '/'-separated. */
+class Tree {
+    /** One name in a tree. */
+    static class Entry {
+        /** True iff HASH names a tree rather than a blob. */
+        final boolean isTree;
+        final String hash;
+
+        Entry(boolean isTree, String hash) {
+            this.isTree = isTree;
+            this.hash = hash;
+        }
+    }
+
+    /** The UID of the tree with no entries. */
+    static final String EMPTY = sha1(Codec.encode(new Tree()));
+
+    private final TreeMap<String, Entry> entries;
+
+    Tree() {
+        this(new TreeMap<>());
+    }
+
+    Tree(TreeMap<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /** Returns the entries of this tree, sorted by name. */
+    SortedMap<String, Entry> entries() {
+        return entries;
+    }
+
+    /** Reads the tree ID from the store.  A null ID is the empty tree.
+     *  Trees may be shared through the store's cache, so they are never
+     *  modified once read. */
+    static Tree read(String id) {
+        if (id == null || id.equals(EMPTY)) {
+            return new Tree();
+        }
+        return TREES.read(id, Codec::decodeTree);
+    }
+
+    /** Writes this tree to the store, if it is not there already, and
+     *  returns its UID. */
+    String write() {
+        byte[] contents = Codec.encode(this);
+        String id = sha1(contents);
+        TREES.write(id, contents);
+        return id;
+    }
+
+    /** Returns the UID of the tree BASE with CHANGES applied, writing the
+     *  trees that differ from BASE's.  CHANGES maps paths to their new blob
+     *  UIDs, or to null for paths that are removed.  Directories left empty
+     *  are dropped.  Only the subtrees of BASE that CHANGES touches are
+     *  read, so the cost follows the size of the change, not of the tree. */
+    static String update(String base, Map<String, String> changes) {
+        if (changes.isEmpty() && base != null) {
+            return base;
+        }
+        Tree tree = new Tree(new TreeMap<>(read(base).entries));
+        Map<String, Map<String, String>> subdirs = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                subdirs.computeIfAbsent(path.substring(0, slash), k -> new TreeMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                tree.entries.remove(path);
+            } else {
+                tree.entries.put(path, new Entry(false, change.getValue()));
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> dir : subdirs.entrySet()) {
+            /* A file put in place of the directory by CHANGES stays, and the
+             * directory emptied under it is simply not kept */
+            Entry old = tree.entries.get(dir.getKey());
+            String sub = update(old != null && old.isTree ? old.hash : null, dir.getValue());
+            boolean file = old != null && !old.isTree;
+            if (sub.equals(EMPTY)) {
+                if (!file) {
+                    tree.entries.remove(dir.getKey());
+                }
+            } else if (!file || changes.get(dir.getKey()) == null) {
+                tree.entries.put(dir.getKey(), new Entry(true, sub));
+            }
+        }
+        return tree.write();
+    }
+
+    /** Returns the blob UID of PATH in the tree ID, or null if the tree
+     *  has no such file.  Reads only the trees along PATH. */
+    static String lookup(String id, String path) {
+        String[] names = path.split("/");
+        for (int i = 0; i < names.length; i++) {
+            Entry e = read(id).entries.get(names[i]);
+            if (e == null || e.isTree != (i < names.length - 1)) {
+                return null;
+            }
+            id = e.hash;
+        }
+        return id;
+    }
+
+    /** Returns a map from every file path in the tree ID to its blob UID. */
+    static SortedMap<String, String> flatten(String id) {
+        SortedMap<String, String> result = new TreeMap<>();
+        flatten(id, "", result);
+        return result;
+    }
+
+    private static void flatten(String id, String prefix, SortedMap<String, String> result) {
+        for (Map.Entry<String, Entry> e : read(id).entries.entrySet()) {
+            String path = prefix + e.getKey();
+            if (e.getValue().isTree) {
+                flatten(e.getValue().hash, path + "/", result);
+            } else {
+                result.put(path, e.getValue().hash);
+            }
+        }
+    }
+
+    /** Returns the paths whose blobs differ between trees A and B, each
+     *  mapped to {blob in A, blob in B} with null for a missing file.
+     *  Subtrees with equal UIDs are skipped without being read. */
+    static SortedMap<String, String[]> diff(String a, String b) {
+        SortedMap<String, String[]> result = new TreeMap<>();
+        diff(a, b, "", result);
+        return result;
+    }
+
+    private static void diff(String a, String b, String prefix,
+                             SortedMap<String, String[]> result) {
+        if (Objects.equals(a, b)) {
+            return;
+        }
+        SortedMap<String, Entry> left = read(a).entries;
+        SortedMap<String, Entry> right = read(b).entries;
+        Set<String> names = new TreeSet<>(left.keySet());
+        names.addAll(right.keySet());
+        for (String name : names) {
+            Entry l = left.get(name);
+            Entry r = right.get(name);
+            String path = prefix + name;
+            String lTree = l != null && l.isTree ? l.hash : null;
+            String rTree = r != null && r.isTree ? r.hash : null;
+            if (lTree != null || rTree != null) {
+                diff(lTree, rTree, path + "/", result);
+            }
+            String lBlob = l != null && !l.isTree ? l.hash : null;
+            String rBlob = r != null && !r.isTree ? r.hash : null;
+            if (!Objects.equals(lBlob, rBlob)) {
+                result.put(path, new String[] {lBlob, rBlob});
+            }
+        }
+    }
+}
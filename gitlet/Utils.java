@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -9,8 +10,11 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -34,22 +38,24 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
+        MessageDigest md = sha1Digest();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+        }
+        return sha1Hex(md.digest());
+    }
+
+    /** Returns a fresh SHA-1 message digest, for hashing data that is
+     *  streamed rather than held in memory. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
@@ -61,6 +67,34 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the 20 raw bytes denoted by the hexadecimal SHA-1 UID HEX. */
+    static byte[] sha1Bytes(String hex) {
+        if (hex.length() != UID_LENGTH) {
+            throw new IllegalArgumentException("not a full SHA-1 UID: " + hex);
+        }
+        byte[] result = new byte[UID_LENGTH / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("not a full SHA-1 UID: " + hex);
+            }
+            result[i] = (byte) (hi << 4 | lo);
+        }
+        return result;
+    }
+
+    /** Returns the hexadecimal numeral for the 20 raw SHA-1 bytes in RAW. */
+    static String sha1Hex(byte[] raw) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] result = new char[raw.length * 2];
+        for (int i = 0; i < raw.length; i += 1) {
+            result[2 * i] = digits[(raw[i] >> 4) & 0xf];
+            result[2 * i + 1] = digits[raw[i] & 0xf];
+        }
+        return new String(result);
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -135,6 +169,35 @@ class Utils {
         }
     }
 
+    /** Write CONTENTS to FILE by way of FILE.tmp, which is renamed over
+     *  FILE, so that a crash leaves FILE with its old contents or its new
+     *  ones but never part of them.  Throws IllegalArgumentException in
+     *  case of problems. */
+    static void writeAtomically(File file, byte[] contents) {
+        File temp = new File(file.getPath() + ".tmp");
+        writeContents(temp, contents);
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Force FILE, a file or a directory, to the storage device.  On
+     *  systems that cannot open a directory, syncing one does nothing. */
+    static void fsync(File file) throws IOException {
+        boolean isDirectory = file.isDirectory();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                isDirectory ? StandardOpenOption.READ : StandardOpenOption.WRITE)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!isDirectory) {
+                throw excp;
+            }
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
@@ -220,6 +283,23 @@ class Utils {
         }
     }
 
+    /** Return an object of type T decoded from the serialized bytes in
+     *  CONTENTS, casting it to EXPECTEDCLASS.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] contents,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(contents));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */
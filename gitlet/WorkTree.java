@@ -0,0 +1,257 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+
+import static gitlet.Directory.*;
+import static gitlet.Utils.*;
+
+/** Parallel walks, scans and checkouts of the working directory.  A walk
+ *  lists every directory in a task of its own.  A scan splits the files
+ *  among the tasks of a ForkJoinPool, and only the files the caller cares
+ *  about whose stat data no longer matches the Index are read and hashed.
+ *  A checkout writes only the files whose blobs differ between two
+ *  commits, splitting them among the pool in the same way. */
+class WorkTree {
+    /** Number of worker threads, from -Dgitlet.threads or the core count. */
+    static final int THREADS = Integer.getInteger("gitlet.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    /** The pool that runs working-tree scans. */
+    static final ForkJoinPool POOL = new ForkJoinPool(THREADS);
+
+    /** Files a task handles itself instead of splitting further. */
+    private static final int THRESHOLD = 32;
+
+    /** The outcome of scanning one file. */
+    private static class Result {
+        final String name;
+        final String hash;
+        final Index.Entry stat;
+
+        Result(String name, String hash, Index.Entry stat) {
+            this.name = name;
+            this.hash = hash;
+            this.stat = stat;
+        }
+    }
+
+    /** Lists DIR, whose path below the working directory is PREFIX, into
+     *  PATHS and forks a walk of each of its subdirectories.  Walks finish
+     *  through their completers instead of joining their children, so the
+     *  depth of the tree never deepens the stack. */
+    private static class Walk extends CountedCompleter<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final File dir;
+        private final String prefix;
+        private final Set<String> paths;
+
+        Walk(CountedCompleter<?> parent, File dir, String prefix, Set<String> paths) {
+            super(parent);
+            this.dir = dir;
+            this.prefix = prefix;
+            this.paths = paths;
+        }
+
+        @Override
+        public void compute() {
+            File[] children = dir.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    String path = prefix + child.getName();
+                    if (Files.isDirectory(child.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+                        if (!path.equals(GITLET_DIR.getName())) {
+                            addToPendingCount(1);
+                            new Walk(this, child, path + "/", paths).fork();
+                        }
+                    } else if (child.isFile()) {
+                        paths.add(path);
+                    }
+                }
+            }
+            tryComplete();
+        }
+    }
+
+    /** Returns the '/'-separated paths of the files under the directory
+     *  ROOT of the working directory, or under the working directory
+     *  itself if ROOT is empty, in sorted order.  The .gitlet directory
+     *  is skipped and symbolic links to directories are not followed. */
+    static NavigableSet<String> walk(String root) {
+        long start = System.nanoTime();
+        NavigableSet<String> paths = new ConcurrentSkipListSet<>();
+        File dir = root.isEmpty() ? CWD : Utils.join(CWD, root);
+        POOL.invoke(new Walk(null, dir, root.isEmpty() ? "" : root + "/", paths));
+        Helper.timing("walk: %s, %.3f ms", root.isEmpty() ? "." : root,
+                (System.nanoTime() - start) / 1e6);
+        return paths;
+    }
+
+    /** Returns the paths of all files in the working directory. */
+    static NavigableSet<String> walk() {
+        return walk("");
+    }
+
+    /** Scans NAMES[LO..HI). */
+    private static class Scan extends RecursiveTask<List<Result>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> names;
+        private final int lo;
+        private final int hi;
+        private final Index index;
+        private final Set<String> wanted;
+
+        Scan(List<String> names, int lo, int hi, Index index, Set<String> wanted) {
+            this.names = names;
+            this.lo = lo;
+            this.hi = hi;
+            this.index = index;
+            this.wanted = wanted;
+        }
+
+        @Override
+        protected List<Result> compute() {
+            if (hi - lo > THRESHOLD) {
+                int mid = (lo + hi) >>> 1;
+                Scan left = new Scan(names, lo, mid, index, wanted);
+                left.fork();
+                List<Result> right = new Scan(names, mid, hi, index, wanted).compute();
+                List<Result> result = left.join();
+                result.addAll(right);
+                return result;
+            }
+
+            List<Result> result = new ArrayList<>(hi - lo);
+            for (int i = lo; i < hi; i++) {
+                String name = names.get(i);
+                if (!wanted.contains(name)) {
+                    result.add(new Result(name, null, null));
+                    continue;
+                }
+                File file = Utils.join(CWD, name);
+                String hash = index.cached(name, file);
+                Index.Entry stat = null;
+                if (hash == null) {
+                    stat = Index.stat(file);
+                    try {
+                        hash = Index.hashFile(file);
+                    } catch (IOException excp) {
+                        throw new UncheckedIOException(excp);
+                    }
+                }
+                result.add(new Result(name, hash, stat));
+            }
+            return result;
+        }
+    }
+
+    /** Returns a map from the path of every file in the working directory
+     *  to its blob UID, or to null for the files not in WANTED, which are
+     *  never read.  Files whose stat data matches INDEX are not hashed;
+     *  the others are, and INDEX is updated with their new entries. */
+    static SortedMap<String, String> scan(Index index, Set<String> wanted) {
+        long start = System.nanoTime();
+        List<String> names = new ArrayList<>(walk());
+        List<Result> results = POOL.invoke(new Scan(names, 0, names.size(), index, wanted));
+
+        SortedMap<String, String> files = new TreeMap<>();
+        int hashed = 0;
+        for (Result r : results) {
+            files.put(r.name, r.hash);
+            if (r.stat != null) {
+                index.update(r.name, r.stat, r.hash);
+                hashed++;
+            }
+        }
+        Helper.timing("scan: %d files, %d hashed, %d threads, %.3f ms",
+                names.size(), hashed, THREADS, (System.nanoTime() - start) / 1e6);
+        return files;
+    }
+
+    /** Writes the blobs of CHANGES[LO..HI) to their paths, each change
+     *  being a path and the {old, new} blobs that Tree.diff gives it. */
+    private static class Write extends RecursiveTask<List<Result>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Map.Entry<String, String[]>> changes;
+        private final int lo;
+        private final int hi;
+
+        Write(List<Map.Entry<String, String[]>> changes, int lo, int hi) {
+            this.changes = changes;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected List<Result> compute() {
+            if (hi - lo > THRESHOLD) {
+                int mid = (lo + hi) >>> 1;
+                Write left = new Write(changes, lo, mid);
+                left.fork();
+                List<Result> right = new Write(changes, mid, hi).compute();
+                List<Result> result = left.join();
+                result.addAll(right);
+                return result;
+            }
+
+            List<Result> result = new ArrayList<>(hi - lo);
+            for (int i = lo; i < hi; i++) {
+                String path = changes.get(i).getKey();
+                String hash = changes.get(i).getValue()[1];
+                File file = Utils.join(CWD, path);
+                try {
+                    BLOBS.copyTo(hash, file);
+                } catch (IOException excp) {
+                    throw new UncheckedIOException(excp);
+                }
+                result.add(new Result(path, hash, Index.stat(file)));
+            }
+            return result;
+        }
+    }
+
+    /** Replaces the working files of commit FROM with those of commit TO.
+     *  Only paths whose blobs differ are touched: files TO no longer
+     *  tracks are deleted, and the rest are written in parallel and
+     *  entered in INDEX so they are not rehashed.  Returns false, having
+     *  changed nothing, if an untracked working file would be overwritten. */
+    static boolean checkout(Commit from, Commit to, Index index) {
+        long start = System.nanoTime();
+        SortedMap<String, String[]> changes = Tree.diff(from.getTree(), to.getTree());
+        for (Map.Entry<String, String[]> e : changes.entrySet()) {
+            if (e.getValue()[0] == null && Utils.join(CWD, e.getKey()).isFile()) {
+                return false;
+            }
+        }
+
+        int deleted = 0;
+        for (Map.Entry<String, String[]> e : changes.entrySet()) {
+            if (e.getValue()[1] == null) {
+                Helper.deleteFile(e.getKey());
+                index.remove(e.getKey());
+                deleted++;
+            }
+        }
+
+        List<Map.Entry<String, String[]>> writes = changes.entrySet().stream()
+                .filter(e -> e.getValue()[1] != null).collect(Collectors.toList());
+        for (Result r : POOL.invoke(new Write(writes, 0, writes.size()))) {
+            index.update(r.name, r.stat, r.hash);
+        }
+        Helper.timing("checkout: %d written, %d deleted, %d threads, %.3f ms",
+                writes.size(), deleted, THREADS, (System.nanoTime() - start) / 1e6);
+        return true;
+    }
+}
@@ -0,0 +1,101 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static gitlet.Directory.*;
+
+/** The lock that lets one command at a time change a repository.  It is
+ *  an operating-system lock on LOCK_FILE, so it is released when the
+ *  process holding it exits however it exits, and a re-entrant lock
+ *  inside the process, so that a batch can hold it across the commands
+ *  it runs and the threads of a daemon take turns.  Commands that only
+ *  read do not take it; they read the repository as of the Snapshot the
+ *  last writer published when it let go. */
+class WriterLock {
+    /** The lock among the threads of this process. */
+    private static final ReentrantLock THREADS = new ReentrantLock();
+
+    /** The locked file and its lock, while this process holds it. */
+    private static FileChannel channel;
+    private static FileLock lock;
+
+    /** Takes the lock, waiting for the command that holds it to finish. */
+    static void acquire() {
+        THREADS.lock();
+        if (THREADS.getHoldCount() > 1) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            channel = FileChannel.open(LOCK_FILE.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            lock = channel.lock();
+        } catch (IOException excp) {
+            close();
+            THREADS.unlock();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Helper.timing("writer lock: %.3f ms", (System.nanoTime() - start) / 1e6);
+    }
+
+    /** Takes the lock if no other command holds it.  Returns true iff it
+     *  was taken. */
+    static boolean tryAcquire() {
+        if (!THREADS.tryLock()) {
+            return false;
+        }
+        if (THREADS.getHoldCount() > 1) {
+            return true;
+        }
+        try {
+            channel = FileChannel.open(LOCK_FILE.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            lock = channel.tryLock();
+        } catch (IOException excp) {
+            lock = null;
+        }
+        if (lock == null) {
+            close();
+            THREADS.unlock();
+            return false;
+        }
+        return true;
+    }
+
+    /** Returns true iff this thread holds the lock. */
+    static boolean held() {
+        return THREADS.isHeldByCurrentThread();
+    }
+
+    /** Lets go of the lock, publishing a new snapshot of the repository
+     *  first if this is the outermost hold. */
+    static void release() {
+        try {
+            if (THREADS.getHoldCount() == 1) {
+                Snapshot.publish();
+            }
+        } finally {
+            if (THREADS.getHoldCount() == 1) {
+                close();
+            }
+            THREADS.unlock();
+        }
+    }
+
+    private static void close() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException excp) {
+            // Closing releases the lock; there is nothing more to do
+        } finally {
+            channel = null;
+            lock = null;
+        }
+    }
+}